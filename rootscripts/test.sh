@@ -13,7 +13,7 @@ argc=$#
 
 if (( argc < 2 ))
 then
-	echo "Usage: $0 <peer_ap> BACKUP|RESTORE|DELETE|RECLAIM|STATE [<opnd_1> [<optnd_2]]"
+	echo "Usage: $0 <peer_ap> BACKUP|RESTORE|DELETE|RECLAIM|STATE|METRICS [<opnd_1> [<optnd_2]]"
 	exit 1
 fi
 
@@ -69,8 +69,17 @@ STATE)
 	opernd_1=""
 	rep_deg=""
 	;;
+METRICS)
+	if(( argc != 2 ))
+	then
+		echo "Usage: $0 <peer_app> METRICS"
+		exit 1
+	fi
+	opernd_1=""
+	rep_deg=""
+	;;
 *)
-	echo "Usage: $0 <peer_ap> BACKUP|RESTORE|DELETE|RECLAIM|STATE [<opnd_1> [<optnd_2]]"
+	echo "Usage: $0 <peer_ap> BACKUP|RESTORE|DELETE|RECLAIM|STATE|METRICS [<opnd_1> [<optnd_2]]"
 	exit 1
 	;;
 esac
@@ -1,5 +1,5 @@
 package main.g24;
 
 public enum ClientPeerOperation {
-    BACKUP, RESTORE, DELETE, RECLAIM, STORE, STATE
+    BACKUP, RESTORE, DELETE, RECLAIM, STORE, STATE, METRICS
 }
@@ -9,4 +9,5 @@ public interface ClientPeerProtocol extends Remote {
     String reclaim(int new_capacity) throws RemoteException;
     String restore(String file) throws RemoteException;
     String state() throws RemoteException;
+    String metrics() throws RemoteException;
 }
\ No newline at end of file
@@ -1,19 +1,21 @@
 package main.g24;
 
+import main.g24.chord.ChordId;
+
 import java.io.Serializable;
 import java.util.List;
 import java.util.concurrent.CopyOnWriteArrayList;
 
 public class FileDetails implements Serializable {
 
-    private final String hash;
+    private final FileId hash;
     private final long size;
     private final int desiredRepDegree;
 
-    private final List<Integer> copies;
+    private final List<ChordId> copies;
 
     // File details on initiator
-    public FileDetails(String hash, long size, int desiredRepDegree) {
+    public FileDetails(FileId hash, long size, int desiredRepDegree) {
         this.hash = hash;
         this.size = size;
         this.desiredRepDegree = desiredRepDegree;
@@ -21,14 +23,14 @@ public class FileDetails implements Serializable {
     }
 
     // File Details on store
-    public FileDetails(String hash, long size) {
+    public FileDetails(FileId hash, long size) {
         this.hash = hash;
         this.size = size;
         this.desiredRepDegree = -1;
         this.copies = null;
     }
 
-    public String getHash() {
+    public FileId getHash() {
         return hash;
     }
 
@@ -48,27 +50,24 @@ public class FileDetails implements Serializable {
         return Math.max(0, getDesiredReplication() - getPerceivedReplication());
     }
 
-    public List<Integer> getFileCopies() { return copies; }
+    public List<ChordId> getFileCopies() { return copies; }
 
-    public void addCopy(int peerID) {
+    public void addCopy(ChordId peerID) {
         if (!copies.contains(peerID))
             this.copies.add(peerID);
     }
 
-    public void removeCopy(int peerID) {
-        int idx = this.copies.indexOf(peerID);
-
-        if (idx != -1)
-            this.copies.remove(idx);
+    public void removeCopy(ChordId peerID) {
+        this.copies.remove(peerID);
     }
 
-    public int getLastCopy() {
-        return this.copies.isEmpty() ? -1 : this.copies.get(copies.size()-1);
+    public ChordId getLastCopy() {
+        return this.copies.isEmpty() ? null : this.copies.get(copies.size()-1);
     }
 
     @Override
     public String toString() {
-        return "hash=" + hash.substring(0, 6) +
+        return "hash=" + hash.toShortString() +
                 "\tsize=" + size / 1000 + "KB" +
                 "\tdesiredRepDegree=" + desiredRepDegree +
                 "\tcopies=" + copies;
@@ -0,0 +1,152 @@
+package main.g24;
+
+import main.g24.chord.ChordId;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.io.Serializable;
+import java.nio.ByteBuffer;
+
+/**
+ * Identifies a file: the SHA3-256 digest of its path and the id of the peer that backed it up.
+ * Kept as the raw digest in four words, with its hash code and key worked out once, when it's made.
+ * The key is the low ChordId.BITS bits of the digest, which is already spread evenly, so it isn't hashed again.
+ * Only written in hex where a person or the file system sees it: file names, logs and the text protocol
+ */
+public final class FileId implements Comparable<FileId>, Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    public static final int BYTES = 32, HEX_DIGITS = 2 * BYTES;
+
+    // bytes 0-7, 8-15, 16-23 and 24-31 of the digest, big endian
+    private final long w0, w1, w2, w3;
+    private final int hash;
+    private final ChordId key;
+
+    private FileId(long w0, long w1, long w2, long w3) {
+        this.w0 = w0;
+        this.w1 = w1;
+        this.w2 = w2;
+        this.w3 = w3;
+        this.hash = Long.hashCode(w0);
+        this.key = ChordId.of(w1, w2, w3);
+    }
+
+    public static FileId of(long w0, long w1, long w2, long w3) {
+        return new FileId(w0, w1, w2, w3);
+    }
+
+    /**
+     * @return id made of the BYTES bytes of bytes starting at offset
+     */
+    public static FileId fromBytes(byte[] bytes, int offset) {
+        ByteBuffer buffer = ByteBuffer.wrap(bytes, offset, BYTES);
+        return read(buffer);
+    }
+
+    public static FileId read(ByteBuffer in) {
+        return new FileId(in.getLong(), in.getLong(), in.getLong(), in.getLong());
+    }
+
+    public void write(ByteBuffer out) {
+        out.putLong(w0).putLong(w1).putLong(w2).putLong(w3);
+    }
+
+    public static FileId read(DataInput in) throws IOException {
+        return new FileId(in.readLong(), in.readLong(), in.readLong(), in.readLong());
+    }
+
+    public void write(DataOutput out) throws IOException {
+        out.writeLong(w0);
+        out.writeLong(w1);
+        out.writeLong(w2);
+        out.writeLong(w3);
+    }
+
+    /**
+     * @param hex id as written by toString
+     * @throws NumberFormatException if it isn't HEX_DIGITS hex digits
+     */
+    public static FileId parse(String hex) {
+        if (hex.length() != HEX_DIGITS)
+            throw new NumberFormatException("Not a file id: " + hex);
+        return new FileId(parseWord(hex, 0), parseWord(hex, 1), parseWord(hex, 2), parseWord(hex, 3));
+    }
+
+    private static long parseWord(String hex, int i) {
+        long word = 0;
+        for (int c = 16 * i; c < 16 * (i + 1); c++) {
+            int digit = Character.digit(hex.charAt(c), 16);
+            if (digit < 0)
+                throw new NumberFormatException("Not a file id: " + hex);
+            word = (word << 4) | digit;
+        }
+        return word;
+    }
+
+    /**
+     * @return i-th word of the digest, 0 to 3
+     */
+    public long word(int i) {
+        switch (i) {
+            case 0: return w0;
+            case 1: return w1;
+            case 2: return w2;
+            case 3: return w3;
+            default: throw new IndexOutOfBoundsException(i);
+        }
+    }
+
+    /**
+     * @return position of the file in the ring
+     */
+    public ChordId key() {
+        return key;
+    }
+
+    @Override
+    public int compareTo(FileId other) {
+        int order = Long.compareUnsigned(w0, other.w0);
+        if (order == 0)
+            order = Long.compareUnsigned(w1, other.w1);
+        if (order == 0)
+            order = Long.compareUnsigned(w2, other.w2);
+        if (order == 0)
+            order = Long.compareUnsigned(w3, other.w3);
+        return order;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o)
+            return true;
+        if (!(o instanceof FileId))
+            return false;
+        FileId other = (FileId) o;
+        return w0 == other.w0 && w1 == other.w1 && w2 == other.w2 && w3 == other.w3;
+    }
+
+    @Override
+    public int hashCode() {
+        return hash;
+    }
+
+    @Override
+    public String toString() {
+        char[] hex = new char[HEX_DIGITS];
+        for (int i = 0; i < 4; i++)
+            SdisUtils.putHex(hex, 16 * i, word(i), 16);
+        return new String(hex);
+    }
+
+    /**
+     * @return first 6 hex digits, enough to tell files apart in the logs
+     */
+    public String toShortString() {
+        char[] hex = new char[6];
+        SdisUtils.putHex(hex, 0, w0 >>> 40, 6);
+        return new String(hex);
+    }
+}
@@ -0,0 +1,356 @@
+package main.g24;
+
+import main.g24.chord.ChordId;
+import main.g24.chord.INode;
+import main.g24.monitors.GeneralMonitor;
+import main.g24.socket.FileChunks;
+import main.g24.socket.managers.ISocketManager;
+import main.g24.socket.managers.ReceiveRangeSocket;
+import main.g24.socket.managers.SocketManager;
+import main.g24.socket.messages.*;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Restores a file from every peer holding a copy at once.
+ * The key owner tells who holds it (LOCATE), the file is then split in ranges that each holder takes
+ * from a shared queue as soon as it's done with its previous one, so faster holders end up sending more.
+ * Ranges are written in place into the .ranges file, which is moved to the recovery path once all of them arrived.
+ * It has holes until then, so it only becomes the .part file that a later restore resumes from once it's cut back
+ * to its contiguous start, when the restore fails. One left behind by a peer that stopped meanwhile is started over
+ * A holder that fails, or takes longer than RANGE_TIMEOUT on a range, is dropped and its range goes back
+ * to the queue, for the others to take
+ */
+public class ParallelRestore {
+
+    private static final long RANGE_SIZE = 2L * FileChunks.CHUNK_SIZE;
+    private static final long LOCATE_TIMEOUT = 2000;
+    // time a holder gets to connect and send a range, about a megabyte a second on top of the base
+    private static final long RANGE_TIMEOUT = 2000 + RANGE_SIZE / 1000;
+
+    private static final ScheduledExecutorService deadlines = Executors.newSingleThreadScheduledExecutor(task -> {
+        Thread thread = new Thread(task, "restore-deadlines");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final Peer peer;
+    private final FileId fileHash;
+    private final Path path, partPath, rangesPath;
+    private final GeneralMonitor monitor;
+
+    private final long size;
+    private FileChannel file;
+
+    // start -> end of every range not yet verified, queued or being received
+    private final TreeMap<Long, Long> unfinished;
+    private final Deque<Long> queue;
+
+    private final Map<ChordId, INode> holders;
+    private final Set<ChordId> active;
+    // start of every range being received -> holder sending it
+    private final Map<Long, ChordId> taken;
+    private final Map<ChordId, Long> received;
+    private boolean finished;
+
+    private ParallelRestore(Peer peer, FileId fileHash, Path path, long size, GeneralMonitor monitor) {
+        this.peer = peer;
+        this.fileHash = fileHash;
+        this.path = path;
+        this.partPath = FileChunks.partPath(path);
+        this.rangesPath = FileChunks.rangesPath(path);
+        this.size = size;
+        this.monitor = monitor;
+
+        this.unfinished = new TreeMap<>();
+        this.queue = new ArrayDeque<>();
+        this.holders = new HashMap<>();
+        this.active = new HashSet<>();
+        this.taken = new HashMap<>();
+        this.received = new HashMap<>();
+        this.finished = false;
+    }
+
+    /**
+     * Asks the key owner who holds the file and starts pulling it from all of them
+     * @param peer peer restoring the file
+     * @param fileHash file to restore
+     * @param path where to restore it to
+     * @param monitor resolved with the outcome
+     * @return false if the holders couldn't be found
+     */
+    public static boolean restore(Peer peer, FileId fileHash, Path path, GeneralMonitor monitor) {
+        try {
+            INode key_owner = peer.find_successor(fileHash.key());
+            ISocketMessage reply = peer.getConnectionPool()
+                    .request(key_owner.get_socket_address(), new LocateMessage(peer.get_id(), fileHash))
+                    .get(LOCATE_TIMEOUT, TimeUnit.MILLISECONDS);
+
+            if (reply.get_type() != Type.HOLDERS)
+                return false;
+
+            HoldersMessage found = (HoldersMessage) reply;
+            ParallelRestore restore = new ParallelRestore(peer, fileHash, path, found.size, monitor);
+            return restore.start(found.holders);
+
+        } catch (IOException | InterruptedException | ExecutionException | TimeoutException e) {
+            System.err.println("[X] Couldn't locate [" + fileHash.toShortString() + "]: " + e.getMessage());
+        }
+        return false;
+    }
+
+    private boolean start(Collection<ChordId> holderIds) throws IOException {
+        // every holder is looked up at once
+        Map<ChordId, CompletableFuture<INode>> lookups = new HashMap<>();
+        for (ChordId id : holderIds)
+            lookups.put(id, peer.find_successor_async(id));
+
+        for (Map.Entry<ChordId, CompletableFuture<INode>> lookup : lookups.entrySet()) {
+            ChordId id = lookup.getKey();
+            try {
+                INode holder = lookup.getValue().get();
+                // the holder is gone if its id now belongs to another node
+                if (holder.get_id().equals(id))
+                    holders.put(id, holder);
+            } catch (InterruptedException | ExecutionException e) {
+                System.err.println("[!] Holder " + id + " of [" + fileHash.toShortString() + "] unreachable");
+            }
+        }
+        if (holders.isEmpty())
+            return false;
+
+        Files.createDirectories(path.getParent());
+
+        // the start of an interrupted restore is kept, the rest is split in ranges
+        long resumed = FileChunks.clampOffset(FileChunks.resumeOffset(path), size);
+        if (Files.exists(partPath))
+            Files.move(partPath, rangesPath, StandardCopyOption.REPLACE_EXISTING);
+        file = FileChannel.open(rangesPath, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        file.truncate(resumed);
+        for (long start = resumed; start < size; start += RANGE_SIZE) {
+            unfinished.put(start, Math.min(size, start + RANGE_SIZE));
+            queue.add(start);
+        }
+
+        System.out.println("[#] Restoring [" + fileHash.toShortString() + "] in " + queue.size() + " ranges from " + holders.keySet());
+
+        if (queue.isEmpty()) {
+            finish();
+            return true;
+        }
+
+        for (ChordId id : new ArrayList<>(holders.keySet()))
+            openSource(id);
+        return true;
+    }
+
+    /**
+     * Opens a connection to a holder and asks it for the next queued range
+     */
+    private void openSource(ChordId holderId) {
+        long start;
+        INode holder;
+        synchronized (this) {
+            if (finished || active.contains(holderId) || (holder = holders.get(holderId)) == null || queue.isEmpty())
+                return;
+            start = queue.poll();
+            active.add(holderId);
+            taken.put(start, holderId);
+        }
+
+        SocketChannel socket;
+        try {
+            socket = SocketChannel.open();
+        } catch (IOException e) {
+            e.printStackTrace();
+            onRangeLost(holderId, start, start);
+            return;
+        }
+        expireRange(socket, holderId, start);
+
+        try {
+            socket.configureBlocking(false);
+            socket.connect(holder.get_socket_address());
+
+            peer.getSelector().register(socket, new SocketManager(
+                    () -> requestRange(socket, holderId, start),
+                    () -> onRangeLost(holderId, start, start)
+            ));
+        } catch (IOException e) {
+            e.printStackTrace();
+            closeSource(socket);
+            onRangeLost(holderId, start, start);
+        }
+    }
+
+    /**
+     * Gives up on the range if the holder still hasn't sent it by RANGE_TIMEOUT, cutting off the connection
+     */
+    private void expireRange(SocketChannel socket, ChordId holderId, long start) {
+        deadlines.schedule(() -> {
+            synchronized (this) {
+                if (!holderId.equals(taken.get(start)))
+                    return;
+            }
+            System.err.println("[!] Holder " + holderId + " of [" + fileHash.toShortString() + "] timed out");
+            closeSource(socket);
+            onRangeLost(holderId, start, start);
+        }, RANGE_TIMEOUT, TimeUnit.MILLISECONDS);
+    }
+
+    private static void closeSource(SocketChannel socket) {
+        try {
+            socket.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    private ISocketManager requestRange(SocketChannel socket, ChordId holderId, long start) {
+        long end;
+        synchronized (this) {
+            end = unfinished.get(start);
+        }
+
+        try {
+            new GetRangeMessage(peer.get_id(), fileHash, start, end - start).send(socket);
+        } catch (IOException e) {
+            e.printStackTrace();
+            onRangeLost(holderId, start, start);
+            return null;
+        }
+
+        return new SocketManager(
+                (message, key) -> onReply(message, key, holderId, start, end),
+                () -> onRangeLost(holderId, start, start)
+        );
+    }
+
+    private ISocketManager onReply(ISocketMessage message, SelectionKey key, ChordId holderId, long start, long end) {
+        if (message.get_type() != Type.FILEHERE) {
+            onRangeLost(holderId, start, start);
+            return null;
+        }
+
+        return new ReceiveRangeSocket(file, start, end,
+                () -> onRangeDone(key, holderId, start, end),
+                verified -> onRangeLost(holderId, start, verified)
+        );
+    }
+
+    /**
+     * Takes the next range for the holder that just finished one, on the same connection
+     */
+    private ISocketManager onRangeDone(SelectionKey key, ChordId holderId, long start, long end) {
+        Long next;
+        boolean complete;
+        synchronized (this) {
+            // the deadline went off first, the range is already someone else's
+            if (!holderId.equals(taken.get(start)))
+                return null;
+            unfinished.remove(start);
+            taken.remove(start);
+            received.merge(holderId, end - start, Long::sum);
+
+            next = queue.poll();
+            if (next == null)
+                active.remove(holderId);
+            else
+                taken.put(next, holderId);
+            complete = unfinished.isEmpty() && !finished;
+            if (complete)
+                finished = true;
+        }
+
+        if (complete)
+            finish();
+        if (next == null)
+            return null;
+
+        SocketChannel socket = (SocketChannel) key.channel();
+        expireRange(socket, holderId, next);
+        return requestRange(socket, holderId, next);
+    }
+
+    /**
+     * Drops the holder and puts what's left of its range back in the queue.
+     * Only the first report of a range counts, it may come from the connection and its deadline at once
+     * @param verified end of the part of the range that did arrive
+     */
+    private void onRangeLost(ChordId holderId, long start, long verified) {
+        List<ChordId> idle;
+        boolean failed;
+        synchronized (this) {
+            if (finished || !holderId.equals(taken.get(start)))
+                return;
+            taken.remove(start);
+
+            System.err.println("[!] Holder " + holderId + " of [" + fileHash.toShortString() + "] failed at " + verified);
+            holders.remove(holderId);
+            active.remove(holderId);
+
+            long end = unfinished.remove(start);
+            if (verified < end) {
+                unfinished.put(verified, end);
+                queue.addFirst(verified);
+            }
+
+            // holders that already ran out of ranges take it up
+            idle = new ArrayList<>(holders.keySet());
+            idle.removeAll(active);
+
+            failed = holders.isEmpty();
+            if (failed)
+                finished = true;
+        }
+
+        if (failed) {
+            fail();
+            return;
+        }
+        for (ChordId id : idle)
+            openSource(id);
+    }
+
+    private void finish() {
+        try {
+            file.close();
+            Files.move(rangesPath, path, StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException e) {
+            e.printStackTrace();
+            monitor.resolve("failure");
+            return;
+        }
+
+        System.out.println("[#] Restored [" + fileHash.toShortString() + "], bytes per holder: " + received);
+        monitor.resolve("success");
+    }
+
+    private void fail() {
+        // ranges may have arrived out of order, only the contiguous start of the file can be resumed
+        try {
+            file.truncate(unfinished.isEmpty() ? size : unfinished.firstKey());
+            file.close();
+            Files.move(rangesPath, partPath, StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+
+        System.err.println("[X] No holder of [" + fileHash.toShortString() + "] left to restore from");
+        monitor.resolve("failure");
+    }
+}
@@ -1,25 +1,34 @@
 package main.g24;
 
+import main.g24.chord.ChordId;
 import main.g24.chord.INode;
 import main.g24.chord.Node;
+import main.g24.chord.RemoteNode;
+import main.g24.metadata.DeltaLog;
+import main.g24.metadata.FileIndex;
+import main.g24.metadata.MetadataLog;
+import main.g24.metadata.MetadataRecord;
 import main.g24.monitors.GeneralMonitor;
+import main.g24.socket.BufferPool;
+import main.g24.socket.ConnectionPool;
+import main.g24.socket.FileChunks;
 import main.g24.socket.ServerSocketHandler;
 import main.g24.socket.managers.ISocketManager;
-import main.g24.socket.managers.SendFileSocket;
 import main.g24.socket.managers.SocketManager;
-import main.g24.socket.managers.StateSocketManager;
 import main.g24.socket.managers.dispatchers.AckNackDispatcher;
 import main.g24.socket.managers.dispatchers.RestoreDispatcher;
+import main.g24.socket.managers.dispatchers.SendFileDispatcher;
 import main.g24.socket.messages.*;
 
 import java.io.File;
 import java.io.IOException;
 import java.net.*;
-import java.nio.channels.SelectionKey;
+import java.nio.channels.Channels;
 import java.nio.channels.SocketChannel;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
 import java.rmi.AlreadyBoundException;
 import java.rmi.ConnectException;
 import java.rmi.NotBoundException;
@@ -31,51 +40,104 @@ import java.util.*;
 import java.util.concurrent.*;
 
 
-public class Peer extends Node implements ClientPeerProtocol {
+public class Peer extends Node implements ClientPeerProtocol, MetadataLog.State {
 
     public static final int BLOCK_SIZE = 1024 * 128;
 
+    // storage capacity the peer starts with, in bytes (-Dg24.capacity)
+    public static final long CAPACITY = Long.getLong("g24.capacity", 1000000000L);
+    // nodes the peer takes in the ring per GB of capacity (-Dg24.vnodes), at least one, at most MAX_VNODES
+    public static final int VNODES_PER_GB = Math.max(1, Integer.getInteger("g24.vnodes", 4));
+    private static final int MAX_VNODES = 64;
+    // ms between dumps of the metrics to the peer's folder (-Dg24.metrics_ms), 0 to never dump them
+    public static final long METRICS_INTERVAL = Long.getLong("g24.metrics_ms", 60000);
+    // ms between sends of the changes to the state to the peers backing it up (-Dg24.state_ms)
+    public static final long STATE_INTERVAL = Long.getLong("g24.state_ms", 2000);
+    // most bytes of changes sent at once, as much as a binary STATEDELTA carries in a header buffer
+    private static final int DELTA_BYTES = BufferPool.HEADER_SIZE - MessageCodec.FRAME_HEADER - StateDeltaMessage.FIXED_SIZE;
+
     private final ServerSocketHandler selector;
 
-    private final Set<String> stored;
-    private final Map<Integer, Map<String, FileDetails>> fileKeys;
+    private final Set<FileId> stored;
+    // files this peer is the key owner of
+    private final FileIndex fileKeys;
 
     private boolean dirtyState;
 
     private long maxSpace; // max space in KBytes (1000 bytes)
     private long diskUsage; // disk usage in KBytes (1000 bytes)
 
-    private final Map<Integer, PeerInfo> peerBackup;
+    private final Map<ChordId, PeerInfo> peerBackup;
+    // every change to fileKeys and stored, kept on disk
+    private final MetadataLog metadata;
+    // the latest changes, for the peers backing up the state, and the last one each of them has
+    private final DeltaLog deltas;
+    // held across a change to fileKeys or stored and its record, so the records go in the order the changes did
+    private final Object metadataLock;
+    private final long stateEpoch;
+    private final Map<InetSocketAddress, Long> heirSeq;
+
+    // the nodes this peer takes in the ring, itself first
+    private final List<Node> vnodes;
+    private final Map<ChordId, Node> hosted;
 
     // PEER
     public Peer(InetAddress addr, int port) {
-        super(addr, port);
+        super(addr, port, new ConnectionPool());
 
-        this.maxSpace = 1000000000L; // 1GB space in the beginning
+        this.maxSpace = CAPACITY; // 1GB space in the beginning by default
         this.diskUsage = 0;
         this.selector = new ServerSocketHandler(this);
 
         this.stored = ConcurrentHashMap.newKeySet();
-        this.fileKeys = new ConcurrentHashMap<>();
+        this.fileKeys = new FileIndex();
 
         this.peerBackup = new ConcurrentHashMap<>();
+        this.metadata = new MetadataLog(Paths.get(getPeerPath(), "metadata"), this);
+        this.deltas = new DeltaLog();
+        this.metadataLock = new Object();
+        this.stateEpoch = new Random().nextLong();
+        this.heirSeq = new ConcurrentHashMap<>();
 
         this.dirtyState = false;
+
+        // a peer with more space owns more of the ring, in proportion
+        long count = Math.min(MAX_VNODES, Math.max(1, Math.round(VNODES_PER_GB * (CAPACITY / 1e9))));
+        List<Node> nodes = new ArrayList<>();
+        nodes.add(this);
+        for (int i = 1; i < count; i++)
+            nodes.add(new VirtualNode(this, addr, port, i));
+        this.vnodes = List.copyOf(nodes);
+
+        this.hosted = new HashMap<>();
+        for (Node node : vnodes)
+            this.hosted.put(node.get_id(), node);
     }
 
-    public void increaseDiskUsage(long size) {
+    public synchronized void increaseDiskUsage(long size) {
         this.diskUsage += size;
     }
 
-    public void decreaseDiskUsage(long size) {
+    public synchronized void decreaseDiskUsage(long size) {
         this.diskUsage -= size;
     }
 
-    public boolean hasCapacity(long size) {
+    public synchronized boolean hasCapacity(long size) {
         return (this.maxSpace - this.diskUsage) >= size;
     }
 
-    private void init(String service_ap) throws RemoteException {
+    /**
+     * @param service_ap name to bind in the RMI registry, for the clients
+     * @param bootstrap address of a peer already in the ring, null to find one through the registry
+     */
+    private void init(String service_ap, InetSocketAddress bootstrap) throws RemoteException {
+
+        // the ring is joined over sockets, they have to be up first
+        ExecutorService tcpService = Executors.newSingleThreadExecutor();
+        tcpService.execute(selector);
+        connections.start();
+        detector.start();
+        recover();
 
         Registry registry = LocateRegistry.getRegistry();
 
@@ -86,16 +148,23 @@ public class Peer extends Node implements ClientPeerProtocol {
             //Bind the remote object's stub in the registry
             registry.bind(service_ap, stub); //register peer object with the name in args[0]
 
-            // look for other peers in the ring
-            ClientPeerProtocol root;
-            if (active.length > 0) {
-                root = (ClientPeerProtocol) registry.lookup(active[0]);
-                // join existing ring
-                this.join((INode) root);
+            // look for other peers in the ring, the registry is only used to learn where one listens
+            if (bootstrap == null && active.length > 0) {
+                INode root = (INode) registry.lookup(active[0]);
+                bootstrap = root.get_socket_address();
+            }
+
+            if (bootstrap != null) {
+                // join existing ring, every node of the peer on its own
+                for (Node node : vnodes)
+                    node.join(RemoteNode.locate(node, bootstrap));
             }
             else {
                 System.out.println("Creating ring");
                 this.create();
+                for (Node node : vnodes)
+                    if (node != this)
+                        node.join(this);
             }
 
         } catch (AlreadyBoundException e) {
@@ -111,27 +180,28 @@ public class Peer extends Node implements ClientPeerProtocol {
         // chord stabilization protocol
         ScheduledExecutorService maintenance = Executors.newSingleThreadScheduledExecutor();
         maintenance.scheduleWithFixedDelay(() -> {
-            try {
-                this.stabilize();
-                this.fix_fingers();
-                this.check_predecessor();
-            } catch (Exception e) {
-                System.err.println("[!] Warning stabilization cycle skipped");
-//                e.printStackTrace();
+            for (Node node : vnodes) {
+                try {
+                    node.stabilize();
+                    node.fix_fingers();
+                    node.check_predecessor();
+                } catch (Exception e) {
+                    System.err.println("[!] Warning stabilization cycle skipped");
+//                    e.printStackTrace();
+                }
             }
         }, 500, 1000, TimeUnit.MILLISECONDS);
 
         ScheduledExecutorService stateBackup = Executors.newSingleThreadScheduledExecutor();
-        stateBackup.scheduleWithFixedDelay(() -> {
-            if (this.dirtyState) {
-                this.backupState();
-            }
-        }, 15000, 10000, TimeUnit.MILLISECONDS);
+        // every time, a new heir may need the whole state even if nothing changed
+        stateBackup.scheduleWithFixedDelay(this::backupState, 15000, STATE_INTERVAL, TimeUnit.MILLISECONDS);
 
-        ExecutorService tcpService = Executors.newSingleThreadExecutor();
-        tcpService.execute(selector);
+        if (METRICS_INTERVAL > 0) {
+            ScheduledExecutorService metricsDump = Executors.newSingleThreadScheduledExecutor();
+            metricsDump.scheduleWithFixedDelay(this::dumpMetrics, METRICS_INTERVAL, METRICS_INTERVAL, TimeUnit.MILLISECONDS);
+        }
 
-        System.out.println("[#] Peer " + this.id + " ready");
+        System.out.println("[#] Peer " + this.id + " ready, " + vnodes.size() + " node(s) in the ring");
     }
 
     // ---------------------------------
@@ -147,17 +217,17 @@ public class Peer extends Node implements ClientPeerProtocol {
             long size = Files.size(filePath);
 
 
-            String fileHash = SdisUtils.createFileHash(path, id);
+            FileId fileHash = SdisUtils.createFileHash(path, id);
             if (fileHash == null)
                 return "failure";
 
-            System.out.println("[-] Backing up file [" + fileHash.substring(0, 6) + "] with key [" + chordID(fileHash) + "]");
+            System.out.println("[-] Backing up file [" + fileHash.toShortString() + "] with key [" + fileHash.key() + "]");
 
             BackupMessage message = BackupMessage.from(this, fileHash, repDegree, size);
             if (message == null)
                 return "failure";
 
-            int file_key = chordID(fileHash);
+            ChordId file_key = fileHash.key();
             INode key_owner = find_successor(file_key);
             SocketAddress key_owner_address = key_owner.get_socket_address();
 
@@ -168,8 +238,12 @@ public class Peer extends Node implements ClientPeerProtocol {
             socket.configureBlocking(false);
             socket.connect(key_owner_address);
 
+            // BACKUP -> RESUME (offset to send from) -> file -> ACK
             ISocketManager resolutionSocketManager = new SocketManager(AckNackDispatcher.resolveMonitor(monitor));
-            SendFileSocket sf = new SendFileSocket(filePath, resolutionSocketManager);
+            ISocketManager resumeSocketManager = new SocketManager(new SendFileDispatcher(filePath, resolutionSocketManager, () -> {
+                monitor.resolve("failure");
+                return null;
+            }));
             ISocketManager iSocketManager = new SocketManager(() -> {
                 try {
                     message.send(socket);
@@ -177,7 +251,7 @@ public class Peer extends Node implements ClientPeerProtocol {
                     e.printStackTrace();
                     return null;
                 }
-                return sf;
+                return resumeSocketManager;
             });
             selector.register(socket, iSocketManager);
 
@@ -193,61 +267,61 @@ public class Peer extends Node implements ClientPeerProtocol {
     }
 
 
-    public void addFileToKey(String filehash, long size, int rep_degree, int stored_at_id) {
-        int key = chordID(filehash);
-        Map<String, FileDetails> nodes = this.fileKeys.computeIfAbsent(key, k -> new ConcurrentHashMap<>());
-        FileDetails fd = nodes.get(filehash);
-
-        if (fd != null) {
-            System.err.println("FILE SOMEHOW EXISTS");
-        } else {
-            fd = new FileDetails(filehash, size, rep_degree);
-            fd.addCopy(stored_at_id);
-            nodes.put(filehash, fd);
-            this.dirtyState = true;
+    public void addFileToKey(FileId filehash, long size, int rep_degree, ChordId stored_at_id) {
+        synchronized (metadataLock) {
+            if (this.fileKeys.contains(filehash)) {
+                System.err.println("FILE SOMEHOW EXISTS");
+            } else {
+                FileDetails fd = new FileDetails(filehash, size, rep_degree);
+                fd.addCopy(stored_at_id);
+                this.fileKeys.put(fd);
+                record(MetadataRecord.putFile(fd));
+            }
         }
     }
 
-    public FileDetails removeFileFromKey(String filehash) {
-        return removeFileFromKey(filehash, chordID(filehash));
-    }
-
-    public FileDetails removeFileFromKey(String filehash, int key) {
-        Map<String, FileDetails> nodes = this.fileKeys.get(key);
-        return nodes == null ? null : nodes.remove(filehash);
+    public FileDetails removeFileFromKey(FileId filehash) {
+        synchronized (metadataLock) {
+            FileDetails removed = this.fileKeys.remove(filehash);
+            if (removed != null)
+                record(MetadataRecord.removeFile(filehash));
+            return removed;
+        }
     }
 
-    public FileDetails removeTrackedCopy(String fileHash, int copyPeerID) {
-        int fileKey = chordID(fileHash);
-        Map<String, FileDetails> nodes = this.fileKeys.get(fileKey);
-        if (nodes != null) {
-            FileDetails fileDetails = nodes.get(fileHash);
-
-            if (fileDetails != null) {
-                fileDetails.removeCopy(copyPeerID);
-                this.dirtyState = true;
-                return fileDetails;
-            }
+    /**
+     * @return details of the file without the copy, null if this peer isn't its key owner
+     */
+    public FileDetails removeTrackedCopy(FileId fileHash, ChordId copyPeerID) {
+        synchronized (metadataLock) {
+            if (!this.fileKeys.removeCopy(fileHash, copyPeerID))
+                return null;
+            record(MetadataRecord.removeCopy(fileHash, copyPeerID));
+            return this.fileKeys.get(fileHash);
         }
-        return null;
     }
 
-    public void addStoredFile(String filehash, long fileSize) {
-        this.stored.add(filehash);
-        this.increaseDiskUsage(fileSize);
-        this.dirtyState = true;
+    /**
+     * @return completed once the change is on disk, with every change made before it
+     */
+    public CompletableFuture<Void> addStoredFile(FileId filehash, long fileSize) {
+        synchronized (metadataLock) {
+            this.stored.add(filehash);
+            this.increaseDiskUsage(fileSize);
+            return record(MetadataRecord.store(filehash, fileSize));
+        }
     }
 
     @Override
     public String delete(String file) throws RemoteException {
 
-        String fileHash = SdisUtils.createFileHash(file, id);
+        FileId fileHash = SdisUtils.createFileHash(file, id);
         if (fileHash == null)
             return "failure";
 
-        int fileKey = chordID(fileHash);
+        ChordId fileKey = fileHash.key();
 
-        System.out.println("[-] Deleting file [" + fileHash.substring(0, 6) + "] with key [" + fileKey + "]");
+        System.out.println("[-] Deleting file [" + fileHash.toShortString() + "] with key [" + fileKey + "]");
 
         INode respNode = this.find_successor(fileKey);
         if (!isAlive(respNode))
@@ -255,7 +329,7 @@ public class Peer extends Node implements ClientPeerProtocol {
 
         // the 'client' peer is the one repsonsible for the file
         // don't send message
-        if (respNode.get_id() == this.get_id()) {
+        if (isLocal(respNode)) {
             return this.deleteFileCopies(fileHash) ? "success" : "failure";
         }
 
@@ -265,30 +339,8 @@ public class Peer extends Node implements ClientPeerProtocol {
 
         try {
             // send delete message to the responsible peer
-            SocketChannel socket = SocketChannel.open();
-            socket.configureBlocking(false);
-            socket.connect(respNode.get_socket_address());
-
-            GeneralMonitor monitor = new GeneralMonitor();
-
-            ISocketManager resolutionSocketManager = new SocketManager(() -> {
-                try {
-                    message.send(socket);
-                } catch (IOException e) {
-                    e.printStackTrace();
-                    return null;
-                }
-
-                return new SocketManager(AckNackDispatcher.resolveMonitor(monitor));
-            });
-
-            selector.register(socket, resolutionSocketManager);
-
             // Wait for success or failure :)
-            if (monitor.await_resolution(5000))
-                return monitor.get_message();
-
-            return "timeout";
+            return awaitAck(connections.request(respNode.get_socket_address(), message), 5000);
         }
         catch (IOException e) {
             e.printStackTrace();
@@ -297,47 +349,100 @@ public class Peer extends Node implements ClientPeerProtocol {
 
     }
 
-    public boolean isResponsible(String filehash) {
-        return isResponsible(chordID(filehash));
+    /**
+     * Waits for the ACK that answers a pooled request
+     * @param reply pending reply
+     * @param timeout time to wait in milliseconds
+     * @return "success", "failure" or "timeout"
+     */
+    private static String awaitAck(CompletableFuture<ISocketMessage> reply, long timeout) {
+        try {
+            ISocketMessage message = reply.get(timeout, TimeUnit.MILLISECONDS);
+            if (message instanceof AckMessage && ((AckMessage) message).get_status())
+                return "success";
+        } catch (TimeoutException e) {
+            return "timeout";
+        } catch (InterruptedException | ExecutionException e) {
+            System.err.println("[X] Request failed: " + e.getMessage());
+        }
+        return "failure";
     }
 
-    public boolean isResponsibleForFile(String filehash) {
-        int key = chordID(filehash);
-        Map<String, FileDetails> files = fileKeys.get(key);
-        if (files == null)
-            return false;
-        return files.get(filehash) != null;
+    public boolean isResponsibleForFile(FileId filehash) {
+        return this.fileKeys.contains(filehash);
     }
 
-    public boolean isResponsible(int fileKey) {
-        return this.fileKeys.containsKey(fileKey);
+    public void addResponsible(FileId filehash, ChordId node_id) {
+        // only a new copy is a change
+        synchronized (metadataLock) {
+            if (this.fileKeys.addCopy(filehash, node_id))
+                record(MetadataRecord.addCopy(filehash, node_id));
+        }
     }
 
-    public void addResponsible(String filehash, int node_id) {
-        int key = chordID(filehash);
-        Map<String, FileDetails> files = fileKeys.get(key);
-        if (files == null)
+    /**
+     * A peer holding a copy of a file this peer is the key owner of is gone, the file is replicated again if it lacks copies
+     * @param lost id of the peer that's gone
+     */
+    public void replicationLost(FileId filehash, ChordId lost) {
+        FileDetails fd;
+        if ((fd = removeTrackedCopy(filehash, lost)) == null || !fd.lacksReplication())
             return;
 
-        FileDetails fd = files.get(filehash);
-        if (fd == null)
+        if (storesFile(filehash)) {
+            ReplicationPlanner.replicate(this, filehash, fd.getSize(), fd.missingReplications(), fd.getFileCopies());
             return;
+        }
 
-        fd.addCopy(node_id);
+        // no local copy to push from, one is pulled from the holders left first, which is a copy itself
+        if (!hasCapacity(fd.getSize())) {
+            System.err.println("[!] No room to pull [" + filehash.toShortString() + "] and replicate it");
+            return;
+        }
+        long size = fd.getSize();
+        // the holders are looked up with remote calls, keep them off the selector threads
+        CompletableFuture.runAsync(() -> pullAndReplicate(filehash, size));
     }
 
-    public boolean storesFile(String filehash) {
+    /**
+     * Restores a copy of a file this peer is the key owner of from the peers holding it, then pushes it to
+     * the copies still missing
+     */
+    private void pullAndReplicate(FileId filehash, long size) {
+        GeneralMonitor monitor = new GeneralMonitor();
+        Path path = Paths.get(getStoragePath(filehash));
+
+        // about a megabyte a second, as when pushing
+        if (!ParallelRestore.restore(this, filehash, path, monitor) || !monitor.await_resolution(5000 + size / 1000)
+                || !"success".equals(monitor.get_message())) {
+            System.err.println("[X] Couldn't pull [" + filehash.toShortString() + "] to replicate it");
+            return;
+        }
+
+        addStoredFile(filehash, size);
+        addResponsible(filehash, this.id);
+
+        FileDetails fd = getFileDetails(filehash);
+        if (fd != null && fd.lacksReplication())
+            ReplicationPlanner.replicate(this, filehash, size, fd.missingReplications(), fd.getFileCopies());
+    }
+
+    public boolean storesFile(FileId filehash) {
         return this.stored.contains(filehash);
     }
 
-    public Collection<Integer> findWhoStores(String filehash) {
-        int key = chordID(filehash);
-        Map<String, FileDetails> files = fileKeys.get(key);
-        if (files == null)
-            return null;
+    /**
+     * @return one of the peers holding a copy of a file this peer is the key owner of, null if there's none
+     */
+    public ChordId findWhoStores(FileId filehash) {
+        return this.fileKeys.anyCopy(filehash);
+    }
 
-        FileDetails fd = files.get(filehash);
-        return fd == null ? null : fd.getFileCopies();
+    /**
+     * @return details of a file this peer is the key owner of, null if it isn't
+     */
+    public FileDetails getFileDetails(FileId filehash) {
+        return this.fileKeys.get(filehash);
     }
 
     /**
@@ -347,17 +452,11 @@ public class Peer extends Node implements ClientPeerProtocol {
      * @param fileHash hash of file to delete copies of
      * @return
      */
-    public boolean deleteFileCopies(String fileHash) {
-
-        int fileKey = chordID(fileHash);
-        boolean responsible = isResponsible(fileKey);
-
-        // Not responsible for this file (Should not have been called)
-        if (!responsible)
-            return false;
+    public boolean deleteFileCopies(FileId fileHash) {
 
         // remove file key holder map
-        FileDetails fileDetails = removeFileFromKey(fileHash, fileKey);
+        // Not responsible for this file (Should not have been called)
+        FileDetails fileDetails = removeFileFromKey(fileHash);
         if (fileDetails == null)
             return false;
 
@@ -369,25 +468,22 @@ public class Peer extends Node implements ClientPeerProtocol {
         }
 
         // sending DELCOPY messages to the other peers
-        try {
-            // send DELETE messages to copy holders
-            for (int i : fileDetails.getFileCopies()) {
-                INode succCopy = this.find_successor(i);
-
-                if (!isAlive(succCopy))
-                    continue;
-
-                DeleteCopyMessage message = DeleteCopyMessage.from(this, fileHash);
-                if (message == null)
-                    continue;
-
-                SocketChannel socket = SocketChannel.open();
-                socket.connect(succCopy.get_socket_address());
-                message.send(socket);
-            }
+        DeleteCopyMessage message = DeleteCopyMessage.from(this, fileHash);
+        if (message == null)
+            return true;
 
-        } catch (IOException e) {
-            e.printStackTrace();
+        // send DELETE messages to copy holders, all of them are looked up at once
+        for (ChordId i : fileDetails.getFileCopies()) {
+            find_successor_async(i).thenAccept(succCopy -> {
+                try {
+                    connections.send(succCopy.get_socket_address(), message);
+                } catch (RemoteException e) {
+                    e.printStackTrace();
+                }
+            }).exceptionally(e -> {
+                System.err.println("[X] Couldn't find copy holder " + i + " of [" + fileHash.toShortString() + "]: " + e.getMessage());
+                return null;
+            });
         }
         return true;
     }
@@ -397,15 +493,21 @@ public class Peer extends Node implements ClientPeerProtocol {
      * @param fileHash file to be removed
      * @return
      */
-    public boolean deleteFile(String fileHash) {
+    public boolean deleteFile(FileId fileHash) {
 
         Path path = Paths.get(this.getStoragePath(fileHash));
 
         try {
+            // chunks of an interrupted transfer, no longer worth resuming
+            Files.deleteIfExists(FileChunks.partPath(path));
+
             long size = Files.size(path);
             Files.delete(path);
-            this.decreaseDiskUsage(size);
-            this.stored.remove(fileHash);
+            synchronized (metadataLock) {
+                this.decreaseDiskUsage(size);
+                this.stored.remove(fileHash);
+                record(MetadataRecord.unstore(fileHash));
+            }
 
             return true;
         }
@@ -420,14 +522,14 @@ public class Peer extends Node implements ClientPeerProtocol {
 
         // TODO might want to do this in a thread
         this.maxSpace = new_capacity;
-        ConcurrentLinkedQueue<String> storedFiles = new ConcurrentLinkedQueue<>(this.stored);
+        ConcurrentLinkedQueue<FileId> storedFiles = new ConcurrentLinkedQueue<>(this.stored);
 
         // selecting files
         while (this.diskUsage > maxSpace && !storedFiles.isEmpty()) {
             // extract head
-            String fileHash = storedFiles.remove();
+            FileId fileHash = storedFiles.remove();
 
-            int fileKey = chordID(fileHash);
+            ChordId fileKey = fileHash.key();
 
             INode respNode = this.find_successor(fileKey);
 
@@ -439,22 +541,9 @@ public class Peer extends Node implements ClientPeerProtocol {
                 if (message == null)
                     continue;
 
-                GeneralMonitor monitor = new GeneralMonitor();
-
-                ISocketManager resolutionSocketManager = new SocketManager(AckNackDispatcher.resolveMonitor(monitor));
-
                 try {
-                    // connect to node responsible for this file
-                    SocketChannel socket = SocketChannel.open();
-                    socket.connect(respNode.get_socket_address());
-                    message.send(socket);
-
-                    resolutionSocketManager.init();
-                    selector.register(socket, resolutionSocketManager);
-
-                    // Wait for success or failure :)
                     // only delete file if responsible peer acknowledges
-                    if (monitor.await_resolution(1000)) {
+                    if (awaitAck(connections.request(respNode.get_socket_address(), message), 1000).equals("success")) {
                         this.deleteFile(fileHash);
                     }
 //                    else // couldn't reach responsible peer (ignore)
@@ -473,16 +562,17 @@ public class Peer extends Node implements ClientPeerProtocol {
     public String restore(String filename) throws RemoteException {
         Path path = Paths.get(getRecoverPath(filename));
 
-        String fileHash = SdisUtils.createFileHash(filename, id);
+        FileId fileHash = SdisUtils.createFileHash(filename, id);
         if (fileHash == null)
             return "failure";
 
-        System.out.println("[-] Restoring file [" + fileHash.substring(0, 6) + "] with key [" + chordID(fileHash) + "]");
+        System.out.println("[-] Restoring file [" + fileHash.toShortString() + "] with key [" + fileHash.key() + "]");
 
         GeneralMonitor monitor = new GeneralMonitor();
 //        monitors.put(fileHash, monitor);
 
-        if (!RestoreDispatcher.initiateRestore(this, fileHash, path, monitor))
+        // pull ranges from every holder, falling back to a single GETFILE if the key owner can't list them
+        if (!ParallelRestore.restore(this, fileHash, path, monitor) && !RestoreDispatcher.initiateRestore(this, fileHash, path, monitor))
             return "failure";
 
         // Wait for success or failure :)
@@ -497,6 +587,10 @@ public class Peer extends Node implements ClientPeerProtocol {
         StringBuilder ret = new StringBuilder("\n=========== INFO ===========\n");
 
         ret.append("peerID: ").append(this.id).append("\n");
+        ret.append("virtual nodes: ");
+        for (Node node : vnodes)
+            ret.append(node.get_id()).append(" ");
+        ret.append("\n");
 
         ret.append("successor: ");
         try {
@@ -504,6 +598,10 @@ public class Peer extends Node implements ClientPeerProtocol {
         } catch (RemoteException e) {
             ret.append("offline\n");
         }
+        ret.append("successor list: ");
+        for (INode node : get_successors())
+            ret.append(node.get_id()).append(" ");
+        ret.append("\n");
         ret.append("predecessor: ");
         try {
             ret.append(get_predecessor().get_id()).append("\n");
@@ -514,19 +612,31 @@ public class Peer extends Node implements ClientPeerProtocol {
         ret.append("max capacity: ").append(this.maxSpace/1000).append(" KB\n");
         ret.append("used: ").append(this.diskUsage/1000).append(" KB\n");
         ret.append("dirty: ").append(this.dirtyState).append("\n");
-
-        if (!this.fileKeys.isEmpty()) {
+        ret.append("file index: ").append(this.fileKeys).append("\n");
+        ret.append("metadata log: ").append(metadata).append("\n");
+        ret.append("state changes: ").append(deltas.last()).append(", heirs at ").append(heirSeq.values()).append("\n");
+
+        BufferPool pool = BufferPool.get();
+        ret.append("buffer pool: ").append(pool.getHits()).append(" hits, ")
+                .append(pool.getMisses()).append(" misses, ")
+                .append(pool.getOutstanding()).append(" leased\n");
+        ret.append("lookups: ").append(lookupStats()).append("\n");
+        ret.append("maintenance: ").append(maintenanceStats()).append("\n");
+        ret.append("failure detector: ").append(detectorStats()).append("\n");
+
+        Map<ChordId, Map<FileId, FileDetails>> fileKeys = getFileKeys();
+        if (!fileKeys.isEmpty()) {
             ret.append("\n======= OWNED  KEYS ========\n");
-            for (Map.Entry<Integer, Map<String, FileDetails>> entry : this.fileKeys.entrySet()) {
+            for (Map.Entry<ChordId, Map<FileId, FileDetails>> entry : fileKeys.entrySet()) {
                 ret.append(entry.getKey()).append("\n");
 
-                Map<String, FileDetails> files = entry.getValue();
+                Map<FileId, FileDetails> files = entry.getValue();
 
                 for (FileDetails fd: files.values()) {
-                    ret.append("\t").append(fd.getHash(), 0, 6).append("\n");
+                    ret.append("\t").append(fd.getHash().toShortString()).append("\n");
                     ret.append("\tStored ").append(fd.getFileCopies().size()).append(" times at: ");
 
-                    for (int stored_id: fd.getFileCopies())
+                    for (ChordId stored_id: fd.getFileCopies())
                         ret.append(stored_id).append(" ");
                     ret.append("\n");
                 }
@@ -537,12 +647,12 @@ public class Peer extends Node implements ClientPeerProtocol {
         if (!this.stored.isEmpty()) {
             ret.append("\n========== STORED ==========\n");
             int col = 1;
-            for (String hash : this.stored) {
+            for (FileId hash : this.stored) {
                 if (col > 3) {
-                    ret.append(hash, 0, 6).append("\n");
+                    ret.append(hash.toShortString()).append("\n");
                     col = 1;
                 } else {
-                    ret.append(hash, 0, 6).append("   ");
+                    ret.append(hash.toShortString()).append("   ");
                     col++;
                 }
             }
@@ -551,15 +661,45 @@ public class Peer extends Node implements ClientPeerProtocol {
         return ret.toString();
     }
 
+    @Override
+    public String metrics() throws RemoteException {
+        StringBuilder ret = new StringBuilder();
+        ret.append("peerID: ").append(this.id).append("\n");
+        ret.append("time: ").append(System.currentTimeMillis()).append("\n");
+        ret.append(getLookupMetrics());
+        ret.append("maintenance: ").append(maintenanceStats()).append("\n");
+        ret.append("failure detector: ").append(detectorStats()).append("\n");
+        return ret.toString();
+    }
+
+    /**
+     * Writes the metrics to metrics.txt in the peer's folder, replacing the last ones at once
+     */
+    private void dumpMetrics() {
+        try {
+            Path path = Paths.get(getPeerPath(), "metrics.txt");
+            Path tmp = Paths.get(getPeerPath(), "metrics.txt.tmp");
+            Files.createDirectories(path.getParent());
+            Files.writeString(tmp, metrics());
+            Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            System.err.println("[!] Couldn't dump metrics: " + e.getMessage());
+        }
+    }
+
     public ServerSocketHandler getSelector() {
         return selector;
     }
 
+    public ConnectionPool getConnectionPool() {
+        return connections;
+    }
+
     public String getPeerPath() {
         return "peers" + File.separator + "p" + this.id + File.separator;
     }
 
-    public String getStoragePath(String fileHash) {
+    public String getStoragePath(FileId fileHash) {
         return getPeerPath() + "storage" + File.separator + fileHash;
     }
 
@@ -568,115 +708,412 @@ public class Peer extends Node implements ClientPeerProtocol {
         return getPeerPath() + "recovery" + File.separator + path.getFileName();
     }
 
-    public Map<Integer, Map<String, FileDetails>> getFileKeys() {
+    /**
+     * @return copy of the files this peer is the key owner of, by key
+     */
+    public Map<ChordId, Map<FileId, FileDetails>> getFileKeys() {
+        Map<ChordId, Map<FileId, FileDetails>> fileKeys = new ConcurrentHashMap<>();
+        this.fileKeys.forEach(fd -> fileKeys.computeIfAbsent(fd.getHash().key(), k -> new ConcurrentHashMap<>()).put(fd.getHash(), fd));
+        return fileKeys;
+    }
+
+    @Override
+    public FileIndex getFileIndex() {
         return this.fileKeys;
     }
 
-    public Set<String> getStoredFiles() {
+    public Set<FileId> getStoredFiles() {
         return this.stored;
     }
 
-    public PeerInfo getSuccessorBackup() {
+    @Override
+    public Map<FileId, Long> getStoredSizes() {
+        Map<FileId, Long> sizes = new HashMap<>();
+        for (FileId hash : this.stored) {
+            try {
+                sizes.put(hash, Files.size(Paths.get(getStoragePath(hash))));
+            } catch (IOException e) {
+                // deleted meanwhile
+            }
+        }
+        return sizes;
+    }
+
+    /**
+     * Reads back the files the peer kept track of and stored before it stopped, then keeps logging the changes
+     */
+    private void recover() {
+        long start = System.nanoTime();
+        Map<FileId, Long> sizes = new HashMap<>();
+        try {
+            int replayed = metadata.recover(this.fileKeys, sizes);
+            for (Map.Entry<FileId, Long> entry : sizes.entrySet()) {
+                // only the files still on disk
+                if (!Files.exists(Paths.get(getStoragePath(entry.getKey()))))
+                    continue;
+                this.stored.add(entry.getKey());
+                this.increaseDiskUsage(entry.getValue());
+            }
+
+            if (!this.fileKeys.isEmpty() || !this.stored.isEmpty())
+                System.out.printf("[#] Recovered %d files as key owner and %d stored files (%d records after the snapshot) in %.1f ms%n",
+                        this.fileKeys.size(), this.stored.size(), replayed, (System.nanoTime() - start) / 1e6);
+
+            metadata.start();
+        } catch (IOException e) {
+            System.err.println("[X] Couldn't recover the metadata, starting empty");
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * @return ids of the nodes this peer takes in the ring, its own first
+     */
+    public List<ChordId> getVirtualNodeIds() {
+        List<ChordId> ids = new ArrayList<>(vnodes.size());
+        for (Node node : vnodes)
+            ids.add(node.get_id());
+        return ids;
+    }
+
+    /**
+     * @return the node this peer hosts with that id, null if none
+     */
+    public Node vnode(ChordId id) {
+        return hosted.get(id);
+    }
+
+    /**
+     * @return the hosted node at or after key, the one that owns it if any of them does
+     */
+    public Node vnode_for(ChordId key) {
+        return hosted.get(first_at_or_after(hosted.keySet(), key));
+    }
+
+    /**
+     * @return the hosted node that comes last before key, the one best placed to take another node's lookup of key on
+     */
+    public Node route(ChordId key) {
+        Node best = this;
+        ChordId bestDistance = null;
+        for (Node node : vnodes) {
+            ChordId distance = key.minus(node.get_id());
+            // a node at key itself is a whole turn away from it
+            if (distance.equals(ChordId.ZERO))
+                continue;
+            if (bestDistance == null || distance.compareTo(bestDistance) < 0) {
+                best = node;
+                bestDistance = distance;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * @return first of ids at or after key, going clockwise
+     */
+    private static ChordId first_at_or_after(Collection<ChordId> ids, ChordId key) {
+        ChordId first = null, firstDistance = null;
+        for (ChordId id : ids) {
+            ChordId distance = id.minus(key);
+            if (firstDistance == null || distance.compareTo(firstDistance) < 0) {
+                first = id;
+                firstDistance = distance;
+            }
+        }
+        return first;
+    }
+
+    /**
+     * @return whether node is one of the nodes of this peer
+     */
+    public boolean isLocal(INode node) {
+        try {
+            return node == this || hosted.containsKey(node.get_id());
+        } catch (RemoteException e) {
+            return false;
+        }
+    }
+
+    /**
+     * @return first node after this peer's own node that belongs to another peer, the successor if there's none
+     */
+    public INode next_peer() {
+        return next_peer(this);
+    }
+
+    /**
+     * @param from one of the nodes of this peer
+     * @return first node after from that belongs to another peer, from's successor if there's none
+     */
+    public INode next_peer(Node from) {
+        INode last = from;
+        try {
+            for (INode node : from.get_successors()) {
+                if (!isLocal(node))
+                    return node;
+                last = node;
+            }
+
+            // every node on the list is ours, walk on past them
+            for (int i = 0; i < vnodes.size(); i++) {
+                last = last.get_successor();
+                if (last == null || last == from)
+                    break;
+                if (!isLocal(last))
+                    return last;
+            }
+        } catch (RemoteException e) {
+            System.err.println("[X] Lost track of the ring looking for the next peer");
+        }
+        return from.get_successor();
+    }
+
+    /**
+     * @return backup of the peer that hosted node id, null if there's none
+     */
+    private PeerInfo getBackupOf(ChordId id) {
         for (PeerInfo info : this.peerBackup.values()) {
-            return info;
+            if (info.vnodes != null && info.vnodes.contains(id))
+                return info;
         }
         return null;
     }
 
 
     public void savePeerInfo(PeerInfo peerInfo) {
-        this.peerBackup.put(peerInfo.id, peerInfo);
+        // unless deltas already took the one there further along
+        this.peerBackup.merge(peerInfo.id, peerInfo,
+                (old, info) -> old.epoch == info.epoch && old.seq > info.seq ? old : info);
     }
 
-    private void mergeFileKeys(PeerInfo info) {
-        for (Map.Entry<Integer, Map<String, FileDetails>> entry : info.fileKeys.entrySet()) {
-            Map<String, FileDetails> filesOfKey = this.fileKeys.computeIfAbsent(entry.getKey(), k -> new ConcurrentHashMap<>());
-            
-            for (Map.Entry<String, FileDetails> fileEntry : entry.getValue().entrySet()) {
-                filesOfKey.put(fileEntry.getKey(), fileEntry.getValue());
+    /**
+     * Applies the changes of another peer to its backup, unless some came before that the backup lacks
+     * @return whether the backup has every change up to the last one of the message
+     */
+    public boolean applyStateDelta(StateDeltaMessage delta) {
+        PeerInfo info = this.peerBackup.get(delta.sender_id);
+        if (info == null)
+            return false;
+
+        synchronized (info) {
+            if (info.epoch != delta.epoch || info.seq < delta.from_seq - 1)
+                return false;
+
+            try {
+                List<byte[]> records = delta.records;
+                // the ones the backup already has are skipped
+                for (int i = (int) (info.seq - delta.from_seq + 1); i < records.size(); i++)
+                    MetadataRecord.fromBytes(records.get(i)).apply(info.fileKeys, info.storedFiles);
+            } catch (IOException e) {
+                System.err.println("[X] Bad state delta from " + delta.sender_id + ": " + e.getMessage());
+                return false;
+            }
+            info.seq = Math.max(info.seq, delta.to_seq());
+            return true;
+        }
+    }
+
+    /**
+     * A change to the metadata, logged to disk and kept for the peers backing up the state.
+     * Called holding metadataLock, together with the change itself
+     * @return completed once the change is on disk
+     */
+    private CompletableFuture<Void> record(MetadataRecord record) {
+        deltas.append(record);
+        this.dirtyState = true;
+        return metadata.append(record);
+    }
+
+    public long getStateEpoch() {
+        return stateEpoch;
+    }
+
+    /**
+     * @return number of the last change to the metadata
+     */
+    public long getStateSeq() {
+        return deltas.last();
+    }
+
+    private void mergeFileKeys(Map<ChordId, Map<FileId, FileDetails>> fileKeys) {
+        for (Map.Entry<ChordId, Map<FileId, FileDetails>> entry : fileKeys.entrySet()) {
+            for (FileDetails fd : entry.getValue().values()) {
+                synchronized (metadataLock) {
+                    this.fileKeys.put(fd);
+                    record(MetadataRecord.putFile(fd));
+                }
             }
         }
     }
 
     @Override
-    protected void on_predecessor_death() {
-        super.on_predecessor_death();
+    protected void on_predecessor_death(INode dead) {
+        super.on_predecessor_death(dead);
+        inherit(this, dead);
+    }
+
+    /**
+     * The predecessor of one of the nodes of this peer died, that node takes over the keys the dead one owned.
+     * Those are the keys in the dead peer's backup that the dead node was the first of its peer's nodes at or after
+     * @param heir node of this peer that follows the dead one
+     * @param dead node that died
+     */
+    void inherit(Node heir, INode dead) {
+        ChordId deadId;
+        try {
+            deadId = dead.get_id();
+        } catch (RemoteException e) {
+            return;
+        }
 
-        PeerInfo info = this.getSuccessorBackup();
+        PeerInfo info = this.getBackupOf(deadId);
 
         if (info == null) {
             System.out.println("[!] Predecessor died (no backup records).");
             return;
         }
 
-        this.mergeFileKeys(info);
-
-        // Notify for replication
-        for (String hash: info.storedFiles) {
-            try {
-                ReplicationLostMessage lost = new ReplicationLostMessage(get_id(), info.id, hash);
+        Map<ChordId, Map<FileId, FileDetails>> inherited = new HashMap<>();
+        info.fileKeys.forEach(fd -> {
+            ChordId key = fd.getHash().key();
+            if (deadId.equals(first_at_or_after(info.vnodes, key)))
+                inherited.computeIfAbsent(key, k -> new HashMap<>()).put(fd.getHash(), fd);
+        });
+        this.mergeFileKeys(inherited);
+
+        // the files the dead node was the key owner of lost the copy it held, they're replicated again from here
+        for (Map<FileId, FileDetails> files : inherited.values()) {
+            for (FileId hash : files.keySet())
+                replicationLost(hash, info.id);
+        }
 
-                int file_key = chordID(hash);
-                INode file_owner = find_successor(file_key);
+        // Notify for replication, the owners are all looked up at once
+        // every node of the dead peer has an heir, only the heir of the peer's own node does it
+        for (FileId hash: deadId.equals(info.id) ? info.storedFiles : Set.<FileId>of()) {
+            // the heirs of the keys it owned took care of those
+            if (info.fileKeys.contains(hash))
+                continue;
 
-                SocketChannel socket = SocketChannel.open();
-                socket.configureBlocking(false);
-                socket.connect(file_owner.get_socket_address());
+            ReplicationLostMessage lost = new ReplicationLostMessage(get_id(), info.id, hash);
 
-                selector.register(socket, new SocketManager(() -> {
-                    try {
-                        lost.send(socket);
-                    } catch (IOException e) {
-                        e.printStackTrace();
-                    }
-                    return null;
-                }));
-            } catch (IOException e) {
-                e.printStackTrace();
-            }
+            ChordId file_key = hash.key();
+            find_successor_async(file_key).thenAccept(file_owner -> {
+                try {
+                    connections.send(file_owner.get_socket_address(), lost);
+                } catch (RemoteException e) {
+                    e.printStackTrace();
+                }
+            }).exceptionally(e -> {
+                System.err.println("[X] Couldn't find the owner of [" + hash.toShortString() + "]: " + e.getMessage());
+                return null;
+            });
         }
 
-        System.out.println("[#] " + info.id + " DEATH");
-        for (Map.Entry<Integer, Map<String, FileDetails>> fdMap : info.fileKeys.entrySet()) {
-            int key = fdMap.getKey();
+        System.out.println("[#] " + deadId + " DEATH (peer " + info.id + "), keys go to " + heir.get_id());
+        for (Map.Entry<ChordId, Map<FileId, FileDetails>> fdMap : inherited.entrySet()) {
+            ChordId key = fdMap.getKey();
             System.out.println(" INHERITED KEY: " + key);
-            for (FileDetails fd : info.fileKeys.get(key).values())
+            for (FileDetails fd : fdMap.getValue().values())
                 System.out.println("    | " + fd);
         }
 
         this.dirtyState = true;
     }
 
+    /**
+     * Brings the next peer of every node of this peer up to date with the state, any of them may have to take over its keys.
+     * A peer that has an earlier state gets the changes since, the others the whole state
+     */
     public void backupState() {
+        Set<InetSocketAddress> heirs = new HashSet<>();
+        for (Node node : vnodes) {
+            INode next = next_peer(node);
+            try {
+                if (!isLocal(next) && isAlive(next))
+                    heirs.add(next.get_socket_address());
+            } catch (RemoteException e) {
+                e.printStackTrace();
+            }
+        }
+        this.heirSeq.keySet().retainAll(heirs);
+
+        for (InetSocketAddress heir : heirs) {
+            Long seq = this.heirSeq.get(heir);
+            if (seq == null)
+                sendState(heir);
+            else if (seq < deltas.last())
+                sendDeltas(heir, seq);
+        }
+        this.dirtyState = false;
+    }
+
+    /**
+     * Sends the whole state, the heir is taken to have it from now on.
+     * If it doesn't, it refuses the next changes and gets it again.
+     * The state is encoded straight into the socket, off the selector threads, so it's never all in memory at once
+     */
+    private void sendState(InetSocketAddress heir) {
         StateMessage message = StateMessage.from(this);
-        if (message == null) 
+        if (message == null)
             return;
 
-        try {
-            SocketChannel socket = SocketChannel.open();
-
-            if (!isAlive(this.get_successor()))
-                return;
-            socket.connect(this.get_successor().get_socket_address());
-
-            message.send(socket);
+        long seq = deltas.last();
+        this.heirSeq.put(heir, seq);
+        CompletableFuture.runAsync(() -> {
+            try (SocketChannel socket = SocketChannel.open(heir)) {
+                message.send(socket);
+                PeerInfo.from(this).write(Channels.newOutputStream(socket));
+            } catch (IOException e) {
+                e.printStackTrace();
+                System.out.println("[X] Couldn't backup state.");
+                // sent again next time
+                this.heirSeq.remove(heir, seq);
+            }
+        });
+    }
 
-            StateSocketManager manager = new StateSocketManager(this, SelectionKey.OP_WRITE);
-            manager.init();
-            selector.register(socket, manager);
+    /**
+     * Sends the changes after seq, a message at a time until the heir has them all
+     */
+    private void sendDeltas(InetSocketAddress heir, long seq) {
+        List<byte[]> records = deltas.since(seq, DELTA_BYTES, StateDeltaMessage.RECORD_OVERHEAD);
+        if (records == null) {
+            // too far behind
+            sendState(heir);
+            return;
+        }
+        if (records.isEmpty())
+            return;
 
-            this.dirtyState = false;
+        StateDeltaMessage delta = new StateDeltaMessage(this.id, this.stateEpoch, seq + 1, records);
+        if (records.get(0).length > StateDeltaMessage.MAX_RECORD || MessageCodec.frameSize(delta) > MessageCodec.MAX_FRAME) {
+            // a single change larger than a frame can carry
+            sendState(heir);
+            return;
+        }
 
-        } catch (IOException e) {
-            e.printStackTrace();
-            System.out.println("[X] Couldn't backup state.");
-        } 
+        connections.request(heir, delta)
+                .orTimeout(RPC_TIMEOUT, TimeUnit.MILLISECONDS)
+                .whenComplete((reply, e) -> {
+                    // no answer, the same changes go again next time
+                    if (e != null)
+                        return;
+
+                    if (reply instanceof AckMessage && ((AckMessage) reply).get_status()) {
+                        if (this.heirSeq.replace(heir, seq, delta.to_seq()) && delta.to_seq() < deltas.last())
+                            sendDeltas(heir, delta.to_seq());
+                    } else {
+                        // it lacks earlier changes, the whole state goes next time
+                        this.heirSeq.remove(heir, seq);
+                    }
+                });
     }
 
     public static void main(String[] args) throws IOException {
 
         if (args.length < 3) {
-            System.out.println("usage: Peer <id> <remote_object_name> <addr:port>");
+            System.out.println("usage: Peer <id> <remote_object_name> <addr:port> [<bootstrap_addr:port>]");
             throw new IllegalArgumentException("Invalid usage");
         }
 
@@ -687,7 +1124,13 @@ public class Peer extends Node implements ClientPeerProtocol {
         InetAddress addr = InetAddress.getLocalHost(); //InetAddress.getByName(host[0]);
         int port = Integer.parseInt(host[1]);
 
+        InetSocketAddress bootstrap = null;
+        if (args.length > 3) {
+            String[] boot = args[3].split(":");
+            bootstrap = new InetSocketAddress(boot[0], Integer.parseInt(boot[1]));
+        }
+
         Peer peer = new Peer(addr, port);
-        peer.init(service_ap);
+        peer.init(service_ap, bootstrap);
     }
 }
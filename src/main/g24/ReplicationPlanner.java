@@ -0,0 +1,241 @@
+package main.g24;
+
+import main.g24.chord.ChordId;
+import main.g24.chord.INode;
+import main.g24.chord.Node;
+import main.g24.socket.managers.ISocketManager;
+import main.g24.socket.managers.SocketManager;
+import main.g24.socket.managers.dispatchers.SendFileDispatcher;
+import main.g24.socket.messages.AckMessage;
+import main.g24.socket.messages.PutFileMessage;
+import main.g24.socket.messages.Type;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.rmi.RemoteException;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Replicates a file from its key owner.
+ * The targets are picked up front from the owner's successor list, walking the ring past it only if
+ * there aren't enough, one per peer however many nodes it has in the ring, and the file is pushed
+ * to all of them at once (PUTFILE), instead of each replica pulling it after the previous hop.
+ * Completion is tracked per target, a target that refuses or fails is replaced by the next successor.
+ */
+public class ReplicationPlanner {
+
+    private static final long BASE_TIMEOUT = 5000;
+
+    private final Peer peer;
+    private final FileId fileHash;
+    private final long size;
+    private final Path path;
+
+    private final Set<ChordId> exclude;
+    // peers holding or getting a copy, by address, a peer shows up once per node it has in the ring
+    private final Set<InetSocketAddress> taken;
+    private final Map<ChordId, CompletableFuture<Boolean>> targets;
+    // target node -> id of the peer that acknowledged the copy, copies are tracked by peer whichever of its nodes was picked
+    private final Map<ChordId, ChordId> storedAt;
+
+    private final int missing;
+    // node of this peer that owns the file, successors not yet considered, then the last one considered to walk on from
+    private Node owner;
+    private final Deque<INode> known;
+    private INode last;
+
+    private ReplicationPlanner(Peer peer, FileId fileHash, long size, int missing, Collection<ChordId> exclude) {
+        this.peer = peer;
+        this.fileHash = fileHash;
+        this.size = size;
+        this.path = Paths.get(peer.getStoragePath(fileHash));
+        this.missing = missing;
+
+        this.exclude = new HashSet<>(exclude);
+        this.taken = new HashSet<>();
+        this.targets = new ConcurrentHashMap<>();
+        this.storedAt = new ConcurrentHashMap<>();
+        this.known = new ArrayDeque<>();
+    }
+
+    /**
+     * Pushes a file this peer stores to count other peers
+     * @param peer key owner, must store the file
+     * @param fileHash file to replicate
+     * @param size size of the file
+     * @param count number of new copies
+     * @param exclude peers that already hold a copy
+     */
+    public static void replicate(Peer peer, FileId fileHash, long size, int count, Collection<ChordId> exclude) {
+        if (count <= 0)
+            return;
+
+        ReplicationPlanner planner = new ReplicationPlanner(peer, fileHash, size, count, exclude);
+        // picking the targets takes remote calls, keep them off the selector threads
+        CompletableFuture.runAsync(planner::start);
+    }
+
+    private void start() {
+        owner = peer.vnode_for(fileHash.key());
+        known.addAll(owner.get_successors());
+
+        // the peers already holding a copy, whichever of their nodes they're known by
+        for (ChordId holder : exclude) {
+            try {
+                // the holder is gone if its id now belongs to another node
+                INode node = peer.find_successor(holder);
+                if (node.get_id().equals(holder))
+                    taken.add(node.get_socket_address());
+            } catch (RemoteException e) {
+                System.err.println("[!] Holder " + holder + " of [" + fileHash.toShortString() + "] unreachable");
+            }
+        }
+
+        List<INode> chosen = new ArrayList<>();
+        synchronized (this) {
+            INode target;
+            while (chosen.size() < missing && (target = nextTarget()) != null)
+                chosen.add(target);
+        }
+
+        if (chosen.size() < missing)
+            System.out.println("[!] Only " + chosen.size() + " of " + missing + " replicas of [" + fileHash.toShortString() + "] can be placed");
+
+        for (INode target : chosen)
+            push(target);
+    }
+
+    /**
+     * @return next successor of another peer that doesn't hold the file yet, null once the ring was walked around
+     */
+    private INode nextTarget() {
+        try {
+            while (true) {
+                INode candidate = !known.isEmpty() ? known.poll() : (last != null ? last.get_successor() : null);
+                if (candidate == null || candidate.get_id().equals(owner.get_id()))
+                    break;
+
+                last = candidate;
+                if (!peer.isLocal(candidate) && taken.add(candidate.get_socket_address()) && exclude.add(candidate.get_id()))
+                    return candidate;
+            }
+        } catch (RemoteException e) {
+            System.err.println("[X] Lost track of the ring while picking replicas");
+        }
+        known.clear();
+        last = null;
+        return null;
+    }
+
+    private void push(INode target) {
+        ChordId targetId;
+        try {
+            targetId = target.get_id();
+        } catch (RemoteException e) {
+            return;
+        }
+
+        CompletableFuture<Boolean> result = new CompletableFuture<>();
+        targets.put(targetId, result);
+
+        SocketChannel socket;
+        try {
+            socket = SocketChannel.open();
+        } catch (IOException e) {
+            e.printStackTrace();
+            result.complete(false);
+            onResult(targetId, false);
+            return;
+        }
+
+        // a target given up on is cut off, so it can't store a copy that would go untracked
+        // replacing it takes remote calls, the result may come in on a selector thread
+        result.completeOnTimeout(false, BASE_TIMEOUT + size / 1000, TimeUnit.MILLISECONDS)
+                .thenAcceptAsync(stored -> {
+                    if (!stored)
+                        close(socket);
+                    onResult(targetId, stored);
+                });
+
+        try {
+            PutFileMessage message = new PutFileMessage(peer.get_id(), fileHash, size);
+
+            socket.configureBlocking(false);
+            socket.connect(target.get_socket_address());
+
+            // PUTFILE -> RESUME (ready) -> file -> ACK (stored)
+            ISocketManager storedManager = new SocketManager((reply, key) -> {
+                if (reply.get_type() == Type.ACK && ((AckMessage) reply).get_status()) {
+                    storedAt.put(targetId, ((AckMessage) reply).sender_id);
+                    result.complete(true);
+                } else {
+                    result.complete(false);
+                }
+                return null;
+            });
+            ISocketManager readyManager = new SocketManager(new SendFileDispatcher(
+                    path,
+                    storedManager,
+                    () -> { result.complete(false); return null; }
+            ));
+
+            peer.getSelector().register(socket, new SocketManager(() -> {
+                try {
+                    message.send(socket);
+                } catch (IOException e) {
+                    e.printStackTrace();
+                    result.complete(false);
+                    return null;
+                }
+                return readyManager;
+            }));
+        } catch (IOException e) {
+            e.printStackTrace();
+            result.complete(false);
+        }
+    }
+
+    private static void close(SocketChannel socket) {
+        try {
+            socket.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    private void onResult(ChordId targetId, boolean stored) {
+        if (stored) {
+            peer.addResponsible(fileHash, storedAt.getOrDefault(targetId, targetId));
+            System.out.println("[#] [" + fileHash.toShortString() + "] replicated at " + targetId + " " + progress());
+            return;
+        }
+
+        System.out.println("[!] [" + fileHash.toShortString() + "] couldn't be replicated at " + targetId + " " + progress());
+
+        INode replacement;
+        synchronized (this) {
+            replacement = nextTarget();
+        }
+        if (replacement != null)
+            push(replacement);
+    }
+
+    private String progress() {
+        int done = 0, failed = 0;
+        for (CompletableFuture<Boolean> result : targets.values()) {
+            if (!result.isDone())
+                continue;
+            if (result.join())
+                done++;
+            else
+                failed++;
+        }
+        return "(" + done + " stored, " + failed + " failed, " + (targets.size() - done - failed) + " pending)";
+    }
+}
@@ -1,18 +1,20 @@
 package main.g24;
 
+import main.g24.chord.ChordId;
+
 import java.nio.charset.StandardCharsets;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 
 public class SdisUtils {
 
-    public static String createFileHash(String path, int initiatorPeerId) {
+    public static FileId createFileHash(String path, ChordId initiatorPeerId) {
         try {
             String originalString = path + initiatorPeerId;
 
             final MessageDigest digest = MessageDigest.getInstance("SHA3-256");
             final byte[] hashbytes = digest.digest(originalString.getBytes(StandardCharsets.US_ASCII));
-            return bytesToHex(hashbytes);
+            return FileId.fromBytes(hashbytes, 0);
         }
         catch (NoSuchAlgorithmException e) {
             System.out.println("[X] Couldn't create file hash. " + e);
@@ -20,19 +22,6 @@ public class SdisUtils {
         return null;
     }
 
-    //Retrieved from: https://www.baeldung.com/sha-256-hashing-java
-    public static String bytesToHex(byte[] hash) {
-        StringBuilder hexString = new StringBuilder(2 * hash.length);
-        for (byte b : hash) {
-            String hex = Integer.toHexString(0xff & b);
-            if (hex.length() == 1) {
-                hexString.append('0');
-            }
-            hexString.append(hex);
-        }
-        return hexString.toString();
-    }
-
     /**
      * @param v1
      * @param v2
@@ -52,7 +41,15 @@ public class SdisUtils {
         return v.equals("1.0");
     }
 
-    public static String shortenHash(String hash) {
-        return hash.substring(0, 6);
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    /**
+     * Writes the lowest digits hex digits of value into hex from index at on, most significant first
+     */
+    public static void putHex(char[] hex, int at, long value, int digits) {
+        for (int c = at + digits - 1; c >= at; c--) {
+            hex[c] = HEX[(int) (value & 0xf)];
+            value >>>= 4;
+        }
     }
 }
@@ -42,6 +42,9 @@ public class TestApp {
                 case STATE:
                     response = stub.state();
                     break;
+                case METRICS:
+                    response = stub.metrics();
+                    break;
                 default:
                     System.out.println("ERROR invalid operation:" + args[2]);
                     return;
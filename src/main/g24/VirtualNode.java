@@ -0,0 +1,31 @@
+package main.g24;
+
+import main.g24.chord.INode;
+import main.g24.chord.Node;
+
+import java.net.InetAddress;
+
+/**
+ * One of the extra ids a peer takes in the ring, so it owns several smaller ranges of keys instead of a single one.
+ * It shares the peer's address and connections, requests for it are told apart by their target id.
+ * The keys and files themselves are kept by the peer, this only keeps its own place in the ring
+ */
+public class VirtualNode extends Node {
+
+    private final Peer peer;
+
+    /**
+     * @param peer peer hosting the node, at addr:port
+     * @param index number of the node in the peer, from 1 (0 is the peer itself)
+     */
+    VirtualNode(Peer peer, InetAddress addr, int port, int index) {
+        super(addr, port, peer.getConnectionPool(), chordID(addr.getHostName(), port, index), peer);
+        this.peer = peer;
+    }
+
+    @Override
+    protected void on_predecessor_death(INode dead) {
+        super.on_predecessor_death(dead);
+        peer.inherit(this, dead);
+    }
+}
@@ -0,0 +1,209 @@
+package main.g24.chord;
+
+import main.g24.SdisUtils;
+
+import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * Position in the identifier circle, an unsigned integer of BITS bits (at most 160).
+ * Kept as three words instead of a BigInteger, so comparing, adding and subtracting ids on the lookup path
+ * only touches primitives. Goes on the wire as BYTES big endian bytes and in text as BITS/4 hex digits
+ */
+public final class ChordId implements Comparable<ChordId>, Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    public static final int MAX_BITS = 160;
+    // width of the identifiers (-Dg24.chord_bits), every peer of a ring must use the same
+    public static final int BITS = Math.min(MAX_BITS, Math.max(1, bits()));
+    public static final int BYTES = (BITS + 7) / 8, HEX_DIGITS = (BITS + 3) / 4;
+
+    // masks of the words that make up BITS, the top one is at most 32 bits wide
+    private static final long HI_MASK = mask(BITS - 128), MID_MASK = mask(BITS - 64), LO_MASK = mask(BITS);
+
+    public static final ChordId ZERO = new ChordId(0, 0, 0);
+
+    // bits 128-159, 64-127 and 0-63
+    private final long hi, mid, lo;
+
+    private ChordId(long hi, long mid, long lo) {
+        this.hi = hi & HI_MASK;
+        this.mid = mid & MID_MASK;
+        this.lo = lo & LO_MASK;
+    }
+
+    private static int bits() {
+        try {
+            return Integer.getInteger("g24.chord_bits", MAX_BITS);
+        } catch (SecurityException e) {
+            // the rmiregistry loads the remote interfaces without access to the properties, it never uses the ids
+            return MAX_BITS;
+        }
+    }
+
+    private static long mask(int bits) {
+        if (bits <= 0)
+            return 0;
+        return bits >= 64 ? -1L : (1L << bits) - 1;
+    }
+
+    /**
+     * @return id of a string, the low BITS bits of its SHA3-256 digest
+     */
+    public static ChordId hash(String s) {
+        final MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA3-256");
+        } catch (NoSuchAlgorithmException e) {
+            e.printStackTrace();
+            return ZERO;
+        }
+        final byte[] hashbytes = digest.digest(s.getBytes(StandardCharsets.US_ASCII));
+        return fromBytes(hashbytes, hashbytes.length - BYTES);
+    }
+
+    /**
+     * @return id made of the BYTES big endian bytes of bytes starting at offset
+     */
+    public static ChordId fromBytes(byte[] bytes, int offset) {
+        long hi = 0, mid = 0, lo = 0;
+        for (int i = offset; i < offset + BYTES; i++) {
+            hi = (hi << 8) | (mid >>> 56);
+            mid = (mid << 8) | (lo >>> 56);
+            lo = (lo << 8) | (bytes[i] & 0xff);
+        }
+        return new ChordId(hi, mid, lo);
+    }
+
+    public static ChordId of(long value) {
+        return new ChordId(0, 0, value);
+    }
+
+    /**
+     * @return id made of the low BITS bits of three words, the highest first
+     */
+    public static ChordId of(long hi, long mid, long lo) {
+        return new ChordId(hi, mid, lo);
+    }
+
+    public static ChordId read(ByteBuffer in) {
+        long hi = 0, mid = 0, lo = 0;
+        for (int i = 0; i < BYTES; i++) {
+            hi = (hi << 8) | (mid >>> 56);
+            mid = (mid << 8) | (lo >>> 56);
+            lo = (lo << 8) | (in.get() & 0xff);
+        }
+        return new ChordId(hi, mid, lo);
+    }
+
+    public void write(ByteBuffer out) {
+        for (int i = BYTES - 1; i >= 0; i--)
+            out.put((byte) (i >= 16 ? hi >>> (8 * (i - 16)) : i >= 8 ? mid >>> (8 * (i - 8)) : lo >>> (8 * i)));
+    }
+
+    /**
+     * @param hex id as written by toString
+     */
+    public static ChordId parse(String hex) {
+        long hi = 0, mid = 0, lo = 0;
+        for (int i = 0; i < hex.length(); i++) {
+            int digit = Character.digit(hex.charAt(i), 16);
+            if (digit < 0)
+                throw new NumberFormatException("Not an id: " + hex);
+            hi = (hi << 4) | (mid >>> 60);
+            mid = (mid << 4) | (lo >>> 60);
+            lo = (lo << 4) | digit;
+        }
+        return new ChordId(hi, mid, lo);
+    }
+
+    /**
+     * @return this + 2^i, around the circle, i.e. the start of the i-th finger
+     */
+    public ChordId plusPowerOfTwo(int i) {
+        long lo = this.lo + (i < 64 ? 1L << i : 0);
+        long carry = Long.compareUnsigned(lo, this.lo) < 0 ? 1 : 0;
+
+        long sum = this.mid + (i >= 64 && i < 128 ? 1L << (i - 64) : 0);
+        long mid = sum + carry;
+        carry = Long.compareUnsigned(sum, this.mid) < 0 || Long.compareUnsigned(mid, sum) < 0 ? 1 : 0;
+
+        return new ChordId(this.hi + (i >= 128 ? 1L << (i - 128) : 0) + carry, mid, lo);
+    }
+
+    /**
+     * @return this - other, around the circle, i.e. how far other is behind this
+     */
+    public ChordId minus(ChordId other) {
+        long lo = this.lo - other.lo;
+        long borrow = Long.compareUnsigned(this.lo, other.lo) < 0 ? 1 : 0;
+
+        long difference = this.mid - other.mid;
+        long mid = difference - borrow;
+        borrow = Long.compareUnsigned(this.mid, other.mid) < 0 || Long.compareUnsigned(difference, borrow) < 0 ? 1 : 0;
+
+        return new ChordId(this.hi - other.hi - borrow, mid, lo);
+    }
+
+    /**
+     * @return whether this lies strictly between start and end, going clockwise (the whole circle but start if they are equal)
+     */
+    public boolean isBetween(ChordId start, ChordId end) {
+        int order = end.compareTo(start);
+        if (order > 0)
+            // Regular interval
+            return compareTo(start) > 0 && compareTo(end) < 0;
+        else
+            // Interval loops around
+            return compareTo(start) > 0 || compareTo(end) < 0;
+    }
+
+    /**
+     * @return whether this lies between start (excluded) and end (included), going clockwise
+     */
+    public boolean isBetweenIncluding(ChordId start, ChordId end) {
+        return equals(end) || isBetween(start, end);
+    }
+
+    @Override
+    public int compareTo(ChordId other) {
+        int order = Long.compareUnsigned(hi, other.hi);
+        if (order == 0)
+            order = Long.compareUnsigned(mid, other.mid);
+        if (order == 0)
+            order = Long.compareUnsigned(lo, other.lo);
+        return order;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o)
+            return true;
+        if (!(o instanceof ChordId))
+            return false;
+        ChordId other = (ChordId) o;
+        return lo == other.lo && mid == other.mid && hi == other.hi;
+    }
+
+    @Override
+    public int hashCode() {
+        return Long.hashCode(lo) ^ 31 * Long.hashCode(mid) ^ 961 * Long.hashCode(hi);
+    }
+
+    @Override
+    public String toString() {
+        // the digits beyond a word's 16 are in the next one up
+        int loDigits = Math.min(16, HEX_DIGITS), midDigits = Math.min(16, HEX_DIGITS - loDigits);
+        int hiDigits = HEX_DIGITS - loDigits - midDigits;
+
+        char[] hex = new char[HEX_DIGITS];
+        SdisUtils.putHex(hex, 0, hi, hiDigits);
+        SdisUtils.putHex(hex, hiDigits, mid, midDigits);
+        SdisUtils.putHex(hex, hiDigits + midDigits, lo, loDigits);
+        return new String(hex);
+    }
+}
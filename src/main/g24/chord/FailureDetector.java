@@ -0,0 +1,193 @@
+package main.g24.chord;
+
+import main.g24.socket.ConnectionPool;
+import main.g24.socket.messages.PingMessage;
+
+import java.net.InetSocketAddress;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Phi accrual failure detector, shared by the nodes of a peer.
+ * Every node asked about is sent a heartbeat (PING) each HEARTBEAT_INTERVAL, all of them at once in the background,
+ * and the arrival times of the replies are kept. How suspect a node is (phi) grows with the time since its last reply,
+ * against how far apart its replies usually are: phi = -log10 of the chance of a reply still arriving that late.
+ * Liveness checks just compare phi with PHI_THRESHOLD, they never wait for the network.
+ * The heartbeats, and any other request timed by the caller, also keep a smoothed round trip time per node.
+ * Nodes are watched by address, the nodes of a peer live and die together
+ */
+public class FailureDetector {
+
+    // ms between heartbeats (-Dg24.heartbeat_ms)
+    public static final long HEARTBEAT_INTERVAL = Long.getLong("g24.heartbeat_ms", 500);
+    // phi past which a node is considered dead (-Dg24.phi_threshold), 8 is about a 1e-8 chance of being wrong
+    public static final double PHI_THRESHOLD = Double.parseDouble(System.getProperty("g24.phi_threshold", "8"));
+    // intervals kept per node
+    private static final int WINDOW = 100;
+    // lower bound of the deviation, so a very regular node isn't suspected over a few ms of jitter
+    private static final double MIN_DEVIATION = Math.max(100, HEARTBEAT_INTERVAL / 2.0);
+    // a node no one asked about for this long isn't watched anymore
+    private static final long FORGET_AFTER = 30000;
+
+    /**
+     * Reply arrivals of one node
+     */
+    private static class History {
+        private final long[] intervals = new long[WINDOW];
+        private int count, next;
+        private double sum, squares;
+        private long last;
+        private volatile long lastAsked;
+        // smoothed round trip time in ms, negative until measured
+        private double rtt = -1;
+
+        History(long now) {
+            // until the first reply, as if one had just arrived on schedule
+            this.last = now;
+            this.lastAsked = now;
+        }
+
+        synchronized void arrived(long now) {
+            long interval = now - last;
+            last = now;
+
+            if (count == WINDOW) {
+                long oldest = intervals[next];
+                sum -= oldest;
+                squares -= (double) oldest * oldest;
+            } else {
+                count++;
+            }
+            intervals[next] = interval;
+            next = (next + 1) % WINDOW;
+            sum += interval;
+            squares += (double) interval * interval;
+        }
+
+        synchronized void sample(double rttMillis) {
+            rtt = rtt < 0 ? rttMillis : rtt + (rttMillis - rtt) / 8;
+        }
+
+        synchronized double rtt() {
+            return rtt;
+        }
+
+        synchronized double phi(long now) {
+            double mean = count == 0 ? HEARTBEAT_INTERVAL : sum / count;
+            double variance = count == 0 ? 0 : squares / count - mean * mean;
+            double deviation = Math.max(MIN_DEVIATION, Math.sqrt(Math.max(0, variance)));
+
+            // chance of a reply arriving later than now, from a logistic approximation of the normal distribution
+            double y = (now - last - mean) / deviation;
+            double e = Math.exp(-y * (1.5976 + 0.070566 * y * y));
+            double later = now - last > mean ? e / (1.0 + e) : 1.0 - 1.0 / (1.0 + e);
+            return -Math.log10(Math.max(later, Double.MIN_VALUE));
+        }
+    }
+
+    private final ConnectionPool connections;
+    private final ChordId sender;
+    private final Map<InetSocketAddress, History> watched;
+    private final ScheduledExecutorService heartbeats;
+    private final AtomicLong sent, suspicions;
+
+    /**
+     * @param connections connections the heartbeats go through
+     * @param sender id the heartbeats are sent with
+     */
+    public FailureDetector(ConnectionPool connections, ChordId sender) {
+        this.connections = connections;
+        this.sender = sender;
+        this.watched = new ConcurrentHashMap<>();
+        this.heartbeats = Executors.newSingleThreadScheduledExecutor(task -> {
+            Thread thread = new Thread(task, "heartbeats");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.sent = new AtomicLong();
+        this.suspicions = new AtomicLong();
+    }
+
+    public void start() {
+        heartbeats.scheduleWithFixedDelay(this::beat, HEARTBEAT_INTERVAL, HEARTBEAT_INTERVAL, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Sends a heartbeat to every node watched, without waiting for the replies
+     */
+    private void beat() {
+        long now = System.currentTimeMillis();
+        for (Map.Entry<InetSocketAddress, History> entry : watched.entrySet()) {
+            History history = entry.getValue();
+            if (now - history.lastAsked > FORGET_AFTER) {
+                watched.remove(entry.getKey(), history);
+                continue;
+            }
+
+            sent.incrementAndGet();
+            long sentAt = System.nanoTime();
+            connections.request(entry.getKey(), new PingMessage(sender))
+                    .orTimeout(Node.RPC_TIMEOUT, TimeUnit.MILLISECONDS)
+                    .thenAccept(reply -> {
+                        history.arrived(System.currentTimeMillis());
+                        history.sample((System.nanoTime() - sentAt) / 1e6);
+                    });
+        }
+    }
+
+    /**
+     * @return suspicion level of the node at address, it's watched from now on if it wasn't
+     */
+    public double phi(InetSocketAddress address) {
+        long now = System.currentTimeMillis();
+        History history = watched.computeIfAbsent(address, a -> new History(now));
+        history.lastAsked = now;
+        return history.phi(now);
+    }
+
+    /**
+     * @return smoothed round trip time to the node at address in ms, negative if it wasn't measured yet.
+     * It's watched from now on if it wasn't, so the next heartbeats measure it
+     */
+    public double rtt(InetSocketAddress address) {
+        long now = System.currentTimeMillis();
+        History history = watched.computeIfAbsent(address, a -> new History(now));
+        history.lastAsked = now;
+        return history.rtt();
+    }
+
+    /**
+     * A request to the node at address took nanos to be answered, it counts if the node is watched
+     */
+    public void sampleRtt(InetSocketAddress address, long nanos) {
+        History history = watched.get(address);
+        if (history != null)
+            history.sample(nanos / 1e6);
+    }
+
+    /**
+     * @return whether the node at address is still considered alive
+     */
+    public boolean isAlive(InetSocketAddress address) {
+        if (phi(address) < PHI_THRESHOLD)
+            return true;
+        suspicions.incrementAndGet();
+        return false;
+    }
+
+    @Override
+    public String toString() {
+        long now = System.currentTimeMillis();
+        int suspected = 0;
+        for (History history : watched.values()) {
+            if (history.phi(now) >= PHI_THRESHOLD)
+                suspected++;
+        }
+        return String.format("%d nodes watched, %d suspected, %d heartbeats sent, %d suspicions",
+                watched.size(), suspected, sent.get(), suspicions.get());
+    }
+}
@@ -4,15 +4,17 @@ import java.net.InetAddress;
 import java.net.InetSocketAddress;
 import java.rmi.Remote;
 import java.rmi.RemoteException;
+import java.util.List;
 
 public interface INode extends Remote {
-    int get_id() throws RemoteException;
+    ChordId get_id() throws RemoteException;
 
     INode get_predecessor() throws RemoteException;
     INode get_successor() throws RemoteException;
+    List<INode> get_successors() throws RemoteException;
 
-    INode find_successor(int id) throws RemoteException;
-    INode closest_preceding_node(int id) throws RemoteException;
+    INode find_successor(ChordId id) throws RemoteException;
+    INode closest_preceding_node(ChordId id) throws RemoteException;
 
     void create() throws RemoteException;
     void join(INode node) throws RemoteException;
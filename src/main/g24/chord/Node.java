@@ -1,57 +1,112 @@
 package main.g24.chord;
 
-import java.math.BigInteger;
+import main.g24.monitors.LookupMetrics;
+import main.g24.socket.ConnectionPool;
+import main.g24.socket.messages.NodeMessage;
+import main.g24.socket.messages.SuccessorsMessage;
+
 import java.net.InetAddress;
 import java.net.InetSocketAddress;
-import java.nio.charset.StandardCharsets;
 import java.rmi.RemoteException;
-import java.security.MessageDigest;
-import java.security.NoSuchAlgorithmException;
-import java.util.ArrayList;
-import java.util.Arrays;
-import java.util.List;
-
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Chord node.
+ * Other nodes are reached through RemoteNode, over the socket connections of the ConnectionPool.
+ * Lookups are iterative: the node looking up a key asks each hop for the next one, hops answer
+ * from their own tables only (lookup_step) so a lookup never holds up the node it passes through.
+ * They are asynchronous too (find_successor_async), find_successor just waits for one.
+ * INode is still a Remote interface, so RMI clients can keep calling a node directly
+ */
 public class Node implements INode {
 
-    protected static final int CHORD_BITS = 8, CHORD_SIZE = (int) Math.pow(2,  CHORD_BITS);
-
-    protected final int id;
-//    private int nextFingerCheck = 0;
-    private INode predecessor, successor;
+    protected static final int CHORD_BITS = ChordId.BITS;
+    private static final int MAX_HOPS = 2 * CHORD_BITS;
+
+    // how long another node may take to answer a request (-Dg24.rpc_timeout)
+    public static final long RPC_TIMEOUT = Long.getLong("g24.rpc_timeout", 2000);
+    // length of the successor list (-Dg24.successors)
+    public static final int SUCCESSORS = Math.max(1, Integer.getInteger("g24.successors", 4));
+    // most maintenance ticks between finger refreshes once the ring is stable (-Dg24.finger_max_ticks)
+    public static final int FINGER_MAX_TICKS = Math.max(1, Integer.getInteger("g24.finger_max_ticks", 8));
+    // ms a candidate finger has to be closer by on top of 20%, to replace the current one
+    private static final double PNS_SLACK = 1;
+
+    protected final ChordId id;
+    private int nextFingerCheck = 0;
+    // fingers refreshed per refresh and ticks between refreshes, adapted to how much the ring changes
+    private int fingersPerTick = CHORD_BITS, fingerInterval = 1, ticksLeft = 0;
+    private volatile boolean churn = false;
+    private volatile INode predecessor, successor;
+    // the successor and the ones after it, replaced as a whole by stabilize
+    private volatile List<INode> successors;
     protected final InetAddress addr;
     protected final int port;
 
     protected List<INode> fingers;
+    protected final ConnectionPool connections;
+    // liveness of the other nodes, shared by the nodes of a peer
+    protected final FailureDetector detector;
+    // hops, latency and failures of the lookups, shared by the nodes of a peer
+    protected final LookupMetrics metrics;
+
+    // lookups in flight by key, later lookups of the same key wait on the same future
+    private final Map<ChordId, CompletableFuture<INode>> inFlight;
+    private final OwnerCache owners;
+    // requests sent to other nodes, fingers refreshed
+    private final AtomicLong chordRequests, fingerRefreshes;
+    private final long started;
+
+    public Node(InetAddress addr, int port, ConnectionPool connections) {
+        this(addr, port, connections, chordID(addr.getHostName(), port), null);
+    }
 
-    public Node(InetAddress addr, int port) {
-        this.id = chordID(addr.getHostName(), port);
+    /**
+     * @param id id in the ring, for the virtual nodes of a peer that share its address
+     * @param host node of the same peer to share the failure detector of, null for a peer's own node
+     */
+    public Node(InetAddress addr, int port, ConnectionPool connections, ChordId id, Node host) {
+        this.id = id;
         this.addr = addr;
         this.port = port;
+        this.connections = connections;
+        this.detector = host != null ? host.detector : new FailureDetector(connections, id);
+        this.metrics = host != null ? host.metrics : new LookupMetrics();
         this.fingers = new ArrayList<>(Arrays.asList(new INode[CHORD_BITS+1]));
+        this.successors = List.of();
+
+        this.inFlight = new ConcurrentHashMap<>();
+        this.owners = new OwnerCache();
+        this.chordRequests = new AtomicLong();
+        this.fingerRefreshes = new AtomicLong();
+        this.started = System.currentTimeMillis();
 
         for (int i = 0; i < fingers.size(); i++) {
             fingers.set(i, this);
         }
     }
 
-    public static int chordID(String ip, int port) {
+    public static ChordId chordID(String ip, int port) {
         return chordID(ip + ":" + port);
     }
 
-    public static int chordID(String s) {
-        final MessageDigest digest;
-        try {
-            digest = MessageDigest.getInstance("SHA3-256");
-        } catch (NoSuchAlgorithmException e) {
-            e.printStackTrace();
-            return 0;
-        }
-        final byte[] hashbytes = digest.digest(s.getBytes(StandardCharsets.US_ASCII));
-        return new BigInteger(hashbytes).mod(BigInteger.valueOf(CHORD_SIZE)).intValue();
+    /**
+     * @return id of the index-th virtual node of the peer at ip:port, the peer itself being the 0th
+     */
+    public static ChordId chordID(String ip, int port, int index) {
+        return index == 0 ? chordID(ip, port) : chordID(ip + ":" + port + "#" + index);
+    }
+
+    public static ChordId chordID(String s) {
+        return ChordId.hash(s);
     }
 
     @Override
-    public int get_id() {
+    public ChordId get_id() {
         return id;
     }
 
@@ -65,6 +120,18 @@ public class Node implements INode {
         return successor;
     }
 
+    /**
+     * @return up to SUCCESSORS nodes that follow this one, closest first
+     */
+    @Override
+    public List<INode> get_successors() {
+        List<INode> list = successors;
+        INode succ = successor;
+        if (list.isEmpty() && succ != null && succ != this)
+            return List.of(succ);
+        return list;
+    }
+
     @Override
     public InetAddress get_address() throws RemoteException { return this.addr; }
 
@@ -76,63 +143,328 @@ public class Node implements INode {
     @Override
     public int get_port() throws RemoteException { return this.port; }
 
-    private boolean is_in_successor_range(int id) throws RemoteException {
-        if (!isAlive(successor))
-            successor = this.find_next_live();
-
-        int succ_id = successor.get_id();
-        if (succ_id > this.id) {
-            // Regular interval
-            return id > this.id && id <= succ_id;
-        } else {
-            // Interval loops around
-            return id > this.id  || id <= succ_id;
-        }
-    }
-
     /**
      * Ask node n to find the successor of id
      * @param id
      * @return
      */
     @Override
-    public INode find_successor(int id) throws RemoteException {
+    public INode find_successor(ChordId id) throws RemoteException {
 
 //        System.out.println(this.id + " look for " + id);
 
-        if (is_in_successor_range(id))
-            return successor;
-        else {
-            INode n0 = this.closest_preceding_node(id);
-            return n0.find_successor(id);
+        // a dead successor is replaced by stabilize, not on every lookup
+        return await(find_successor_async(id), id);
+    }
+
+    /**
+     * Iterative lookup that doesn't hold up the calling thread.
+     * Keys owned by a neighbour or cached (see OwnerCache) are resolved right away, lookups of a key that
+     * is already being looked up share the one in flight.
+     * The future is completed on the thread that got the last reply (a socket worker), don't block in its callbacks
+     * @param id key to look up
+     * @return future completed with the successor of id
+     */
+    public CompletableFuture<INode> find_successor_async(ChordId id) {
+        return find_successor_async(id, true);
+    }
+
+    /**
+     * @param cached false to always go through the ring, e.g. to refresh the fingers
+     */
+    private CompletableFuture<INode> find_successor_async(ChordId id, boolean cached) {
+        INode succ = successor;
+        if (owns(succ, id))
+            return CompletableFuture.completedFuture(succ);
+        if (owns_self(id))
+            return CompletableFuture.completedFuture(this);
+
+        INode owner = cached ? owners.get(id) : null;
+        if (owner != null)
+            return CompletableFuture.completedFuture(owner);
+
+        CompletableFuture<INode> lookup = new CompletableFuture<>();
+        CompletableFuture<INode> inFlight = this.inFlight.putIfAbsent(id, lookup);
+        if (inFlight != null) {
+            metrics.coalesced();
+            return inFlight;
         }
+
+        lookup.whenComplete((node, e) -> {
+            this.inFlight.remove(id, lookup);
+            if (e == null && node instanceof RemoteNode)
+                owners.put(id, ((RemoteNode) node).get_id(), node);
+        });
+        new Lookup(id, lookup).next(closest_preceding(id, false));
+        return lookup;
     }
 
-    private boolean is_in_range(int start, int end, int id) {
-        if (end > start) {
-            // Regular interval
-            return id > start && id < end;
-        } else {
-            // Interval loops around
-            return id > start  || id < end;
+    /**
+     * Iterative lookup, starting at node n0
+     * @param n0 first node to ask
+     * @param id key to look up
+     * @return successor of id
+     */
+    INode find_successor_from(INode n0, ChordId id) throws RemoteException {
+        CompletableFuture<INode> lookup = new CompletableFuture<>();
+        new Lookup(id, lookup).next(n0);
+        return await(lookup, id);
+    }
+
+    private static INode await(CompletableFuture<INode> lookup, ChordId id) throws RemoteException {
+        try {
+            return lookup.get();
+        } catch (InterruptedException | ExecutionException e) {
+            Throwable cause = e.getCause() != null ? e.getCause() : e;
+            if (cause instanceof RemoteException)
+                throw (RemoteException) cause;
+            throw new RemoteException("Lookup of " + id + " failed", cause);
         }
     }
 
+    /**
+     * A lookup in progress, one hop at a time.
+     * Every hop gets RPC_TIMEOUT to answer, a hop that doesn't is skipped and the lookup goes on
+     * from the next closest finger of this node's table.
+     * A hop that answers with no node, or one that already failed, is alive but no use, it's passed over the same way
+     */
+    private class Lookup {
+        private final ChordId key;
+        private final CompletableFuture<INode> result;
+        private final Set<ChordId> failed;
+        // failed, plus the nodes that answered with nothing usable
+        private final Set<ChordId> passed;
+        private final long start;
+        private int hops;
+
+        Lookup(ChordId key, CompletableFuture<INode> result) {
+            this.key = key;
+            this.result = result;
+            this.failed = new HashSet<>();
+            this.passed = new HashSet<>();
+            this.start = System.nanoTime();
+            this.hops = 0;
+        }
+
+        void next(INode current) {
+            if (current == Node.this) {
+                // no one closer than us
+                finish(successor);
+                return;
+            }
+
+            // only reachable through RMI, let it forward the lookup itself
+            if (!(current instanceof RemoteNode)) {
+                CompletableFuture.runAsync(() -> {
+                    try {
+                        finish(current.find_successor(key));
+                    } catch (RemoteException e) {
+                        fail(e);
+                    }
+                });
+                return;
+            }
+
+            if (++hops > MAX_HOPS) {
+                fail(new RemoteException("Lookup of " + key + " didn't converge after " + MAX_HOPS + " hops"));
+                return;
+            }
+
+            long sent = System.nanoTime();
+            ((RemoteNode) current).step(key).whenComplete((reply, e) -> {
+                if (e == null)
+                    metrics.hop(System.nanoTime() - sent);
+                if (e != null) {
+                    skip((RemoteNode) current);
+                    return;
+                }
+
+                INode next = resolve(reply);
+                if (next == null || failed.contains(reply.node_id)) {
+                    // current is fine, only its answer isn't
+                    passed.add(((RemoteNode) current).get_id());
+                    moveOn();
+                    return;
+                }
+
+                if (reply.status == NodeMessage.FOUND)
+                    finish(next);
+                else
+                    next(next);
+            });
+        }
+
+        /**
+         * Marks a hop that didn't answer as dead and goes on without it
+         */
+        private void skip(RemoteNode current) {
+            failed.add(current.get_id());
+            passed.add(current.get_id());
+            owners.markDead(current.get_id());
+            on_churn();
+            metrics.hopTimedOut();
+            moveOn();
+        }
+
+        /**
+         * Goes on from the closest finger before key that wasn't passed over in this lookup yet
+         */
+        private void moveOn() {
+            INode next = closest_preceding(key, passed), succ = successor;
+            if (next != Node.this)
+                next(next);
+            else if (succ instanceof RemoteNode && !passed.contains(((RemoteNode) succ).get_id()))
+                finish(succ);
+            else
+                fail(new RemoteException("No node left to ask about " + key));
+        }
+
+        private void finish(INode node) {
+            metrics.lookup(hops, System.nanoTime() - start, false);
+            result.complete(node);
+        }
+
+        private void fail(Throwable e) {
+            metrics.lookup(hops, System.nanoTime() - start, true);
+            result.completeExceptionally(e);
+        }
+    }
+
+    /**
+     * One step of another node's lookup, answered from the local tables only
+     * @param key key being looked up
+     * @return the successor if it owns key, otherwise the closest preceding node known
+     */
+    public NodeMessage lookup_step(ChordId key) {
+        INode succ = successor;
+        if (owns(succ, key))
+            return describe(NodeMessage.FOUND, succ);
+
+        INode next = closest_preceding(key, false);
+        return next == this ? describe(NodeMessage.FOUND, succ) : describe(NodeMessage.NEXT, next);
+    }
+
+    /**
+     * @return message naming node (NONE if null), for the replies to other nodes
+     */
+    public NodeMessage describe(int status, INode node) {
+        if (node == null)
+            return NodeMessage.none(id);
+
+        try {
+            return new NodeMessage(id, status, node.get_id(), node.get_address().getHostAddress(), node.get_port());
+        } catch (RemoteException e) {
+            return NodeMessage.none(id);
+        }
+    }
+
+    /**
+     * @return node named by a reply, null if none
+     */
+    INode resolve(NodeMessage message) {
+        if (message.status == NodeMessage.NONE)
+            return null;
+        return node(message.node_id, new InetSocketAddress(message.node_ip, message.node_port));
+    }
+
+    /**
+     * @return the successor list, for the replies to other nodes
+     */
+    public SuccessorsMessage describe_successors() {
+        List<SuccessorsMessage.Entry> entries = new ArrayList<>();
+        for (INode node : get_successors()) {
+            try {
+                entries.add(new SuccessorsMessage.Entry(node.get_id(), node.get_address().getHostAddress(), node.get_port()));
+            } catch (RemoteException e) {
+                break;
+            }
+        }
+        return new SuccessorsMessage(id, entries);
+    }
+
+    /**
+     * @return handle to the node with this id and address, this node itself if it's ours
+     */
+    public INode node(ChordId id, InetSocketAddress address) {
+        return id.equals(this.id) ? this : new RemoteNode(this, id, address);
+    }
+
+    /**
+     * @return whether id is between the predecessor and this node
+     */
+    private boolean owns_self(ChordId id) {
+        INode pred = predecessor;
+        try {
+            return id.equals(this.id) || (pred != null && id.isBetweenIncluding(pred.get_id(), this.id));
+        } catch (RemoteException e) {
+            return false;
+        }
+    }
+
+    private boolean owns(INode succ, ChordId id) {
+        try {
+            return id.isBetweenIncluding(this.id, succ.get_id());
+        } catch (RemoteException e) {
+            return false;
+        }
+    }
+
+    /**
+     * @return summary of the lookups of the peer and of this node's owner cache
+     */
+    public String lookupStats() {
+        return metrics.summary() + "; " + owners;
+    }
+
+    /**
+     * @return counters and histograms of the lookups of the peer
+     */
+    public LookupMetrics getLookupMetrics() {
+        return metrics;
+    }
+
+    private boolean is_in_range(ChordId start, ChordId end, ChordId id) {
+        return id.isBetween(start, end);
+    }
+
     /**
      * Search the local table for the highest predecessor of id
      * @param id
      * @return
      */
     @Override
-    public INode closest_preceding_node(int id) throws RemoteException {
+    public INode closest_preceding_node(ChordId id) throws RemoteException {
+        return closest_preceding(id, true);
+    }
+
+    /**
+     * @param checkAlive whether to skip fingers that don't answer, false never leaves this node
+     */
+    private INode closest_preceding(ChordId id, boolean checkAlive) {
+        return closest_preceding(id, checkAlive, Set.of());
+    }
+
+    /**
+     * @param skip ids of the fingers not to consider, never leaves this node
+     */
+    private INode closest_preceding(ChordId id, Set<ChordId> skip) {
+        return closest_preceding(id, false, skip);
+    }
+
+    private INode closest_preceding(ChordId id, boolean checkAlive, Set<ChordId> skip) {
         for (int i = CHORD_BITS - 1; i >= 0; i--) {
             INode finger = fingers.get(i);
 
-            if (!isAlive(finger))
+            if (finger == null || (checkAlive && !isAlive(finger)))
                 continue;
 
-            if (finger != null && is_in_range(this.id, id, finger.get_id()))
-                return finger;
+            try {
+                ChordId finger_id = finger.get_id();
+                if (is_in_range(this.id, id, finger_id) && !skip.contains(finger_id) && !owners.isDead(finger_id))
+                    return finger;
+            } catch (RemoteException e) {
+                // only RMI stubs fail here, skip it
+            }
         }
         return this;
     }
@@ -144,6 +476,7 @@ public class Node implements INode {
     public void create() {
         predecessor = null;
         successor = this;
+        successors = List.of();
     }
 
     /**
@@ -153,7 +486,42 @@ public class Node implements INode {
     @Override
     public void join(INode node) throws RemoteException {
         predecessor = null;
-        successor = node.find_successor(node.get_id());
+        successor = node.find_successor(this.id);
+    }
+
+    /**
+     * The successor didn't answer, the next one on the list takes its place right away.
+     * Entries known to be dead are skipped without asking them, the fingers are only scanned once the list runs out
+     */
+    private void promote_successor() {
+        INode dead = successor;
+        List<INode> list = successors;
+
+        int next = list.indexOf(dead) + 1;
+        while (next < list.size() && !is_usable(list.get(next)))
+            next++;
+
+        if (next < list.size()) {
+            successor = list.get(next);
+            successors = List.copyOf(list.subList(next, list.size()));
+        } else {
+            successor = find_next_live();
+            successors = List.of();
+        }
+
+        if (successor != dead)
+            on_new_successor();
+    }
+
+    /**
+     * @return whether a node might answer, without asking it
+     */
+    private boolean is_usable(INode node) {
+        try {
+            return node != this && !owners.isDead(node.get_id());
+        } catch (RemoteException e) {
+            return false;
+        }
     }
 
     public INode find_next_live() {
@@ -173,19 +541,44 @@ public class Node implements INode {
     public void stabilize() throws RemoteException {
 
         if (!isAlive(successor))
-            successor = this.find_next_live();
+            promote_successor();
 
         INode x = successor.get_predecessor();
 
-        if (x != null && is_in_range(id, successor.get_id(), x.get_id())) {
+        // a predecessor that just died may still be named until that node notices
+        if (x != null && is_in_range(id, successor.get_id(), x.get_id()) && is_usable(x)) {
             successor = x;
             on_new_successor();
         }
 
         successor.notify(this);
+        refresh_successors();
+    }
+
+    /**
+     * The successor list is the successor followed by the start of its own list
+     */
+    private void refresh_successors() throws RemoteException {
+        INode succ = successor;
+        if (succ == this) {
+            successors = List.of();
+            return;
+        }
+
+        List<INode> list = new ArrayList<>(SUCCESSORS);
+        list.add(succ);
+        for (INode node : succ.get_successors()) {
+            if (list.size() >= SUCCESSORS || node.get_id().equals(id))
+                break;
+            list.add(node);
+        }
+        successors = List.copyOf(list);
     }
 
-    protected void on_new_successor() {}
+    protected void on_new_successor() {
+        owners.clear();
+        on_churn();
+    }
 
     /**
      * Node thinks it might be our predecessor
@@ -199,22 +592,172 @@ public class Node implements INode {
         }
     }
 
-    protected void on_new_predecessor() {}
+    protected void on_new_predecessor() {
+        owners.clear();
+        on_churn();
+    }
 
     /**
      * Called periodically.
-     * Refreshes finger table entries.
-     * nextFingerCheck stores the index of the finger to fix
+     * Refreshes finger table entries, a few at a time.
+     * nextFingerCheck stores the index of the finger to fix.
+     * Every refresh that changes nothing halves the fingers refreshed next time, down to one,
+     * and then doubles the ticks until the next refresh, up to FINGER_MAX_TICKS.
+     * A finger that changed or any other sign of churn goes back to the whole table every tick
      */
     @Override
     public void fix_fingers() throws RemoteException {
-        if (!isAlive(successor))
-            successor = this.find_next_live();
+        // the successor was just checked by stabilize
+        if (churn) {
+            churn = false;
+            fingersPerTick = CHORD_BITS;
+            fingerInterval = 1;
+            ticksLeft = 0;
+        }
+        if (--ticksLeft > 0)
+            return;
+
+        boolean changed = false;
+        // fingers set, the loop stops once the whole table went by
+        int covered = 0;
+        for (int n = 0; n < fingersPerTick && covered < CHORD_BITS; n++) {
+            ChordId start = id.plusPowerOfTwo(nextFingerCheck);
+
+            // always through the ring, the fingers also keep the cache fresh
+            INode finger = await(find_successor_async(start, false), start);
+            fingerRefreshes.incrementAndGet();
+
+            // the following fingers that start before the node found have it as successor too, no need to look them up
+            ChordId finger_id = finger.get_id();
+            int last = nextFingerCheck;
+            while ((last + 1) % CHORD_BITS != 0 && id.plusPowerOfTwo(last + 1).isBetweenIncluding(id, finger_id))
+                last++;
+
+            // any node in a finger's interval will do, the nodes right after the one found may be closer
+            List<INode> candidates = finger_interval(last).contains(finger_id) ? pns_candidates(finger) : List.of(finger);
+            for (int i = nextFingerCheck; i <= last; i++) {
+                INode chosen = closest_in_interval(i, finger, candidates);
+                if (!chosen.equals(fingers.get(i)))
+                    changed = true;
+                fingers.set(i, chosen);
+                covered++;
+            }
+            nextFingerCheck = (last + 1) % CHORD_BITS;
+        }
+
+        if (changed) {
+            fingersPerTick = CHORD_BITS;
+            fingerInterval = 1;
+        } else if (fingersPerTick > 1) {
+            fingersPerTick /= 2;
+        } else {
+            fingerInterval = Math.min(2 * fingerInterval, FINGER_MAX_TICKS);
+        }
+        ticksLeft = fingerInterval;
+    }
+
+    /**
+     * Ids that may be the i-th finger, [id + 2^i, id + 2^(i+1))
+     */
+    private Interval finger_interval(int i) {
+        return new Interval(id.plusPowerOfTwo(i), ChordId.ZERO.plusPowerOfTwo(i));
+    }
+
+    private static class Interval {
+        private final ChordId start, width;
 
-        for (int i = 0; i < CHORD_BITS; i++)
-            fingers.set(i, find_successor(id + (int) Math.pow(2, i)));
+        Interval(ChordId start, ChordId width) {
+            this.start = start;
+            this.width = width;
+        }
 
-//        nextFingerCheck = (nextFingerCheck + 1) % CHORD_BITS;
+        boolean contains(ChordId id) {
+            return id.minus(start).compareTo(width) < 0;
+        }
+    }
+
+    /**
+     * @return successor followed by the nodes after it, the candidates for the fingers it's the successor of
+     */
+    private List<INode> pns_candidates(INode successor) {
+        if (!(successor instanceof RemoteNode))
+            return List.of(successor);
+
+        List<INode> candidates = new ArrayList<>(SUCCESSORS + 1);
+        candidates.add(successor);
+        try {
+            candidates.addAll(successor.get_successors());
+        } catch (RemoteException e) {
+            // only the successor then
+        }
+        return candidates;
+    }
+
+    /**
+     * Proximity neighbour selection: out of the candidates in the i-th finger's interval, the one with the lowest
+     * round trip time. The current finger stays unless another one is clearly closer, so close ones don't take turns
+     * @param successor successor of the start of the interval, the finger if no candidate is in the interval
+     */
+    private INode closest_in_interval(int i, INode successor, List<INode> candidates) {
+        Interval interval = finger_interval(i);
+        INode best = successor, current = fingers.get(i);
+        double bestRtt = -1, currentRtt = -1;
+
+        for (INode candidate : candidates) {
+            ChordId candidate_id;
+            try {
+                candidate_id = candidate.get_id();
+            } catch (RemoteException e) {
+                continue;
+            }
+            if (!interval.contains(candidate_id) || !isAlive(candidate))
+                continue;
+
+            double rtt = rtt(candidate);
+            if (candidate.equals(current))
+                currentRtt = rtt;
+            if (rtt >= 0 && (bestRtt < 0 || rtt < bestRtt)) {
+                best = candidate;
+                bestRtt = rtt;
+            }
+        }
+
+        if (currentRtt >= 0 && currentRtt <= 1.2 * bestRtt + PNS_SLACK)
+            return current;
+        return best;
+    }
+
+    /**
+     * @return smoothed round trip time to node in ms, negative if it isn't known yet
+     */
+    private double rtt(INode node) {
+        if (node == this)
+            return 0;
+        try {
+            return detector.rtt(node.get_socket_address());
+        } catch (RemoteException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * The neighbourhood changed, fingers are refreshed in full again
+     */
+    private void on_churn() {
+        churn = true;
+    }
+
+    void count_request() {
+        chordRequests.incrementAndGet();
+    }
+
+    /**
+     * @return requests sent to other nodes (and their rate), fingers refreshed and the current refresh pace
+     */
+    public String maintenanceStats() {
+        double seconds = Math.max(1, System.currentTimeMillis() - started) / 1000.0;
+        return String.format("%d chord requests sent (%.1f/s), %d fingers refreshed, %d finger(s) every %d tick(s)",
+                chordRequests.get(), chordRequests.get() / seconds, fingerRefreshes.get(), fingersPerTick, fingerInterval);
     }
 
     /**
@@ -223,20 +766,48 @@ public class Node implements INode {
      */
     @Override
     public void check_predecessor() throws RemoteException {
-        if (predecessor != null && !isAlive(predecessor)) {
+        INode dead = predecessor;
+        if (dead != null && !isAlive(dead)) {
             predecessor = null;
-            on_predecessor_death();
+            on_predecessor_death(dead);
         }
     }
 
-    protected void on_predecessor_death() {}
+    protected void on_predecessor_death(INode dead) {
+        owners.clear();
+        on_churn();
+    }
+
+    /**
+     * Answered from the failure detector, without asking the node.
+     * A node that didn't answer isn't asked again for a while (OwnerCache.DEAD_TTL)
+     */
+    protected boolean isAlive(INode node) {
+        if (node == this)
+            return true;
 
-    protected static boolean isAlive(INode node) {
+        ChordId node_id;
+        InetSocketAddress address;
         try {
-            node.alive();
-        } catch (Exception e) {
+            node_id = node.get_id();
+            address = node.get_socket_address();
+        } catch (RemoteException e) {
+            return false;
+        }
+        if (owners.isDead(node_id))
+            return false;
+
+        if (!detector.isAlive(address)) {
+            owners.markDead(node_id);
             return false;
         }
         return true;
     }
+
+    /**
+     * @return how many nodes the failure detector watches and suspects
+     */
+    public String detectorStats() {
+        return detector.toString();
+    }
 }
@@ -0,0 +1,155 @@
+package main.g24.chord;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Remembers which node owns which keys, so hot keys are resolved without a lookup.
+ * A lookup of key k that ends at node n tells that n owns every key from k up to n, entries keep the
+ * widest such range seen per owner. Entries expire after TTL, the whole cache is dropped when the
+ * neighbourhood of the local node changes.
+ * Nodes that didn't answer are remembered as dead for a while too, so they aren't asked again right away
+ */
+class OwnerCache {
+
+    // owner entries kept (-Dg24.lookup_cache)
+    public static final int MAX_ENTRIES = Integer.getInteger("g24.lookup_cache", 128);
+    // how long an owner entry is trusted, in ms (-Dg24.lookup_ttl)
+    public static final long TTL = Long.getLong("g24.lookup_ttl", 10000);
+    // how long a node that didn't answer is considered dead
+    public static final long DEAD_TTL = 3000;
+
+    private static class Entry {
+        final INode owner;
+        ChordId from;
+        long expires, lastUsed;
+
+        Entry(INode owner, ChordId from, long now) {
+            this.owner = owner;
+            this.from = from;
+            this.expires = now + TTL;
+            this.lastUsed = now;
+        }
+    }
+
+    // owner id -> keys it owns
+    private final TreeMap<ChordId, Entry> owners;
+    // node id -> until when it's considered dead
+    private final Map<ChordId, Long> dead;
+
+    private final AtomicLong hits, misses;
+
+    OwnerCache() {
+        this.owners = new TreeMap<>();
+        this.dead = new ConcurrentHashMap<>();
+        this.hits = new AtomicLong();
+        this.misses = new AtomicLong();
+    }
+
+    /**
+     * @return owner of key, null if it isn't known
+     */
+    synchronized INode get(ChordId key) {
+        long now = System.currentTimeMillis();
+
+        // the owner of key is the first node at or after it, only that entry can hold it
+        Map.Entry<ChordId, Entry> found = owners.ceilingEntry(key);
+        if (found == null)
+            found = owners.firstEntry();
+
+        if (found != null) {
+            Entry entry = found.getValue();
+            if (entry.expires < now || isDead(found.getKey())) {
+                owners.remove(found.getKey());
+            } else if (distance(key, found.getKey()).compareTo(distance(entry.from, found.getKey())) <= 0) {
+                entry.lastUsed = now;
+                hits.incrementAndGet();
+                return entry.owner;
+            }
+        }
+
+        misses.incrementAndGet();
+        return null;
+    }
+
+    /**
+     * A lookup of key ended at owner
+     */
+    synchronized void put(ChordId key, ChordId ownerId, INode owner) {
+        long now = System.currentTimeMillis();
+
+        Entry entry = owners.get(ownerId);
+        if (entry == null || entry.expires < now || !entry.owner.equals(owner)) {
+            owners.put(ownerId, new Entry(owner, key, now));
+        } else {
+            if (distance(key, ownerId).compareTo(distance(entry.from, ownerId)) > 0)
+                entry.from = key;
+            entry.expires = now + TTL;
+            entry.lastUsed = now;
+        }
+
+        // a node that joined in the range of the next owner took part of it
+        Map.Entry<ChordId, Entry> next = owners.higherEntry(ownerId);
+        if (next == null)
+            next = owners.firstEntry();
+        if (!next.getKey().equals(ownerId) && distance(ownerId, next.getKey()).compareTo(distance(next.getValue().from, next.getKey())) < 0)
+            next.getValue().from = ownerId.plusPowerOfTwo(0);
+
+        if (owners.size() > MAX_ENTRIES)
+            evict();
+    }
+
+    private void evict() {
+        ChordId oldest = null;
+        long oldestUse = Long.MAX_VALUE;
+        for (Map.Entry<ChordId, Entry> entry : owners.entrySet()) {
+            if (entry.getValue().lastUsed < oldestUse) {
+                oldest = entry.getKey();
+                oldestUse = entry.getValue().lastUsed;
+            }
+        }
+        owners.remove(oldest);
+    }
+
+    /**
+     * Forgets every owner, e.g. when the local node's neighbours change
+     */
+    synchronized void clear() {
+        owners.clear();
+    }
+
+    /**
+     * Node id didn't answer, its keys are looked up again and it isn't asked for a while
+     */
+    void markDead(ChordId id) {
+        dead.put(id, System.currentTimeMillis() + DEAD_TTL);
+        synchronized (this) {
+            owners.remove(id);
+        }
+    }
+
+    boolean isDead(ChordId id) {
+        Long until = dead.get(id);
+        if (until == null)
+            return false;
+        if (until < System.currentTimeMillis()) {
+            dead.remove(id, until);
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * @return keys from a up to b, going clockwise
+     */
+    private static ChordId distance(ChordId a, ChordId b) {
+        return b.minus(a);
+    }
+
+    @Override
+    public synchronized String toString() {
+        return String.format("%d owners cached, %d hits, %d misses, %d dead", owners.size(), hits.get(), misses.get(), dead.size());
+    }
+}
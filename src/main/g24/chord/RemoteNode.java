@@ -0,0 +1,210 @@
+package main.g24.chord;
+
+import main.g24.socket.messages.*;
+
+import java.io.IOException;
+import java.io.Serializable;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.rmi.RemoteException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Another node of the ring, reached over the peers' pooled socket connections instead of RMI.
+ * Its id and address are known locally, everything else is a request answered from the other node's tables.
+ * Only usable inside the peer that created it, over RMI it just carries the id and address
+ */
+public class RemoteNode implements INode, Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private final ChordId id;
+    private final InetSocketAddress address;
+    private final transient Node local;
+
+    RemoteNode(Node local, ChordId id, InetSocketAddress address) {
+        this.local = local;
+        this.id = id;
+        this.address = address;
+    }
+
+    /**
+     * Finds out which node listens at an address
+     * @param local node making the request
+     * @param address address of the other node
+     * @return the node there
+     * @throws RemoteException if it doesn't answer
+     */
+    public static INode locate(Node local, InetSocketAddress address) throws RemoteException {
+        RemoteNode unknown = new RemoteNode(local, null, address);
+        INode node = local.resolve(unknown.call(new PingMessage(local.get_id())));
+        if (node == null)
+            throw new RemoteException("No node at " + address);
+        return node;
+    }
+
+    /**
+     * Sends a request and waits for its reply, at most RPC_TIMEOUT
+     */
+    NodeMessage call(ISocketMessage request) throws RemoteException {
+        try {
+            return callAsync(request).get();
+        } catch (InterruptedException | ExecutionException e) {
+            throw new RemoteException("Node " + id + " at " + address + " didn't answer " + request.get_type(), e);
+        }
+    }
+
+    /**
+     * Sends a request without waiting for it
+     * @return future completed with the reply, or exceptionally if none arrives within RPC_TIMEOUT
+     */
+    CompletableFuture<NodeMessage> callAsync(ISocketMessage request) {
+        return callAsync(request, Type.NODE).thenApply(reply -> (NodeMessage) reply);
+    }
+
+    /**
+     * @param expected type of the reply
+     */
+    private CompletableFuture<ISocketMessage> callAsync(ISocketMessage request, Type expected) {
+        if (local == null)
+            return CompletableFuture.failedFuture(new RemoteException("Node " + id + " can only be reached from the peer that found it"));
+
+        local.count_request();
+        long sent = System.nanoTime();
+        return local.connections.request(address, request)
+                .orTimeout(Node.RPC_TIMEOUT, TimeUnit.MILLISECONDS)
+                .thenApply(reply -> {
+                    local.detector.sampleRtt(address, System.nanoTime() - sent);
+                    if (reply.get_type() != expected)
+                        throw new CompletionException(new RemoteException("Unexpected reply " + reply + " from node " + id));
+                    return reply;
+                });
+    }
+
+    /**
+     * One step of an iterative lookup
+     * @return future completed with the node's successor if it owns key, otherwise the closest node to key it knows of
+     */
+    CompletableFuture<NodeMessage> step(ChordId key) {
+        return callAsync(new FindSuccessorMessage(local.get_id(), key));
+    }
+
+    @Override
+    public ChordId get_id() {
+        return id;
+    }
+
+    @Override
+    public InetAddress get_address() {
+        return address.getAddress();
+    }
+
+    @Override
+    public int get_port() {
+        return address.getPort();
+    }
+
+    @Override
+    public InetSocketAddress get_socket_address() {
+        return address;
+    }
+
+    @Override
+    public INode get_predecessor() throws RemoteException {
+        return local.resolve(call(new GetPredecessorMessage(local.get_id(), id)));
+    }
+
+    @Override
+    public INode get_successor() throws RemoteException {
+        return local.resolve(call(new GetSuccessorMessage(local.get_id(), id)));
+    }
+
+    @Override
+    public List<INode> get_successors() throws RemoteException {
+        SuccessorsMessage reply;
+        try {
+            reply = (SuccessorsMessage) callAsync(new GetSuccessorsMessage(local.get_id(), id), Type.SUCCESSORS).get();
+        } catch (InterruptedException | ExecutionException e) {
+            throw new RemoteException("Node " + id + " at " + address + " didn't answer " + Type.GET_SUCCESSORS, e);
+        }
+
+        List<INode> successors = new ArrayList<>(reply.successors.size());
+        for (SuccessorsMessage.Entry successor : reply.successors)
+            successors.add(local.node(successor.id, new InetSocketAddress(successor.ip, successor.port)));
+        return successors;
+    }
+
+    @Override
+    public INode find_successor(ChordId id) throws RemoteException {
+        return local.find_successor_from(this, id);
+    }
+
+    @Override
+    public INode closest_preceding_node(ChordId id) throws RemoteException {
+        return local.resolve(call(new FindSuccessorMessage(local.get_id(), id)));
+    }
+
+    @Override
+    public void notify(INode node) throws RemoteException {
+        local.count_request();
+        local.connections.send(address, new NotifyMessage(node.get_id(), node.get_address().getHostAddress(), node.get_port(), id));
+    }
+
+    @Override
+    public boolean alive() throws RemoteException {
+        call(new PingMessage(local.get_id()));
+        return true;
+    }
+
+    // the ring is only maintained by each node for itself
+
+    @Override
+    public void create() throws RemoteException {
+        throw new RemoteException("create isn't a remote operation");
+    }
+
+    @Override
+    public void join(INode node) throws RemoteException {
+        throw new RemoteException("join isn't a remote operation");
+    }
+
+    @Override
+    public void stabilize() throws RemoteException {
+        throw new RemoteException("stabilize isn't a remote operation");
+    }
+
+    @Override
+    public void fix_fingers() throws RemoteException {
+        throw new RemoteException("fix_fingers isn't a remote operation");
+    }
+
+    @Override
+    public void check_predecessor() throws RemoteException {
+        throw new RemoteException("check_predecessor isn't a remote operation");
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o)
+            return true;
+        if (!(o instanceof RemoteNode))
+            return false;
+        return Objects.equals(id, ((RemoteNode) o).id) && address.equals(((RemoteNode) o).address);
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * Objects.hashCode(id) + address.hashCode();
+    }
+
+    @Override
+    public String toString() {
+        return "Node " + id + " (" + address + ")";
+    }
+}
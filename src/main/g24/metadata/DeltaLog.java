@@ -0,0 +1,60 @@
+package main.g24.metadata;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The latest changes to the metadata of a peer, numbered in order from 1, so the peers backing up its state
+ * can be sent only what they're missing. Only the last CAPACITY are kept, a peer further behind needs a snapshot
+ */
+public class DeltaLog {
+
+    // changes kept (-Dg24.delta_log)
+    public static final int CAPACITY = Math.max(1, Integer.getInteger("g24.delta_log", 10000));
+
+    // encoded records, the one numbered seq at seq % CAPACITY
+    private final byte[][] records;
+    // number of the latest change, 0 if none
+    private long last;
+
+    public DeltaLog() {
+        this.records = new byte[CAPACITY][];
+        this.last = 0;
+    }
+
+    /**
+     * @return number of the change
+     */
+    public synchronized long append(MetadataRecord record) {
+        last++;
+        records[(int) (last % CAPACITY)] = record.toBytes();
+        return last;
+    }
+
+    public synchronized long last() {
+        return last;
+    }
+
+    /**
+     * @param seq number of the last change the other peer has
+     * @param maxBytes most bytes of records to return
+     * @param overhead bytes counted for each record on top of its own
+     * @return encoded records of the changes after seq in order, as many as fit in maxBytes
+     * but at least the first one, whatever its size, null if they aren't all kept anymore
+     */
+    public synchronized List<byte[]> since(long seq, int maxBytes, int overhead) {
+        if (last - seq > CAPACITY)
+            return null;
+
+        List<byte[]> since = new ArrayList<>();
+        int bytes = 0;
+        for (long next = seq + 1; next <= last; next++) {
+            byte[] record = records[(int) (next % CAPACITY)];
+            bytes += overhead + record.length;
+            if (bytes > maxBytes && !since.isEmpty())
+                break;
+            since.add(record);
+        }
+        return since;
+    }
+}
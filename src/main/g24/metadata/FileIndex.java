@@ -0,0 +1,373 @@
+package main.g24.metadata;
+
+import main.g24.FileDetails;
+import main.g24.FileId;
+import main.g24.chord.ChordId;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.util.*;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.Consumer;
+
+/**
+ * Files a peer is the key owner of: their size, desired replication and the peers holding a copy.
+ * Kept in flat columns of primitives instead of a map of objects per file, so a file takes a slot of 72 bytes
+ * in a table at most two thirds full, and looking one up or adding a copy of it allocates nothing.
+ *
+ * An open addressing table, probed linearly from the slot picked by the first word of the file's digest and the table's seed.
+ * A slot takes WORDS longs: <DIGEST:4> <SIZE:1>
+ * and INTS ints: <STATE> <REP_DEGREE> <COPIES> <COPY>...
+ * The peers holding copies are numbered the first time they're seen, a slot has room for INLINE of them,
+ * the rest go in an int array of its own. The columns may live off the heap (-Dg24.index_offheap)
+ */
+public class FileIndex {
+
+    // keep the columns in direct memory, out of the way of the garbage collector (-Dg24.index_offheap)
+    public static final boolean OFF_HEAP = Boolean.getBoolean("g24.index_offheap");
+
+    private static final int WORDS = 5, DIGEST = 0, SIZE = 4;
+    private static final int INTS = 8, STATE = 0, REP_DEGREE = 1, COPIES = 2, COPY = 3, INLINE = INTS - COPY;
+    private static final int EMPTY = 0, FULL = 1, REMOVED = 2;
+
+    private static final int MIN_CAPACITY = 64;
+    // slots copied at a time by forEach
+    private static final int BATCH = 1024;
+
+    private final boolean offHeap;
+    // picks the slots, so they don't follow the order of any other table
+    private final long seed;
+
+    private LongBuffer words;
+    private IntBuffer ints;
+    // copies past the INLINE first, by slot
+    private int[][] overflow;
+    private int capacity, shift;
+    private int size, removed;
+    // times the table was rebuilt, the files moved slots
+    private int rehashes;
+
+    private final List<ChordId> holders;
+    private final Map<ChordId, Integer> holderNumbers;
+
+    public FileIndex() {
+        this(OFF_HEAP);
+    }
+
+    public FileIndex(boolean offHeap) {
+        this.offHeap = offHeap;
+        this.seed = ThreadLocalRandom.current().nextLong();
+        this.holders = new ArrayList<>();
+        this.holderNumbers = new HashMap<>();
+        allocate(MIN_CAPACITY);
+    }
+
+    private void allocate(int capacity) {
+        this.capacity = capacity;
+        this.shift = 64 - Integer.numberOfTrailingZeros(capacity);
+        if (offHeap) {
+            this.words = ByteBuffer.allocateDirect(capacity * WORDS * Long.BYTES).order(ByteOrder.nativeOrder()).asLongBuffer();
+            this.ints = ByteBuffer.allocateDirect(capacity * INTS * Integer.BYTES).order(ByteOrder.nativeOrder()).asIntBuffer();
+        } else {
+            this.words = LongBuffer.wrap(new long[capacity * WORDS]);
+            this.ints = IntBuffer.wrap(new int[capacity * INTS]);
+        }
+        this.overflow = new int[capacity][];
+    }
+
+    public synchronized int size() {
+        return size;
+    }
+
+    public synchronized boolean isEmpty() {
+        return size == 0;
+    }
+
+    public synchronized boolean contains(FileId hash) {
+        return find(hash) >= 0;
+    }
+
+    /**
+     * @return details of the file, a copy that doesn't follow later changes, null if it isn't in the index
+     */
+    public synchronized FileDetails get(FileId hash) {
+        int slot = find(hash);
+        return slot < 0 ? null : details(slot, hash);
+    }
+
+    /**
+     * @return one of the peers holding a copy of the file, null if it isn't in the index or has no copies
+     */
+    public synchronized ChordId anyCopy(FileId hash) {
+        int slot = find(hash);
+        if (slot < 0 || copies(slot) == 0)
+            return null;
+        return holders.get(copyAt(slot, 0));
+    }
+
+    /**
+     * Adds a file, or replaces the one with the same hash
+     */
+    public void put(FileDetails fd) {
+        put(fd.getHash(), fd.getSize(), fd.getDesiredReplication(), fd.getFileCopies());
+    }
+
+    /**
+     * Same as put(FileDetails), without the details having to be made first
+     * @param copies peers holding a copy, in the order they were added
+     */
+    public synchronized void put(FileId hash, long fileSize, int repDegree, Collection<ChordId> copies) {
+        int slot = find(hash);
+        if (slot < 0) {
+            // at most two thirds full, so a probe always ends
+            if ((size + removed + 1) * 3 > capacity * 2)
+                rehash();
+            slot = freeSlot(hash.word(0));
+            if (ints.get(slot * INTS + STATE) == REMOVED)
+                removed--;
+            size++;
+            for (int i = 0; i < 4; i++)
+                words.put(slot * WORDS + DIGEST + i, hash.word(i));
+            ints.put(slot * INTS + STATE, FULL);
+        }
+
+        words.put(slot * WORDS + SIZE, fileSize);
+        ints.put(slot * INTS + REP_DEGREE, repDegree);
+        ints.put(slot * INTS + COPIES, 0);
+        overflow[slot] = null;
+        for (ChordId copy : copies) {
+            Integer known = holderNumbers.get(copy);
+            if (known == null || indexOfCopy(slot, known) < 0)
+                addCopyAt(slot, known != null ? known : number(copy));
+        }
+    }
+
+    /**
+     * @return details of the file removed, null if it wasn't in the index
+     */
+    public synchronized FileDetails remove(FileId hash) {
+        int slot = find(hash);
+        if (slot < 0)
+            return null;
+
+        FileDetails removed = details(slot, hash);
+        ints.put(slot * INTS + STATE, REMOVED);
+        overflow[slot] = null;
+        this.size--;
+        this.removed++;
+        return removed;
+    }
+
+    /**
+     * @return whether the copy was added, false if the file isn't in the index or the peer already had one
+     */
+    public synchronized boolean addCopy(FileId hash, ChordId holder) {
+        int slot = find(hash);
+        if (slot < 0)
+            return false;
+
+        Integer known = holderNumbers.get(holder);
+        if (known != null && indexOfCopy(slot, known) >= 0)
+            return false;
+        addCopyAt(slot, known != null ? known : number(holder));
+        return true;
+    }
+
+    /**
+     * @return whether the file is in the index, even if the peer had no copy of it
+     */
+    public synchronized boolean removeCopy(FileId hash, ChordId holder) {
+        int slot = find(hash);
+        if (slot < 0)
+            return false;
+
+        Integer known = holderNumbers.get(holder);
+        int i = known == null ? -1 : indexOfCopy(slot, known);
+        if (i < 0)
+            return true;
+
+        // the ones after it move down, they stay in the order they were added
+        int n = copies(slot);
+        for (; i < n - 1; i++)
+            setCopyAt(slot, i, copyAt(slot, i + 1));
+        ints.put(slot * INTS + COPIES, n - 1);
+        return true;
+    }
+
+    /**
+     * Hands every file to action, a few slots at a time, so changes aren't held up meanwhile.
+     * A file added or removed meanwhile may or may not be seen, one in the index all along may be seen twice
+     * if the table is rebuilt meanwhile
+     */
+    public void forEach(Consumer<FileDetails> action) {
+        List<FileDetails> files = new ArrayList<>(BATCH);
+        int next = 0, seenRehashes;
+        synchronized (this) {
+            seenRehashes = rehashes;
+        }
+
+        while (true) {
+            synchronized (this) {
+                if (rehashes != seenRehashes) {
+                    // the files moved, start over
+                    seenRehashes = rehashes;
+                    next = 0;
+                }
+                if (next >= capacity)
+                    return;
+
+                int end = Math.min(capacity, next + BATCH);
+                for (int slot = next; slot < end; slot++) {
+                    if (ints.get(slot * INTS + STATE) != FULL)
+                        continue;
+                    files.add(details(slot, id(slot)));
+                }
+                next = end;
+            }
+
+            for (FileDetails fd : files)
+                action.accept(fd);
+            files.clear();
+        }
+    }
+
+    /**
+     * @return slot of the file, -1 if it isn't in the index
+     */
+    private int find(FileId hash) {
+        for (int slot = home(hash.word(0)); ; slot = (slot + 1) & (capacity - 1)) {
+            int state = ints.get(slot * INTS + STATE);
+            if (state == EMPTY)
+                return -1;
+            if (state == FULL && matches(slot, hash))
+                return slot;
+        }
+    }
+
+    /**
+     * @return first slot from the home of first that doesn't hold a file
+     */
+    private int freeSlot(long first) {
+        int slot = home(first);
+        while (ints.get(slot * INTS + STATE) == FULL)
+            slot = (slot + 1) & (capacity - 1);
+        return slot;
+    }
+
+    private int home(long first) {
+        // mixed with the table's own seed, files coming in the slot order of another table (another peer's state)
+        // would otherwise land next to each other and pile up
+        long h = first ^ seed;
+        h = (h ^ (h >>> 33)) * 0xff51afd7ed558ccdL;
+        h = (h ^ (h >>> 33)) * 0xc4ceb9fe1a85ec53L;
+        return (int) ((h ^ (h >>> 33)) >>> shift);
+    }
+
+    private boolean matches(int slot, FileId hash) {
+        int base = slot * WORDS + DIGEST;
+        for (int i = 0; i < 4; i++) {
+            if (words.get(base + i) != hash.word(i))
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * Moves the files to a table with at most half of its slots taken, which also drops the removed ones
+     */
+    private void rehash() {
+        LongBuffer oldWords = this.words;
+        IntBuffer oldInts = this.ints;
+        int[][] oldOverflow = this.overflow;
+        int oldCapacity = this.capacity;
+
+        int capacity = MIN_CAPACITY;
+        while (capacity < (size + 1) * 2)
+            capacity *= 2;
+        allocate(capacity);
+
+        for (int old = 0; old < oldCapacity; old++) {
+            if (oldInts.get(old * INTS + STATE) != FULL)
+                continue;
+            int slot = freeSlot(oldWords.get(old * WORDS + DIGEST));
+            for (int i = 0; i < WORDS; i++)
+                words.put(slot * WORDS + i, oldWords.get(old * WORDS + i));
+            for (int i = 0; i < INTS; i++)
+                ints.put(slot * INTS + i, oldInts.get(old * INTS + i));
+            overflow[slot] = oldOverflow[old];
+        }
+        this.removed = 0;
+        this.rehashes++;
+    }
+
+    /**
+     * @return number of the peer, given one if it's the first time it's seen
+     */
+    private int number(ChordId holder) {
+        Integer known = holderNumbers.get(holder);
+        if (known != null)
+            return known;
+        holders.add(holder);
+        holderNumbers.put(holder, holders.size() - 1);
+        return holders.size() - 1;
+    }
+
+    private int copies(int slot) {
+        return ints.get(slot * INTS + COPIES);
+    }
+
+    private int copyAt(int slot, int i) {
+        return i < INLINE ? ints.get(slot * INTS + COPY + i) : overflow[slot][i - INLINE];
+    }
+
+    private void setCopyAt(int slot, int i, int holder) {
+        if (i < INLINE)
+            ints.put(slot * INTS + COPY + i, holder);
+        else
+            overflow[slot][i - INLINE] = holder;
+    }
+
+    private int indexOfCopy(int slot, int holder) {
+        int n = copies(slot);
+        for (int i = 0; i < n; i++) {
+            if (copyAt(slot, i) == holder)
+                return i;
+        }
+        return -1;
+    }
+
+    private void addCopyAt(int slot, int holder) {
+        int n = copies(slot);
+        if (n >= INLINE) {
+            int[] more = overflow[slot];
+            if (more == null)
+                overflow[slot] = new int[INLINE];
+            else if (more.length == n - INLINE)
+                overflow[slot] = Arrays.copyOf(more, more.length * 2);
+        }
+        setCopyAt(slot, n, holder);
+        ints.put(slot * INTS + COPIES, n + 1);
+    }
+
+    private FileDetails details(int slot, FileId hash) {
+        FileDetails fd = new FileDetails(hash, words.get(slot * WORDS + SIZE), ints.get(slot * INTS + REP_DEGREE));
+        int n = copies(slot);
+        for (int i = 0; i < n; i++)
+            fd.addCopy(holders.get(copyAt(slot, i)));
+        return fd;
+    }
+
+    private FileId id(int slot) {
+        int base = slot * WORDS + DIGEST;
+        return FileId.of(words.get(base), words.get(base + 1), words.get(base + 2), words.get(base + 3));
+    }
+
+    @Override
+    public synchronized String toString() {
+        long bytes = (long) capacity * (WORDS * Long.BYTES + INTS * Integer.BYTES);
+        return String.format("%d files in %d slots (%d KB %s), %d copy holders",
+                size, capacity, bytes / 1000, offHeap ? "off heap" : "on heap", holders.size());
+    }
+}
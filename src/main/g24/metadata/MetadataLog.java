@@ -0,0 +1,332 @@
+package main.g24.metadata;
+
+import main.g24.FileId;
+import main.g24.chord.ChordId;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.zip.CRC32C;
+
+/**
+ * Keeps the metadata of a peer on disk, so a restarted peer carries on where it stopped.
+ *
+ * Every change is appended to the current log file as a record:
+ * <LENGTH:4> <CRC32C:4> <RECORD:LENGTH>
+ * Appending only fills a buffer, a single thread writes out everything appended since its last write and
+ * syncs the file once for all of it (group commit), then completes the futures append() handed out for it.
+ * Every SNAPSHOT_EVERY records the whole state is written to a snapshot and the log starts over in a new file,
+ * the older ones are deleted.
+ * The snapshot is taken while changes keep coming, it may already have some of the changes of the newer log,
+ * applying them again does no harm (see MetadataRecord).
+ *
+ * Files: <DIR>/snapshot and <DIR>/log.<GENERATION>, all starting with <MAGIC:4> <BITS:4> <GENERATION:8>.
+ * The snapshot holds the state as of the start of the log of its generation
+ */
+public class MetadataLog {
+
+    // records appended between snapshots (-Dg24.snapshot_records)
+    public static final int SNAPSHOT_EVERY = Math.max(1, Integer.getInteger("g24.snapshot_records", 10000));
+
+    // changes with the format of the records
+    private static final int MAGIC = 0x67323447;
+    private static final String SNAPSHOT = "snapshot", LOG = "log.";
+
+    /**
+     * The metadata being kept, read when taking a snapshot
+     */
+    public interface State {
+        FileIndex getFileIndex();
+
+        /**
+         * @return sizes of the files stored, by hash
+         */
+        Map<FileId, Long> getStoredSizes();
+    }
+
+    private final Path dir;
+    private final State state;
+
+    private final Object lock;
+    // records not yet written, swapped with the writer's buffer on every write
+    private ByteArrayOutputStream pending;
+    private int pendingRecords;
+    // completed once the records in pending are synced
+    private List<CompletableFuture<Void>> pendingCommits;
+    private long generation;
+    private FileChannel log;
+    private int sinceSnapshot;
+    private long appended, syncs;
+
+    public MetadataLog(Path dir, State state) {
+        this.dir = dir;
+        this.state = state;
+        this.lock = new Object();
+        this.pending = new ByteArrayOutputStream();
+        this.pendingCommits = new ArrayList<>();
+    }
+
+    /**
+     * Reads back the snapshot and the logs after it into index and stored
+     * @return number of records replayed, on top of the snapshot
+     */
+    public int recover(FileIndex index, Map<FileId, Long> stored) throws IOException {
+        Files.createDirectories(dir);
+
+        long first = 0;
+        Path snapshot = dir.resolve(SNAPSHOT);
+        if (Files.exists(snapshot)) {
+            try (DataInputStream in = open(snapshot)) {
+                first = in.readLong();
+                readRecords(in, snapshot, index, stored);
+            }
+        }
+
+        int replayed = 0;
+        for (long gen : generations()) {
+            if (gen < first)
+                continue;
+            Path path = dir.resolve(LOG + gen);
+            try (DataInputStream in = open(path)) {
+                in.readLong();
+                replayed += readRecords(in, path, index, stored);
+            }
+        }
+        return replayed;
+    }
+
+    /**
+     * Starts logging, after a snapshot of the state recovered
+     */
+    public void start() throws IOException {
+        List<Long> generations = generations();
+        synchronized (lock) {
+            this.generation = generations.isEmpty() ? 0 : generations.get(generations.size() - 1);
+        }
+        snapshot();
+
+        Thread writer = new Thread(this::write, "metadata-log");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    /**
+     * Appends a record to the log, without waiting for it to be written. Dropped until the log starts
+     * @return completed once the record (and so every one appended before it) is synced to disk,
+     * exceptionally if it couldn't be written, right away if it was dropped
+     */
+    public CompletableFuture<Void> append(MetadataRecord record) {
+        byte[] bytes = record.toBytes();
+        CRC32C crc = new CRC32C();
+        crc.update(bytes);
+
+        synchronized (lock) {
+            // not logging, it couldn't start
+            if (log == null)
+                return CompletableFuture.completedFuture(null);
+            DataOutputStream out = new DataOutputStream(pending);
+            try {
+                out.writeInt(bytes.length);
+                out.writeInt((int) crc.getValue());
+                out.write(bytes);
+            } catch (IOException e) {
+                // not from memory
+                throw new UncheckedIOException(e);
+            }
+            appended++;
+            pendingRecords++;
+            lock.notify();
+
+            CompletableFuture<Void> commit = new CompletableFuture<>();
+            pendingCommits.add(commit);
+            return commit;
+        }
+    }
+
+    /**
+     * Writer thread, writes and syncs whatever was appended, then takes a snapshot if it's time
+     */
+    private void write() {
+        ByteArrayOutputStream spare = new ByteArrayOutputStream();
+        while (true) {
+            ByteArrayOutputStream batch;
+            List<CompletableFuture<Void>> commits;
+            FileChannel log;
+            boolean snapshot;
+            synchronized (lock) {
+                while (pending.size() == 0) {
+                    try {
+                        lock.wait();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+                batch = pending;
+                pending = spare;
+                commits = pendingCommits;
+                pendingCommits = new ArrayList<>();
+                log = this.log;
+                sinceSnapshot += pendingRecords;
+                pendingRecords = 0;
+                snapshot = sinceSnapshot >= SNAPSHOT_EVERY;
+            }
+
+            try {
+                ByteBuffer buffer = ByteBuffer.wrap(batch.toByteArray());
+                while (buffer.hasRemaining())
+                    log.write(buffer);
+                log.force(false);
+                synchronized (lock) {
+                    syncs++;
+                }
+                commits.forEach(commit -> commit.complete(null));
+                if (snapshot)
+                    snapshot();
+            } catch (IOException e) {
+                System.err.println("[X] Couldn't write the metadata log: " + e.getMessage());
+                // no-op for the ones already synced, if it was the snapshot that failed
+                commits.forEach(commit -> commit.completeExceptionally(e));
+            }
+
+            batch.reset();
+            spare = batch;
+        }
+    }
+
+    /**
+     * Starts the next log file and writes the state to a snapshot of its generation, then drops the older logs.
+     * Only called by the writer thread, or before it starts
+     */
+    private void snapshot() throws IOException {
+        long generation;
+        FileChannel old;
+        synchronized (lock) {
+            // records appended from now on go to the new log
+            generation = this.generation + 1;
+            old = this.log;
+            this.log = FileChannel.open(dir.resolve(LOG + generation),
+                    StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+            ByteBuffer header = ByteBuffer.allocate(16);
+            header.putInt(MAGIC).putInt(ChordId.BITS).putLong(generation).flip();
+            while (header.hasRemaining())
+                this.log.write(header);
+            this.generation = generation;
+            this.sinceSnapshot = 0;
+        }
+        if (old != null)
+            old.close();
+
+        Path tmp = dir.resolve(SNAPSHOT + ".tmp");
+        try (FileOutputStream file = new FileOutputStream(tmp.toFile());
+             DataOutputStream out = new DataOutputStream(new BufferedOutputStream(file))) {
+            out.writeInt(MAGIC);
+            out.writeInt(ChordId.BITS);
+            out.writeLong(generation);
+
+            CRC32C crc = new CRC32C();
+            try {
+                // straight from the index, the files aren't all copied out at once
+                state.getFileIndex().forEach(fd -> writeRecord(out, crc, MetadataRecord.putFile(fd)));
+            } catch (UncheckedIOException e) {
+                throw e.getCause();
+            }
+            for (Map.Entry<FileId, Long> entry : state.getStoredSizes().entrySet())
+                writeRecord(out, crc, MetadataRecord.store(entry.getKey(), entry.getValue()));
+            out.flush();
+            file.getFD().sync();
+        }
+        Files.move(tmp, dir.resolve(SNAPSHOT), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+        for (long gen : generations()) {
+            if (gen < generation)
+                Files.deleteIfExists(dir.resolve(LOG + gen));
+        }
+    }
+
+    /**
+     * Writes a record of a snapshot
+     * @throws UncheckedIOException if it can't be written
+     */
+    private static void writeRecord(DataOutputStream out, CRC32C crc, MetadataRecord record) {
+        byte[] bytes = record.toBytes();
+        crc.reset();
+        crc.update(bytes);
+        try {
+            out.writeInt(bytes.length);
+            out.writeInt((int) crc.getValue());
+            out.write(bytes);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * @return generations of the log files there are, in order
+     */
+    private List<Long> generations() throws IOException {
+        List<Long> generations = new ArrayList<>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(dir, LOG + "*")) {
+            for (Path file : files) {
+                try {
+                    generations.add(Long.parseLong(file.getFileName().toString().substring(LOG.length())));
+                } catch (NumberFormatException e) {
+                    // not a log
+                }
+            }
+        }
+        Collections.sort(generations);
+        return generations;
+    }
+
+    private static DataInputStream open(Path path) throws IOException {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(path)));
+        if (in.readInt() != MAGIC || in.readInt() != ChordId.BITS) {
+            in.close();
+            throw new IOException(path + " isn't metadata of this version for a ring with " + ChordId.BITS + " bit ids");
+        }
+        return in;
+    }
+
+    /**
+     * Applies the records of a file up to its end, or to the first one cut short or corrupted by a crash
+     * @return number of records applied
+     */
+    private static int readRecords(DataInputStream in, Path path, FileIndex index, Map<FileId, Long> stored) throws IOException {
+        int n = 0;
+        CRC32C crc = new CRC32C();
+        while (true) {
+            byte[] bytes;
+            int checksum;
+            try {
+                int length = in.readInt();
+                checksum = in.readInt();
+                if (length < 0 || length > 1 << 24)
+                    throw new EOFException();
+                bytes = new byte[length];
+                in.readFully(bytes);
+            } catch (EOFException e) {
+                return n;
+            }
+
+            crc.reset();
+            crc.update(bytes);
+            if ((int) crc.getValue() != checksum) {
+                System.err.println("[!] Metadata in " + path + " corrupted after " + n + " records, the rest is ignored");
+                return n;
+            }
+            MetadataRecord.read(new DataInputStream(new ByteArrayInputStream(bytes))).apply(index, stored);
+            n++;
+        }
+    }
+
+    @Override
+    public String toString() {
+        synchronized (lock) {
+            return String.format("generation %d, %d records appended, %d syncs, %d records since the snapshot",
+                    generation, appended, syncs, sinceSnapshot);
+        }
+    }
+}
@@ -0,0 +1,188 @@
+package main.g24.metadata;
+
+import main.g24.FileDetails;
+import main.g24.FileId;
+import main.g24.chord.ChordId;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * One change to the metadata of a peer: the files it's the key owner of, where their copies are and the files it stores.
+ * Applying a record twice, or over a state that already has part of its effect, gives the same result
+ */
+public class MetadataRecord {
+
+    public static final byte PUT_FILE = 1, REMOVE_FILE = 2, ADD_COPY = 3, REMOVE_COPY = 4, STORE = 5, UNSTORE = 6;
+
+    public final byte type;
+    public final FileId hash;
+    // size of the file, for PUT_FILE and STORE
+    public final long size;
+    // for PUT_FILE
+    public final int repDegree;
+    // every copy for PUT_FILE, the one added or removed for ADD_COPY and REMOVE_COPY
+    public final List<ChordId> copies;
+
+    private MetadataRecord(byte type, FileId hash, long size, int repDegree, List<ChordId> copies) {
+        this.type = type;
+        this.hash = hash;
+        this.size = size;
+        this.repDegree = repDegree;
+        this.copies = copies;
+    }
+
+    public static MetadataRecord putFile(FileDetails fd) {
+        return new MetadataRecord(PUT_FILE, fd.getHash(), fd.getSize(), fd.getDesiredReplication(), List.copyOf(fd.getFileCopies()));
+    }
+
+    public static MetadataRecord removeFile(FileId hash) {
+        return new MetadataRecord(REMOVE_FILE, hash, 0, 0, List.of());
+    }
+
+    public static MetadataRecord addCopy(FileId hash, ChordId copy) {
+        return new MetadataRecord(ADD_COPY, hash, 0, 0, List.of(copy));
+    }
+
+    public static MetadataRecord removeCopy(FileId hash, ChordId copy) {
+        return new MetadataRecord(REMOVE_COPY, hash, 0, 0, List.of(copy));
+    }
+
+    public static MetadataRecord store(FileId hash, long size) {
+        return new MetadataRecord(STORE, hash, size, 0, List.of());
+    }
+
+    public static MetadataRecord unstore(FileId hash) {
+        return new MetadataRecord(UNSTORE, hash, 0, 0, List.of());
+    }
+
+    /**
+     * <TYPE:1> <HASH:32> [<SIZE:8>] [<REP_DEGREE:4> <N:4>] [<COPY:ChordId.BYTES> ...]
+     */
+    public void write(DataOutput out) throws IOException {
+        out.writeByte(type);
+        hash.write(out);
+        switch (type) {
+            case PUT_FILE:
+                out.writeLong(size);
+                out.writeInt(repDegree);
+                out.writeInt(copies.size());
+                for (ChordId copy : copies)
+                    writeId(out, copy);
+                break;
+            case ADD_COPY:
+            case REMOVE_COPY:
+                writeId(out, copies.get(0));
+                break;
+            case STORE:
+                out.writeLong(size);
+                break;
+        }
+    }
+
+    public byte[] toBytes() {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(64);
+        try {
+            write(new DataOutputStream(bytes));
+        } catch (IOException e) {
+            // not from memory
+            throw new UncheckedIOException(e);
+        }
+        return bytes.toByteArray();
+    }
+
+    public static MetadataRecord fromBytes(byte[] bytes) throws IOException {
+        return read(new DataInputStream(new ByteArrayInputStream(bytes)));
+    }
+
+    public static MetadataRecord read(DataInput in) throws IOException {
+        byte type = in.readByte();
+        FileId hash = FileId.read(in);
+        switch (type) {
+            case PUT_FILE:
+                long size = in.readLong();
+                int repDegree = in.readInt();
+                int n = in.readInt();
+                List<ChordId> copies = new ArrayList<>(n);
+                for (int i = 0; i < n; i++)
+                    copies.add(readId(in));
+                return new MetadataRecord(type, hash, size, repDegree, copies);
+            case ADD_COPY:
+            case REMOVE_COPY:
+                return new MetadataRecord(type, hash, 0, 0, List.of(readId(in)));
+            case STORE:
+                return new MetadataRecord(type, hash, in.readLong(), 0, List.of());
+            case REMOVE_FILE:
+            case UNSTORE:
+                return new MetadataRecord(type, hash, 0, 0, List.of());
+            default:
+                throw new IOException("Unknown metadata record " + type);
+        }
+    }
+
+    private static void writeId(DataOutput out, ChordId id) throws IOException {
+        ByteBuffer bytes = ByteBuffer.allocate(ChordId.BYTES);
+        id.write(bytes);
+        out.write(bytes.array());
+    }
+
+    private static ChordId readId(DataInput in) throws IOException {
+        byte[] bytes = new byte[ChordId.BYTES];
+        in.readFully(bytes);
+        return ChordId.fromBytes(bytes, 0);
+    }
+
+    /**
+     * @param index files kept track of as key owner
+     * @param stored sizes of the files stored, by hash
+     */
+    public void apply(FileIndex index, Map<FileId, Long> stored) {
+        if (type == STORE)
+            stored.put(hash, size);
+        else if (type == UNSTORE)
+            stored.remove(hash);
+        else
+            applyToIndex(index);
+    }
+
+    /**
+     * Same as the other, for the state of another peer (see PeerInfo)
+     */
+    public void apply(FileIndex index, Set<FileId> stored) {
+        if (type == STORE)
+            stored.add(hash);
+        else if (type == UNSTORE)
+            stored.remove(hash);
+        else
+            applyToIndex(index);
+    }
+
+    private void applyToIndex(FileIndex index) {
+        switch (type) {
+            case PUT_FILE:
+                FileDetails fd = new FileDetails(hash, size, repDegree);
+                for (ChordId copy : copies)
+                    fd.addCopy(copy);
+                index.put(fd);
+                break;
+            case REMOVE_FILE:
+                index.remove(hash);
+                break;
+            case ADD_COPY:
+                index.addCopy(hash, copies.get(0));
+                break;
+            case REMOVE_COPY:
+                index.removeCopy(hash, copies.get(0));
+                break;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return type + " [" + hash.toShortString() + "]" + (copies.isEmpty() ? "" : " " + copies);
+    }
+}
@@ -0,0 +1,86 @@
+package main.g24.monitors;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Counts latencies in buckets that double in width, from under 0.125 ms up to 8 s and over.
+ * Recording is lock free, so it can be done on the socket threads
+ */
+public class LatencyHistogram {
+
+    // upper bound of the first bucket, in ns
+    private static final long FIRST_BOUND = 125_000;
+    private static final int BUCKETS = 18;
+
+    private final AtomicLongArray counts;
+
+    public LatencyHistogram() {
+        this.counts = new AtomicLongArray(BUCKETS);
+    }
+
+    public void record(long nanos) {
+        int bucket = 0;
+        for (long bound = FIRST_BOUND; nanos >= bound && bucket < BUCKETS - 1; bound *= 2)
+            bucket++;
+        counts.incrementAndGet(bucket);
+    }
+
+    public long count() {
+        long total = 0;
+        for (int i = 0; i < BUCKETS; i++)
+            total += counts.get(i);
+        return total;
+    }
+
+    /**
+     * @return number of latencies in each bucket
+     */
+    public long[] counts() {
+        long[] copy = new long[BUCKETS];
+        for (int i = 0; i < BUCKETS; i++)
+            copy[i] = counts.get(i);
+        return copy;
+    }
+
+    /**
+     * @return upper bound of bucket i in ms, infinite for the last one
+     */
+    public static double bound(int i) {
+        return i == BUCKETS - 1 ? Double.POSITIVE_INFINITY : (FIRST_BOUND << i) / 1e6;
+    }
+
+    /**
+     * @param q quantile, between 0 and 1
+     * @return upper bound in ms of the bucket the quantile falls in, 0 if nothing was recorded
+     */
+    public double quantile(double q) {
+        long[] counts = counts();
+        long total = 0;
+        for (long count : counts)
+            total += count;
+        if (total == 0)
+            return 0;
+
+        long rank = (long) Math.ceil(q * total), seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += counts[i];
+            if (seen >= rank && counts[i] > 0)
+                return bound(i);
+        }
+        return bound(BUCKETS - 1);
+    }
+
+    @Override
+    public String toString() {
+        long[] counts = counts();
+        StringBuilder ret = new StringBuilder();
+        for (int i = 0; i < BUCKETS; i++) {
+            if (counts[i] == 0)
+                continue;
+            ret.append(i == BUCKETS - 1 ? ">=" + bound(i - 1) : "<" + bound(i)).append("ms:").append(counts[i]).append(" ");
+        }
+        if (ret.length() == 0)
+            return "none";
+        return ret.append(String.format("(p50 < %sms, p99 < %sms)", quantile(0.5), quantile(0.99))).toString();
+    }
+}
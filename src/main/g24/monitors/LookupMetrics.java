@@ -0,0 +1,126 @@
+package main.g24.monitors;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Counters and histograms of the lookups of a peer, shared by all its nodes.
+ * Everything is recorded lock free, on whichever thread a lookup finishes
+ */
+public class LookupMetrics {
+
+    // hop counts kept exactly, longer lookups share the last bucket
+    private static final int HOP_BUCKETS = 33;
+
+    private final LatencyHistogram latency, hopLatency;
+    private final AtomicLongArray hops;
+    private final AtomicLong lookups, failures, coalesced, hopTimeouts;
+
+    public LookupMetrics() {
+        this.latency = new LatencyHistogram();
+        this.hopLatency = new LatencyHistogram();
+        this.hops = new AtomicLongArray(HOP_BUCKETS);
+        this.lookups = new AtomicLong();
+        this.failures = new AtomicLong();
+        this.coalesced = new AtomicLong();
+        this.hopTimeouts = new AtomicLong();
+    }
+
+    /**
+     * A lookup finished
+     * @param hops nodes asked
+     * @param nanos time from start to end
+     * @param failed whether no successor was found
+     */
+    public void lookup(int hops, long nanos, boolean failed) {
+        lookups.incrementAndGet();
+        if (failed)
+            failures.incrementAndGet();
+        this.hops.incrementAndGet(Math.min(hops, HOP_BUCKETS - 1));
+        latency.record(nanos);
+    }
+
+    /**
+     * A node answered one hop of a lookup after nanos
+     */
+    public void hop(long nanos) {
+        hopLatency.record(nanos);
+    }
+
+    public void hopTimedOut() {
+        hopTimeouts.incrementAndGet();
+    }
+
+    /**
+     * A lookup joined one of the same key in flight
+     */
+    public void coalesced() {
+        coalesced.incrementAndGet();
+    }
+
+    public long getLookups() {
+        return lookups.get();
+    }
+
+    public long getFailures() {
+        return failures.get();
+    }
+
+    /**
+     * @return hop count quantile q, i.e. at most how many hops a fraction q of the lookups took
+     */
+    public int hopQuantile(double q) {
+        long[] counts = new long[HOP_BUCKETS];
+        long total = 0;
+        for (int i = 0; i < HOP_BUCKETS; i++) {
+            counts[i] = hops.get(i);
+            total += counts[i];
+        }
+        if (total == 0)
+            return 0;
+
+        long rank = (long) Math.ceil(q * total), seen = 0;
+        for (int i = 0; i < HOP_BUCKETS; i++) {
+            seen += counts[i];
+            if (seen >= rank)
+                return i;
+        }
+        return HOP_BUCKETS - 1;
+    }
+
+    /**
+     * @return one line summary
+     */
+    public String summary() {
+        return String.format("%d lookups, %d failed, %d coalesced, %d hops timed out, hops p50 %d p99 %d, latency p50 < %sms p99 < %sms",
+                lookups.get(), failures.get(), coalesced.get(), hopTimeouts.get(),
+                hopQuantile(0.5), hopQuantile(0.99), latency.quantile(0.5), latency.quantile(0.99));
+    }
+
+    /**
+     * @return every counter and histogram, a line each
+     */
+    @Override
+    public String toString() {
+        StringBuilder ret = new StringBuilder();
+        ret.append("lookups: ").append(lookups.get()).append("\n");
+        ret.append("lookup failures: ").append(failures.get()).append("\n");
+        ret.append("lookups coalesced: ").append(coalesced.get()).append("\n");
+        ret.append("hops timed out: ").append(hopTimeouts.get()).append("\n");
+
+        ret.append("lookup hops: ");
+        boolean any = false;
+        for (int i = 0; i < HOP_BUCKETS; i++) {
+            long count = hops.get(i);
+            if (count == 0)
+                continue;
+            ret.append(i == HOP_BUCKETS - 1 ? ">=" : "").append(i).append(":").append(count).append(" ");
+            any = true;
+        }
+        ret.append(any ? "" : "none").append("\n");
+
+        ret.append("lookup latency: ").append(latency).append("\n");
+        ret.append("hop latency: ").append(hopLatency).append("\n");
+        return ret.toString();
+    }
+}
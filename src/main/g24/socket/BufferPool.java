@@ -0,0 +1,146 @@
+package main.g24.socket;
+
+import main.g24.Peer;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Peer-wide pool of direct buffers, split in size classes.
+ * Socket managers lease their buffers on init() and give them back on close or transition.
+ * Each class is capped, once the cap is reached lease() blocks for a while and then gives up,
+ * so a burst of connections slows down instead of exhausting memory.
+ * Selector threads never wait, they shed the connection right away instead of stalling every other transfer.
+ */
+public class BufferPool {
+
+    public static final int HEADER_SIZE = 1024, SMALL_SIZE = 1024 * 8;
+    private static final int[] SIZE_CLASSES = { HEADER_SIZE, SMALL_SIZE, Peer.BLOCK_SIZE };
+
+    // total bytes each size class may have leased at once (-Dg24.buffer_pool_cap)
+    private static final long CLASS_CAP = Long.getLong("g24.buffer_pool_cap", 1024 * 1024 * 32);
+    private static final long LEASE_TIMEOUT = 2000;
+
+    private static final BufferPool shared = new BufferPool(CLASS_CAP);
+    private static final ThreadLocal<Boolean> reactorThread = ThreadLocal.withInitial(() -> false);
+
+    private final List<Queue<ByteBuffer>> free;
+    private final Semaphore[] permits;
+
+    private final AtomicLong hits, misses, outstanding;
+
+    public BufferPool(long classCap) {
+        this.free = new ArrayList<>(SIZE_CLASSES.length);
+        this.permits = new Semaphore[SIZE_CLASSES.length];
+
+        for (int i = 0; i < SIZE_CLASSES.length; i++) {
+            this.free.add(new ConcurrentLinkedQueue<>());
+            this.permits[i] = new Semaphore((int) Math.max(1, classCap / SIZE_CLASSES[i]));
+        }
+
+        this.hits = new AtomicLong();
+        this.misses = new AtomicLong();
+        this.outstanding = new AtomicLong();
+    }
+
+    public static BufferPool get() {
+        return shared;
+    }
+
+    /**
+     * Flags the calling thread as a selector thread, leases made from it don't wait for the pool
+     */
+    public static void markReactorThread() {
+        reactorThread.set(true);
+    }
+
+    /**
+     * Leases a cleared direct buffer with at least size bytes of capacity
+     * @param size minimum capacity
+     * @return leased buffer, must be handed back with release()
+     * @throws IOException if the pool stays exhausted for longer than LEASE_TIMEOUT (or at all, on selector threads)
+     */
+    public ByteBuffer lease(int size) throws IOException {
+        int cls = sizeClass(size);
+
+        // bigger than any class, not pooled
+        if (cls < 0) {
+            misses.incrementAndGet();
+            return ByteBuffer.allocate(size);
+        }
+
+        try {
+            long timeout = reactorThread.get() ? 0 : LEASE_TIMEOUT;
+            if (!permits[cls].tryAcquire(timeout, TimeUnit.MILLISECONDS))
+                throw new IOException("Buffer pool exhausted for class " + SIZE_CLASSES[cls]);
+        } catch (InterruptedException e) {
+            throw new IOException("Interrupted while waiting for a buffer", e);
+        }
+
+        outstanding.incrementAndGet();
+
+        ByteBuffer buffer = free.get(cls).poll();
+        if (buffer == null) {
+            misses.incrementAndGet();
+            return ByteBuffer.allocateDirect(SIZE_CLASSES[cls]);
+        }
+
+        hits.incrementAndGet();
+        buffer.clear();
+        return buffer;
+    }
+
+    /**
+     * Moves what a buffer (in write mode) holds to a newly leased one and releases the old one
+     * @param buffer buffer to replace
+     * @param size minimum capacity of the new buffer
+     * @return the new buffer, in write mode
+     * @throws IOException if no buffer that size can be leased, the old one is kept then
+     */
+    public ByteBuffer resize(ByteBuffer buffer, int size) throws IOException {
+        ByteBuffer resized = lease(size);
+        resized.put(buffer.flip());
+        release(buffer);
+        return resized;
+    }
+
+    public void release(ByteBuffer buffer) {
+        if (buffer == null || !buffer.isDirect())
+            return;
+
+        int cls = sizeClass(buffer.capacity());
+        if (cls < 0 || SIZE_CLASSES[cls] != buffer.capacity())
+            return;
+
+        free.get(cls).offer(buffer);
+        outstanding.decrementAndGet();
+        permits[cls].release();
+    }
+
+    private static int sizeClass(int size) {
+        for (int i = 0; i < SIZE_CLASSES.length; i++) {
+            if (size <= SIZE_CLASSES[i])
+                return i;
+        }
+        return -1;
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    public long getOutstanding() {
+        return outstanding.get();
+    }
+}
@@ -0,0 +1,158 @@
+package main.g24.socket;
+
+import main.g24.socket.managers.PooledConnection;
+import main.g24.socket.messages.ISocketMessage;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.channels.SocketChannel;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.*;
+
+/**
+ * Keeps persistent connections to other peers for control messages,
+ * so each message doesn't pay for a TCP handshake of its own.
+ * Pooled connections run on a dedicated worker, separate from the ones serving incoming connections.
+ */
+public class ConnectionPool {
+
+    // connections kept open per destination (-Dg24.pool_size)
+    public static final int MAX_PER_DESTINATION = Integer.getInteger("g24.pool_size", 2);
+    // unused connections are closed after this long (-Dg24.pool_idle_ms)
+    public static final long IDLE_TIMEOUT = Long.getLong("g24.pool_idle_ms", 30000);
+    // a connect or a reply that takes longer than this marks the connection as unhealthy
+    public static final long HEALTH_TIMEOUT = 5000;
+
+    private final Map<InetSocketAddress, List<PooledConnection>> connections;
+    private final SocketWorker worker;
+    private final ScheduledExecutorService maintenance;
+
+    public ConnectionPool() {
+        this.connections = new ConcurrentHashMap<>();
+        try {
+            this.worker = new SocketWorker();
+        } catch (IOException e) {
+            throw new IllegalStateException("Couldn't open the pool's selector", e);
+        }
+        this.maintenance = Executors.newSingleThreadScheduledExecutor();
+    }
+
+    public void start() {
+        new Thread(worker, "selector-pool").start();
+        maintenance.scheduleWithFixedDelay(this::sweep, IDLE_TIMEOUT / 2, IDLE_TIMEOUT / 2, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Sends a message that expects no reply
+     * @param address destination peer
+     * @param message message to send
+     */
+    public void send(InetSocketAddress address, ISocketMessage message) {
+        dispatch(address, message, null);
+    }
+
+    /**
+     * Sends a message and waits for the other peer's reply on the same connection
+     * @param address destination peer
+     * @param message message to send
+     * @return future completed with the reply, or exceptionally if the connection fails
+     */
+    public CompletableFuture<ISocketMessage> request(InetSocketAddress address, ISocketMessage message) {
+        CompletableFuture<ISocketMessage> reply = new CompletableFuture<>();
+        dispatch(address, message, reply);
+        return reply;
+    }
+
+    private void dispatch(InetSocketAddress address, ISocketMessage message, CompletableFuture<ISocketMessage> reply) {
+        // the chosen connection may close in between, try a fresh one once
+        for (int attempt = 0; attempt < 2; attempt++) {
+            try {
+                if (acquire(address).enqueue(message, reply))
+                    return;
+            } catch (IOException e) {
+                System.err.println("[X] Couldn't connect to " + address + ": " + e.getMessage());
+                if (reply != null)
+                    reply.completeExceptionally(e);
+                return;
+            }
+        }
+
+        if (reply != null)
+            reply.completeExceptionally(new IOException("Connection to " + address + " closed"));
+    }
+
+    /**
+     * Picks the least loaded open connection to address,
+     * opening a new one if all of them are busy and the cap wasn't reached
+     */
+    private PooledConnection acquire(InetSocketAddress address) throws IOException {
+        List<PooledConnection> list = connections.computeIfAbsent(address, k -> new CopyOnWriteArrayList<>());
+
+        synchronized (list) {
+            PooledConnection best = null;
+            int bestLoad = Integer.MAX_VALUE;
+            for (PooledConnection connection : list) {
+                if (connection.isClosed())
+                    continue;
+
+                int load = connection.pending();
+                if (load < bestLoad) {
+                    best = connection;
+                    bestLoad = load;
+                }
+            }
+
+            if (best != null && (bestLoad == 0 || list.size() >= MAX_PER_DESTINATION))
+                return best;
+
+            PooledConnection connection = open(address, list);
+            list.add(connection);
+            return connection;
+        }
+    }
+
+    private PooledConnection open(InetSocketAddress address, List<PooledConnection> list) throws IOException {
+        SocketChannel channel = SocketChannel.open();
+        channel.configureBlocking(false);
+        channel.connect(address);
+
+        PooledConnection connection = new PooledConnection(address, channel, list::remove);
+        try {
+            connection.init();
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+
+        worker.register(channel, connection);
+        return connection;
+    }
+
+    /**
+     * Closes idle connections and the ones that stopped answering
+     */
+    private void sweep() {
+        long now = System.currentTimeMillis();
+
+        for (List<PooledConnection> list : connections.values()) {
+            for (PooledConnection connection : list) {
+                if (connection.isIdle(now, IDLE_TIMEOUT))
+                    connection.close();
+                else if (!connection.isHealthy(now, HEALTH_TIMEOUT)) {
+                    System.err.println("[!] Dropping unhealthy connection to " + connection.getAddress());
+                    connection.close();
+                }
+            }
+        }
+
+        connections.values().removeIf(List::isEmpty);
+    }
+
+    public int size() {
+        int size = 0;
+        for (List<PooledConnection> list : connections.values())
+            size += list.size();
+        return size;
+    }
+}
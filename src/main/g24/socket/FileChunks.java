@@ -0,0 +1,101 @@
+package main.g24.socket;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.zip.CRC32C;
+
+/**
+ * Chunk layout of file transfers.
+ *
+ * A file goes on the wire as a sequence of chunks, each followed by its checksum:
+ * <CHUNK_DATA:CHUNK_SIZE> <CRC32C:4> ... <LAST_CHUNK_DATA:<=CHUNK_SIZE> <CRC32C:4>
+ * Chunks are counted from the offset the transfer starts at, so both ends agree on the boundaries
+ * without sending them. The receiver writes to <FILE>.part and only keeps verified chunks, a transfer
+ * that is cut short can be resumed from the end of that file.
+ */
+public abstract class FileChunks {
+
+    public static final int CHUNK_SIZE = 1024 * 1024, TRAILER_SIZE = 4;
+    public static final String PART_SUFFIX = ".part", RANGES_SUFFIX = ".ranges";
+
+    /**
+     * @param start first byte of the chunk
+     * @param size size of the file
+     * @return end (exclusive) of the chunk starting at start
+     */
+    public static long chunkEnd(long start, long size) {
+        return Math.min(size, start + CHUNK_SIZE);
+    }
+
+    /**
+     * Checksum of a region of the file, read back through scratch
+     * @param file file to read from, its position isn't moved
+     * @param start first byte of the region
+     * @param end end (exclusive) of the region
+     * @param scratch buffer used for reading, its contents are overwritten
+     * @return CRC32C of the region
+     */
+    public static int checksum(FileChannel file, long start, long end, ByteBuffer scratch) throws IOException {
+        CRC32C crc = new CRC32C();
+
+        long position = start;
+        while (position < end) {
+            scratch.clear();
+            scratch.limit((int) Math.min(scratch.capacity(), end - position));
+
+            int n = file.read(scratch, position);
+            if (n < 0)
+                throw new IOException("File ended at " + position + ", expected " + end + " bytes");
+
+            scratch.flip();
+            crc.update(scratch);
+            position += n;
+        }
+
+        return (int) crc.getValue();
+    }
+
+    public static Path partPath(Path path) {
+        return path.resolveSibling(path.getFileName() + PART_SUFFIX);
+    }
+
+    /**
+     * File a transfer from several peers at once writes to, its ranges arrive out of order and may leave holes,
+     * so unlike the .part file it's never resumed from
+     */
+    public static Path rangesPath(Path path) {
+        return path.resolveSibling(path.getFileName() + RANGES_SUFFIX);
+    }
+
+    /**
+     * Where a transfer of path can resume from, the whole chunks already in its .part file
+     * @param path final path of the file
+     * @return offset to ask the file from, still to be agreed with clampOffset
+     */
+    public static long resumeOffset(Path path) {
+        try {
+            return Files.size(partPath(path)) / CHUNK_SIZE * CHUNK_SIZE;
+        } catch (IOException e) {
+            return 0;
+        }
+    }
+
+    /**
+     * Turns a requested offset into the one the transfer actually starts at.
+     * It is aligned to a chunk and the last chunk is always transferred again,
+     * so a resumed transfer never has zero bytes to send
+     * @param offset requested offset
+     * @param size size of the file
+     * @return agreed offset
+     */
+    public static long clampOffset(long offset, long size) {
+        if (offset <= 0 || size <= 0)
+            return 0;
+
+        long lastChunk = (size - 1) / CHUNK_SIZE * CHUNK_SIZE;
+        return Math.min(offset / CHUNK_SIZE * CHUNK_SIZE, lastChunk);
+    }
+}
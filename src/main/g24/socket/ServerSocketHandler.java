@@ -9,28 +9,49 @@ import java.net.InetSocketAddress;
 import java.nio.channels.*;
 import java.util.Iterator;
 import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
 
-
+/**
+ * Boss reactor of the peer.
+ * Accepts incoming connections and hands them, round-robin, to the worker reactors,
+ * which do all the reading, writing and dispatching.
+ */
 public class ServerSocketHandler implements Runnable {
 
+    // number of worker selectors (-Dg24.selectors), defaults to the core count
+    public static final int WORKER_COUNT = Integer.getInteger("g24.selectors", Runtime.getRuntime().availableProcessors());
+
     private final Peer peer;
-    private Selector selector;
+    private final SocketWorker[] workers;
+    private final AtomicInteger nextWorker;
+
+    public ServerSocketHandler(Peer peer, int workerCount) {
+        this.peer = peer;
+        this.workers = new SocketWorker[Math.max(1, workerCount)];
+        this.nextWorker = new AtomicInteger();
 
-    public Selector getSelector() {
-        return selector;
+        try {
+            for (int i = 0; i < workers.length; i++)
+                workers[i] = new SocketWorker();
+        } catch (IOException e) {
+            throw new IllegalStateException("Couldn't open worker selectors", e);
+        }
     }
 
     public ServerSocketHandler(Peer peer) {
-        this.peer = peer;
+        this(peer, WORKER_COUNT);
     }
 
-
     // source: https://www.baeldung.com/java-nio-selector
     @Override
     public void run() {
+        for (int i = 0; i < workers.length; i++)
+            new Thread(workers[i], "selector-" + i).start();
+
         try {
+            BufferPool.markReactorThread();
 
-            selector = Selector.open();
+            Selector selector = Selector.open();
             ServerSocketChannel serverSocket = ServerSocketChannel.open();
             serverSocket.socket().bind(new InetSocketAddress(peer.get_address(), peer.get_port()));
             serverSocket.configureBlocking(false);
@@ -39,8 +60,6 @@ public class ServerSocketHandler implements Runnable {
 
             while (true) {
 
-//                System.out.println("[#] Blocking for select");
-
                 selector.select();
 
                 Set<SelectionKey> selectedKeys = selector.selectedKeys();
@@ -54,10 +73,6 @@ public class ServerSocketHandler implements Runnable {
                         register(serverSocket);
                     }
 
-                    if (key.attachment() != null && key.attachment() instanceof ISocketManager) {
-                        ((ISocketManager) key.attachment()).onSelect(key);
-                    }
-
                     iter.remove();
 
                 }
@@ -68,22 +83,38 @@ public class ServerSocketHandler implements Runnable {
         }
     }
 
-    @SuppressWarnings("MagicConstant")
     private void register(ServerSocketChannel socketChannel) throws IOException {
         SocketChannel client = socketChannel.accept();
+        if (client == null)
+            return;
+
         client.configureBlocking(false);
         ISocketManager iSocketManager = new SocketManager(peer);
-        client.register(selector, iSocketManager.interestOps(), iSocketManager);
+        try {
+            iSocketManager.init();
+        } catch (IOException e) {
+            // no buffers to spare, shed the connection
+            System.err.println("[X] Refusing connection: " + e.getMessage());
+            client.close();
+            return;
+        }
+        nextWorker().register(client, iSocketManager);
     }
 
-    @SuppressWarnings("MagicConstant")
+    /**
+     * Registers an outbound channel with one of the workers, callable from any thread
+     * @param socket channel to register
+     * @param manager manager of the channel, initialized here
+     */
     public void register(SocketChannel socket, ISocketManager manager) throws IOException {
         manager.init();
 
         socket.configureBlocking(false);
-        socket.register(selector, manager.interestOps(), manager);
+        nextWorker().register(socket, manager);
+    }
 
-        selector.wakeup();
+    private SocketWorker nextWorker() {
+        return workers[Math.floorMod(nextWorker.getAndIncrement(), workers.length)];
     }
 
 }
@@ -0,0 +1,106 @@
+package main.g24.socket;
+
+import main.g24.socket.managers.ISocketManager;
+
+import java.io.IOException;
+import java.nio.channels.*;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * One of the peer's worker reactors.
+ * Owns a selector and runs the socket managers of every channel registered with it.
+ * Channels can be handed over from any thread, they are queued and registered by the worker itself
+ * since SelectableChannel.register blocks while the selector is inside select().
+ */
+public class SocketWorker implements Runnable {
+
+    private final Selector selector;
+    private final Queue<Registration> pending;
+
+    public SocketWorker() throws IOException {
+        this.selector = Selector.open();
+        this.pending = new ConcurrentLinkedQueue<>();
+    }
+
+    @Override
+    public void run() {
+        BufferPool.markReactorThread();
+
+        try {
+            while (true) {
+                selector.select();
+
+                registerPending();
+
+                Set<SelectionKey> selectedKeys = selector.selectedKeys();
+                Iterator<SelectionKey> iter = selectedKeys.iterator();
+
+                while (iter.hasNext()) {
+
+                    SelectionKey key = iter.next();
+
+                    if (key.attachment() != null && key.attachment() instanceof ISocketManager) {
+                        ISocketManager manager = (ISocketManager) key.attachment();
+                        try {
+                            manager.onSelect(key);
+                        } catch (RuntimeException e) {
+                            // a broken manager only costs its own connection, the worker serves the others
+                            System.err.println("[X] Socket manager failed, closing its connection");
+                            e.printStackTrace();
+                            try {
+                                key.channel().close();
+                            } catch (IOException ioException) {
+                                ioException.printStackTrace();
+                            }
+                        }
+
+                        // channel was closed, give the pooled buffers back
+                        if (!key.isValid())
+                            ((ISocketManager) key.attachment()).release();
+                    }
+
+                    iter.remove();
+                }
+            }
+        }
+        catch (IOException ioe) {
+            ioe.printStackTrace();
+        }
+    }
+
+    /**
+     * Queues a channel to be registered by this worker, callable from any thread
+     * @param socket non-blocking channel
+     * @param manager already initialized manager
+     */
+    public void register(SocketChannel socket, ISocketManager manager) {
+        pending.add(new Registration(socket, manager));
+        selector.wakeup();
+    }
+
+    @SuppressWarnings("MagicConstant")
+    private void registerPending() {
+        Registration registration;
+        while ((registration = pending.poll()) != null) {
+            try {
+                registration.socket.register(selector, registration.manager.interestOps(), registration.manager);
+            } catch (ClosedChannelException e) {
+                System.err.println("[X] Channel closed before registration");
+                registration.manager.release();
+            }
+        }
+    }
+
+    private static class Registration {
+        private final SocketChannel socket;
+        private final ISocketManager manager;
+
+        private Registration(SocketChannel socket, ISocketManager manager) {
+            this.socket = socket;
+            this.manager = manager;
+        }
+    }
+}
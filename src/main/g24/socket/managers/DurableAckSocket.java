@@ -0,0 +1,68 @@
+package main.g24.socket.managers;
+
+import main.g24.Peer;
+import main.g24.socket.messages.AckMessage;
+
+import java.io.IOException;
+import java.nio.channels.CancelledKeyException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Holds on to a connection until a change to the metadata is on disk, then acknowledges it and closes the connection.
+ * Nothing is read meanwhile, the ACK is sent from the selector thread once the log wakes it up
+ */
+public class DurableAckSocket implements ISocketManager {
+
+    private final Peer peer;
+    private final CompletableFuture<Void> durable;
+
+    /**
+     * @param durable completed once the change is on disk, see Peer.addStoredFile
+     */
+    public DurableAckSocket(Peer peer, CompletableFuture<Void> durable) {
+        this.peer = peer;
+        this.durable = durable;
+    }
+
+    @Override
+    public void init() {}
+
+    @Override
+    public int interestOps() {
+        return SelectionKey.OP_WRITE;
+    }
+
+    @Override
+    public void onSelect(SelectionKey key) {
+        if (!durable.isDone()) {
+            key.interestOps(0);
+            // runs right away if it got done meanwhile
+            durable.whenComplete((nothing, e) -> resume(key));
+            return;
+        }
+
+        SocketChannel channel = (SocketChannel) key.channel();
+        try {
+            new AckMessage(peer.get_id(), !durable.isCompletedExceptionally()).send(channel);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+
+        try {
+            channel.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    private static void resume(SelectionKey key) {
+        try {
+            key.interestOps(SelectionKey.OP_WRITE);
+            key.selector().wakeup();
+        } catch (CancelledKeyException e) {
+            // closed meanwhile, nobody left to tell
+        }
+    }
+}
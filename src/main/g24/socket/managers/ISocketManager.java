@@ -1,6 +1,7 @@
 package main.g24.socket.managers;
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.nio.channels.SelectionKey;
 
 public interface ISocketManager {
@@ -8,10 +9,45 @@ public interface ISocketManager {
     void init() throws IOException;
     int interestOps();
 
-    @SuppressWarnings("MagicConstant")
+    /**
+     * Hands back any pooled resources, called once the manager is done with its channel
+     */
+    default void release() {}
+
+    /**
+     * Receives bytes the previous manager already read from the channel but that belong to this one
+     * (e.g. the start of a file that arrived in the same segment as its header).
+     * Called right after the manager is attached to the key
+     * @param key key of the channel
+     * @param pending bytes in read mode, only valid during the call
+     */
+    default void handover(SelectionKey key, ByteBuffer pending) throws IOException {
+        System.err.println("[!] Dropping " + pending.remaining() + " unexpected bytes");
+    }
+
     static void transitionTo(SelectionKey key, ISocketManager manager) throws IOException {
+        transitionTo(key, manager, null);
+    }
+
+    /**
+     * Attaches the next manager to the key
+     * @param key key of the channel
+     * @param manager next manager
+     * @param pending bytes already read that the next manager should get, may be null
+     */
+    @SuppressWarnings("MagicConstant")
+    static void transitionTo(SelectionKey key, ISocketManager manager, ByteBuffer pending) throws IOException {
+        Object previous = key.attachment();
+
         manager.init();
         key.interestOps(manager.interestOps());
         key.attach(manager);
+
+        if (pending != null && pending.hasRemaining())
+            manager.handover(key, pending);
+
+        // pending may live in the previous manager's buffer, only give it back now
+        if (previous instanceof ISocketManager && previous != manager)
+            ((ISocketManager) previous).release();
     }
 }
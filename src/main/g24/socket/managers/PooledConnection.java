@@ -0,0 +1,263 @@
+package main.g24.socket.managers;
+
+import main.g24.socket.BufferPool;
+import main.g24.socket.messages.ISocketMessage;
+import main.g24.socket.messages.MessageCodec;
+import main.g24.socket.messages.MessageDecoder;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Consumer;
+
+/**
+ * Persistent connection to another peer, owned by the ConnectionPool.
+ * Messages are self-delimiting frames, so any number of them can be written back to back.
+ * Requests that expect a reply queue a future, replies come back in the same order the
+ * requests were sent and complete those futures.
+ */
+public class PooledConnection implements ISocketManager {
+
+    private final InetSocketAddress address;
+    private final SocketChannel channel;
+    private final Consumer<PooledConnection> onClose;
+
+    private final Queue<ByteBuffer> outgoing;
+    private final Queue<CompletableFuture<ISocketMessage>> replies;
+
+    private ByteBuffer buffer;
+    private final MessageDecoder decoder;
+    private SelectionKey key;
+
+    private boolean connected, closed;
+    private final long openedAt;
+    private long lastUsed, oldestPending;
+
+    public PooledConnection(InetSocketAddress address, SocketChannel channel, Consumer<PooledConnection> onClose) {
+        this.address = address;
+        this.channel = channel;
+        this.onClose = onClose;
+
+        this.outgoing = new ArrayDeque<>();
+        this.replies = new ArrayDeque<>();
+        this.decoder = new MessageDecoder();
+
+        this.connected = false;
+        this.closed = false;
+        this.openedAt = System.currentTimeMillis();
+        this.lastUsed = this.openedAt;
+    }
+
+    @Override
+    public synchronized void init() throws IOException {
+        buffer = BufferPool.get().lease(BufferPool.HEADER_SIZE);
+    }
+
+    @Override
+    public int interestOps() {
+        return SelectionKey.OP_CONNECT;
+    }
+
+    @Override
+    public synchronized void release() {
+        BufferPool.get().release(buffer);
+        buffer = null;
+    }
+
+    /**
+     * Queues a message on this connection, callable from any thread
+     * @param message message to send
+     * @param reply future completed with the reply, null if none is expected
+     * @return false if the connection is already closed
+     */
+    public synchronized boolean enqueue(ISocketMessage message, CompletableFuture<ISocketMessage> reply) {
+        if (closed)
+            return false;
+
+        if (!message.get_type().quiet())
+            System.out.println("   [>] " + message);
+
+        outgoing.add(message.encode());
+        if (reply != null) {
+            if (replies.isEmpty())
+                oldestPending = System.currentTimeMillis();
+            replies.add(reply);
+        }
+        lastUsed = System.currentTimeMillis();
+
+        if (connected && key != null && key.isValid()) {
+            key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+            key.selector().wakeup();
+        }
+        return true;
+    }
+
+    @Override
+    public void onSelect(SelectionKey key) {
+        // replies are completed outside the lock, their callbacks may well use other connections
+        List<Runnable> completions = new ArrayList<>();
+
+        synchronized (this) {
+            if (closed)
+                return;
+            this.key = key;
+
+            try {
+                if (key.isConnectable()) {
+                    if (channel.finishConnect()) {
+                        connected = true;
+                        updateInterest();
+                    }
+                }
+                else {
+                    if (key.isWritable())
+                        write();
+
+                    if (key.isValid() && key.isReadable())
+                        read(completions);
+                }
+
+            } catch (IOException e) {
+                System.err.println("[X] Pooled connection to " + address + " failed: " + e.getMessage());
+                closeLocked(completions);
+            }
+        }
+
+        completions.forEach(Runnable::run);
+    }
+
+    private void write() throws IOException {
+        ByteBuffer frame;
+        while ((frame = outgoing.peek()) != null) {
+            channel.write(frame);
+
+            // socket is full, wait for the next OP_WRITE
+            if (frame.hasRemaining())
+                return;
+
+            outgoing.poll();
+        }
+        updateInterest();
+    }
+
+    private void read(List<Runnable> completions) throws IOException {
+        int n;
+        while ((n = channel.read(buffer)) > 0) {
+            buffer.flip();
+
+            ISocketMessage message;
+            while ((message = decoder.next(buffer)) != null)
+                onReply(message, completions);
+
+            buffer.compact();
+
+            if (!buffer.hasRemaining()) {
+                // the pending reply is bigger than the buffer, move it to one it fits in
+                int size = MessageCodec.grownSize(buffer.duplicate().flip());
+                if (size < 0)
+                    throw new IOException("Reply doesn't fit in " + MessageCodec.MAX_FRAME + " bytes");
+                buffer = BufferPool.get().resize(buffer, size);
+            }
+            else if (buffer.position() == 0 && buffer.capacity() > BufferPool.HEADER_SIZE) {
+                // done with the large reply, don't hold on to its buffer
+                buffer = BufferPool.get().resize(buffer, BufferPool.HEADER_SIZE);
+            }
+        }
+
+        if (n < 0)
+            closeLocked(completions);
+    }
+
+    private void onReply(ISocketMessage message, List<Runnable> completions) {
+        if (!message.get_type().quiet())
+            System.out.println("[<] " + message);
+
+        CompletableFuture<ISocketMessage> reply = replies.poll();
+        if (reply == null) {
+            System.err.println("[!] Unexpected message on pooled connection to " + address);
+            return;
+        }
+
+        oldestPending = System.currentTimeMillis();
+        lastUsed = oldestPending;
+        completions.add(() -> reply.complete(message));
+    }
+
+    @SuppressWarnings("MagicConstant")
+    private void updateInterest() {
+        key.interestOps(outgoing.isEmpty() ? SelectionKey.OP_READ : SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+    }
+
+    /**
+     * Closes the connection and fails every request still waiting for a reply
+     */
+    public void close() {
+        List<Runnable> completions = new ArrayList<>();
+        synchronized (this) {
+            closeLocked(completions);
+        }
+        completions.forEach(Runnable::run);
+    }
+
+    private void closeLocked(List<Runnable> completions) {
+        if (closed)
+            return;
+        closed = true;
+
+        try {
+            channel.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+
+        IOException cause = new IOException("Connection to " + address + " closed");
+        for (CompletableFuture<ISocketMessage> reply : replies)
+            completions.add(() -> reply.completeExceptionally(cause));
+        replies.clear();
+        outgoing.clear();
+
+        release();
+        completions.add(() -> onClose.accept(this));
+    }
+
+    public synchronized boolean isClosed() {
+        return closed;
+    }
+
+    public synchronized int pending() {
+        return replies.size() + outgoing.size();
+    }
+
+    /**
+     * @param now current time
+     * @param idleTimeout how long an unused connection is kept
+     * @return true if nothing was sent or received for longer than idleTimeout
+     */
+    public synchronized boolean isIdle(long now, long idleTimeout) {
+        return replies.isEmpty() && outgoing.isEmpty() && now - lastUsed > idleTimeout;
+    }
+
+    /**
+     * @param now current time
+     * @param timeout how long a connect or a reply may take
+     * @return false if the connection is stuck connecting or the other end stopped answering
+     */
+    public synchronized boolean isHealthy(long now, long timeout) {
+        if (closed)
+            return false;
+        if (!connected)
+            return now - openedAt <= timeout;
+        return replies.isEmpty() || now - oldestPending <= timeout;
+    }
+
+    public InetSocketAddress getAddress() {
+        return address;
+    }
+}
@@ -0,0 +1,196 @@
+package main.g24.socket.managers;
+
+import main.g24.Peer;
+import main.g24.socket.BufferPool;
+import main.g24.socket.FileChunks;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+
+/**
+ * Receives the chunks of a region of a file sent by SendFileSocket (see FileChunks),
+ * every chunk is checked against its checksum once it's on disk.
+ * Subclasses pick the file and region on init() and decide what happens once it's complete or cut short
+ */
+public abstract class ReceiveChunksSocket implements ISocketManager {
+
+    // transferFrom is the default, -Dg24.buffered_receive=true falls back to the buffered path
+    public static final boolean ZERO_COPY = !Boolean.getBoolean("g24.buffered_receive");
+
+    protected FileChannel fileChannel;
+    private ByteBuffer buffer;
+    private final ByteBuffer trailer;
+
+    private final boolean zeroCopy;
+
+    // chunkStart only moves once the chunk before it was verified
+    private long end, position, chunkStart, chunkEnd;
+
+    protected ReceiveChunksSocket(boolean zeroCopy) {
+        this.zeroCopy = zeroCopy;
+        this.trailer = ByteBuffer.allocate(FileChunks.TRAILER_SIZE);
+    }
+
+    /**
+     * Starts receiving the region [start, end) into fileChannel
+     */
+    protected void open(FileChannel fileChannel, long start, long end) throws IOException {
+        this.fileChannel = fileChannel;
+        this.end = end;
+        this.position = start;
+        this.chunkStart = start;
+        this.chunkEnd = FileChunks.chunkEnd(start, end);
+
+        // used to read the chunks back for their checksums, the zero-copy path also probes the socket for EOF with it
+        buffer = BufferPool.get().lease(zeroCopy ? BufferPool.SMALL_SIZE : Peer.BLOCK_SIZE);
+    }
+
+    /**
+     * The whole region arrived and was verified
+     * @param pending bytes read past the region, may be null
+     */
+    protected abstract void onComplete(SelectionKey key, ByteBuffer pending) throws IOException;
+
+    /**
+     * The connection dropped or a chunk didn't match, everything before verifiedEnd() is good
+     */
+    protected abstract void onLost(SocketChannel client) throws IOException;
+
+    /**
+     * @return end of the verified part of the region
+     */
+    protected long verifiedEnd() {
+        return chunkStart;
+    }
+
+    @Override
+    public void release() {
+        BufferPool.get().release(buffer);
+        buffer = null;
+    }
+
+    @Override
+    public int interestOps() {
+        return SelectionKey.OP_READ;
+    }
+
+    @Override
+    public void onSelect(SelectionKey key) {
+        if (!key.isReadable())
+            return;
+
+        SocketChannel client = (SocketChannel) key.channel();
+
+        try {
+            while (chunkStart < end) {
+                int n;
+                if (position < chunkEnd) {
+                    n = zeroCopy ? transferChunk(client) : readBounded(client);
+                } else {
+                    n = client.read(trailer);
+                    if (!trailer.hasRemaining() && !verifyChunk(client))
+                        return;
+                }
+
+                if (n < 0) {
+                    onLost(client);
+                    return;
+                }
+                if (n == 0)
+                    return;
+            }
+
+            onComplete(key, null);
+
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Streams the socket straight into the file channel.
+     * Never asks for more than the rest of the chunk, so its checksum (and whatever follows the region on the
+     * connection, e.g. the next message) stays in the socket
+     */
+    private int transferChunk(SocketChannel client) throws IOException {
+        long n = fileChannel.transferFrom(client, position, chunkEnd - position);
+        if (n > 0) {
+            position += n;
+            return (int) n;
+        }
+
+        // transferFrom can't tell an idle socket from a closed one, probe it
+        return readBounded(client);
+    }
+
+    /**
+     * Reads at most the rest of the chunk from the socket and writes it to the file
+     * @return bytes read, or -1 on end of stream
+     */
+    private int readBounded(SocketChannel client) throws IOException {
+        buffer.clear();
+        buffer.limit((int) Math.min(buffer.capacity(), chunkEnd - position));
+
+        int n = client.read(buffer);
+        if (n <= 0)
+            return n;
+
+        // flip before writing
+        buffer.flip();
+        write(buffer);
+        return n;
+    }
+
+    private void write(ByteBuffer data) throws IOException {
+        while (data.hasRemaining())
+            position += fileChannel.write(data, position);
+    }
+
+    /**
+     * Checks the chunk on disk against the checksum that followed it
+     * @return false if it didn't match, the transfer is dropped
+     */
+    private boolean verifyChunk(SocketChannel client) throws IOException {
+        int expected = trailer.getInt(0);
+        int actual = FileChunks.checksum(fileChannel, chunkStart, chunkEnd, buffer);
+        trailer.clear();
+
+        if (expected != actual) {
+            System.err.println("[X] Chunk at " + chunkStart + " doesn't match its checksum");
+            onLost(client);
+            return false;
+        }
+
+        chunkStart = chunkEnd;
+        chunkEnd = FileChunks.chunkEnd(chunkStart, end);
+        return true;
+    }
+
+    /**
+     * Runs the bytes of the region that arrived together with its header through the chunks
+     */
+    @Override
+    public void handover(SelectionKey key, ByteBuffer pending) throws IOException {
+        while (pending.hasRemaining() && chunkStart < end) {
+            if (position < chunkEnd) {
+                ByteBuffer data = pending.duplicate();
+                data.limit(data.position() + (int) Math.min(pending.remaining(), chunkEnd - position));
+                pending.position(data.limit());
+                write(data);
+            } else {
+                while (pending.hasRemaining() && trailer.hasRemaining())
+                    trailer.put(pending.get());
+
+                if (!trailer.hasRemaining() && !verifyChunk((SocketChannel) key.channel()))
+                    return;
+            }
+        }
+
+        // the whole region was already in there, nothing more will be selected for it
+        if (chunkStart >= end)
+            onComplete(key, pending);
+    }
+}
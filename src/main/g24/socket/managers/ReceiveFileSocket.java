@@ -1,8 +1,7 @@
 package main.g24.socket.managers;
 
 import main.g24.Peer;
-import main.g24.monitors.GeneralMonitor;
-import main.g24.socket.messages.AckMessage;
+import main.g24.socket.FileChunks;
 import main.g24.socket.messages.ISocketFileMessage;
 
 import java.io.IOException;
@@ -13,102 +12,106 @@ import java.nio.channels.SocketChannel;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
 import java.nio.file.StandardOpenOption;
 import java.util.function.Supplier;
 
-public class ReceiveFileSocket implements ISocketManager {
+/**
+ * Receives a whole file, from the agreed offset on.
+ * The file is written to <DESTINATION>.part, a chunk that doesn't match or a connection that drops leaves
+ * it with the verified chunks only, so the transfer can be resumed, and onTransferLost is run.
+ * The .part file takes the destination's place once complete
+ */
+public class ReceiveFileSocket extends ReceiveChunksSocket {
 
     private final ISocketFileMessage message;
     private final Peer peer;
     private final Path destination;
-    private FileChannel fileChannel;
-    private ByteBuffer buffer;
+    private Path path, partPath;
 
     private final Supplier<ISocketManager> onTransferEnd;
+    private Runnable onTransferLost;
 
-    private long file_remaining;
+    private final long size, offset;
 
-    public ReceiveFileSocket(Peer peer, ISocketFileMessage message, Path destination, Supplier<ISocketManager> onTransferEnd) {
+    public ReceiveFileSocket(Peer peer, ISocketFileMessage message, Path destination, long offset, Supplier<ISocketManager> onTransferEnd, boolean zeroCopy) {
+        super(zeroCopy);
         this.peer = peer;
         this.message = message;
         this.destination = destination;
         this.onTransferEnd = onTransferEnd;
 
-        this.file_remaining = message.get_size();
+        this.size = message.get_size();
+        this.offset = offset;
+    }
+
+    public ReceiveFileSocket(Peer peer, ISocketFileMessage message, Path destination, long offset, Supplier<ISocketManager> onTransferEnd) {
+        this(peer, message, destination, offset, onTransferEnd, ZERO_COPY);
+    }
+
+    public ReceiveFileSocket(Peer peer, ISocketFileMessage message, long offset, Supplier<ISocketManager> onTransferEnd) {
+        this(peer, message, null, offset, onTransferEnd);
     }
 
     public ReceiveFileSocket(Peer peer, ISocketFileMessage message, Supplier<ISocketManager> onTransferEnd) {
-        this(peer, message, null, onTransferEnd);
+        this(peer, message, 0, onTransferEnd);
     }
 
     public ReceiveFileSocket(Peer peer, ISocketFileMessage message) {
-        this(peer, message, null, null);
+        this(peer, message, null);
     }
 
-    @Override
-    public void onSelect(SelectionKey key) {
-        if (key.isReadable()) {
-            readFile(key);
-        }
+    /**
+     * @param onTransferLost run if the transfer is cut short, e.g. to resume it
+     * @return this
+     */
+    public ReceiveFileSocket onTransferLost(Runnable onTransferLost) {
+        this.onTransferLost = onTransferLost;
+        return this;
     }
 
     @Override
     public void init() throws IOException {
-        // open out file
-        Path path = destination != null ? destination : Paths.get(peer.getStoragePath(message.get_filehash()));
+        // open out file, keeping the chunks received before the agreed offset
+        path = destination != null ? destination : Paths.get(peer.getStoragePath(message.get_filehash()));
+        partPath = FileChunks.partPath(path);
         Files.createDirectories(path.getParent());
-        Files.deleteIfExists(path);
-        Files.createFile(path);
-        fileChannel = FileChannel.open(path, StandardOpenOption.WRITE);
 
-        buffer = ByteBuffer.allocate(Peer.BLOCK_SIZE);
+        FileChannel part = FileChannel.open(partPath, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        part.truncate(offset);
+        if (part.size() < offset) {
+            part.close();
+            throw new IOException("Can't resume " + path.getFileName() + " at " + offset + ", only " + part.size() + " bytes were received");
+        }
+
+        if (offset > 0)
+            System.out.println("[#] Resuming transfer of " + path.getFileName() + " at " + offset + "/" + size);
+
+        open(part, offset, size);
     }
 
     @Override
-    public int interestOps() {
-        return SelectionKey.OP_READ;
+    protected void onComplete(SelectionKey key, ByteBuffer pending) throws IOException {
+        fileChannel.close();
+        Files.move(partPath, path, StandardCopyOption.REPLACE_EXISTING);
+
+        ISocketManager futureManager;
+        if (onTransferEnd == null || (futureManager = onTransferEnd.get()) == null)
+            key.channel().close();
+        else
+            ISocketManager.transitionTo(key, futureManager, pending);
     }
 
-    @SuppressWarnings("MagicConstant")
-    private void readFile(SelectionKey key) {
-        SocketChannel client = (SocketChannel) key.channel();
-
-        int n;
-        try {
-            // read from tcp channel
-            while ((n = client.read(buffer)) > 0) {
-
-//                System.out.println("Read from socket " + n);
-                file_remaining -= n;
-
-                // flip before writing
-                buffer.flip();
-
-                // write to output file
-                fileChannel.write(buffer);
-                buffer.compact();
-            }
-
-//            System.out.println("Out of cycle: Read " + n);
-
-            if (file_remaining <= 0) {
-
-                fileChannel.close();
-
-                ISocketManager futureManager;
-                if (onTransferEnd == null || (futureManager = onTransferEnd.get()) == null)
-                    client.close();
-                else
-                    ISocketManager.transitionTo(key, futureManager);
+    @Override
+    protected void onLost(SocketChannel client) throws IOException {
+        System.err.println("[X] Transfer of " + path.getFileName() + " stopped with " + (size - verifiedEnd()) + " bytes left to receive");
 
-                return;
-            }
+        // only keep what was verified, a resumed transfer starts right after it
+        fileChannel.truncate(verifiedEnd());
+        fileChannel.close();
+        client.close();
 
-            if (n < 0) {
-                fileChannel.close();
-            }
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
+        if (onTransferLost != null)
+            onTransferLost.run();
     }
 }
@@ -0,0 +1,58 @@
+package main.g24.socket.managers;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.util.function.LongConsumer;
+import java.util.function.Supplier;
+
+/**
+ * Receives a range of a file into a channel shared with the other ranges, with positional writes only.
+ * The channel isn't closed here, it belongs to whoever split the file in ranges
+ */
+public class ReceiveRangeSocket extends ReceiveChunksSocket {
+
+    private final FileChannel file;
+    private final long start, end;
+
+    private final Supplier<ISocketManager> onRangeEnd;
+    private final LongConsumer onRangeLost;
+
+    /**
+     * @param file shared file channel
+     * @param start first byte of the range
+     * @param end end (exclusive) of the range
+     * @param onRangeEnd next manager for the connection once the range is complete, null closes it
+     * @param onRangeLost gets the end of the verified part of the range if it's cut short
+     */
+    public ReceiveRangeSocket(FileChannel file, long start, long end, Supplier<ISocketManager> onRangeEnd, LongConsumer onRangeLost) {
+        super(ZERO_COPY);
+        this.file = file;
+        this.start = start;
+        this.end = end;
+        this.onRangeEnd = onRangeEnd;
+        this.onRangeLost = onRangeLost;
+    }
+
+    @Override
+    public void init() throws IOException {
+        open(file, start, end);
+    }
+
+    @Override
+    protected void onComplete(SelectionKey key, ByteBuffer pending) throws IOException {
+        ISocketManager futureManager = onRangeEnd.get();
+        if (futureManager == null)
+            key.channel().close();
+        else
+            ISocketManager.transitionTo(key, futureManager, pending);
+    }
+
+    @Override
+    protected void onLost(SocketChannel client) throws IOException {
+        client.close();
+        onRangeLost.accept(verifiedEnd());
+    }
+}
@@ -1,6 +1,8 @@
 package main.g24.socket.managers;
 
 import main.g24.Peer;
+import main.g24.socket.BufferPool;
+import main.g24.socket.FileChunks;
 
 import java.io.IOException;
 import java.nio.ByteBuffer;
@@ -10,31 +12,99 @@ import java.nio.channels.SocketChannel;
 import java.nio.file.Path;
 import java.nio.file.StandardOpenOption;
 
+/**
+ * Sends a file (or a range of it) from an offset on, chunk by chunk, each chunk followed by its checksum (see FileChunks)
+ */
 public class SendFileSocket implements ISocketManager {
 
+    // zero-copy (transferTo) is the default, -Dg24.buffered_send=true falls back to the buffered path
+    public static final boolean ZERO_COPY = !Boolean.getBoolean("g24.buffered_send");
+
     private FileChannel fileChannel;
     private ByteBuffer buffer;
+    private final ByteBuffer trailer;
 
     private final Path filepath;
+    private final boolean zeroCopy;
+
+    // transferTo doesn't move the channel's position, so we keep track of it across selections
+    // size is where the transfer stops, the end of the range or of the file
+    private long position, size, chunkStart, chunkEnd;
+    private final long offset, length;
 
     private final ISocketManager afterTransferSocketManager;
 
-    public SendFileSocket(Path filepath, ISocketManager afterTransferSocketManager) {
+    /**
+     * @param filepath file to send
+     * @param offset first byte to send
+     * @param length bytes to send, negative for the rest of the file
+     * @param afterTransferSocketManager next manager for the connection, null closes it
+     * @param zeroCopy whether to send with transferTo
+     */
+    public SendFileSocket(Path filepath, long offset, long length, ISocketManager afterTransferSocketManager, boolean zeroCopy) {
         this.filepath = filepath;
+        this.offset = offset;
+        this.length = length;
         this.afterTransferSocketManager = afterTransferSocketManager;
+        this.zeroCopy = zeroCopy;
+
+        // nothing pending until the first chunk is sent
+        this.trailer = ByteBuffer.allocate(FileChunks.TRAILER_SIZE).limit(0);
+    }
+
+    public SendFileSocket(Path filepath, long offset, long length, ISocketManager afterTransferSocketManager) {
+        this(filepath, offset, length, afterTransferSocketManager, ZERO_COPY);
+    }
+
+    public SendFileSocket(Path filepath, long offset, ISocketManager afterTransferSocketManager) {
+        this(filepath, offset, -1, afterTransferSocketManager);
+    }
+
+    public SendFileSocket(Path filepath, ISocketManager afterTransferSocketManager) {
+        this(filepath, 0, afterTransferSocketManager);
     }
 
     public SendFileSocket(Path filepath) {
         this(filepath, null);
     }
 
+    /**
+     * @throws IOException if the file can't be opened or there's no buffer to spare, the connection is dropped
+     */
     @Override
-    public void init() {
+    public void init() throws IOException {
+        fileChannel = FileChannel.open(filepath, StandardOpenOption.READ);
         try {
-            fileChannel = FileChannel.open(filepath, StandardOpenOption.READ);
-            buffer = ByteBuffer.allocate(Peer.BLOCK_SIZE);
+            size = fileChannel.size();
+            if (length >= 0)
+                size = Math.min(size, offset + length);
+            position = Math.min(offset, size);
+            chunkStart = position;
+            chunkEnd = FileChunks.chunkEnd(chunkStart, size);
+
+            // the buffered path sends through it, the zero-copy one only reads the chunks back for their checksums
+            buffer = BufferPool.get().lease(zeroCopy ? BufferPool.SMALL_SIZE : Peer.BLOCK_SIZE);
+            buffer.limit(0);
         } catch (IOException e) {
-            e.printStackTrace();
+            fileChannel.close();
+            fileChannel = null;
+            throw e;
+        }
+    }
+
+    @Override
+    public void release() {
+        if (buffer != null)
+            BufferPool.get().release(buffer);
+        buffer = null;
+
+        // the transfer may have been cut short
+        if (fileChannel != null) {
+            try {
+                fileChannel.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
         }
     }
 
@@ -46,42 +116,90 @@ public class SendFileSocket implements ISocketManager {
     @Override
     public void onSelect(SelectionKey key) {
         if (key.isWritable()) {
-            sendFile(key);
+            try {
+                sendChunks(key);
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
         }
     }
 
-    @SuppressWarnings("MagicConstant")
-    private void sendFile(SelectionKey key) {
+    /**
+     * Sends as much as the socket takes, stops whenever its send buffer is full and resumes on the next OP_WRITE
+     */
+    private void sendChunks(SelectionKey key) throws IOException {
         SocketChannel channel = (SocketChannel) key.channel();
 
-        try {
-            int n, wrote_n;
-            do {
-                if ((n = fileChannel.read(buffer)) < 0 && buffer.position() == 0) {
-                    // End connection
-                    fileChannel.close();
-
-                    if (afterTransferSocketManager == null)
-                        key.channel().close();
-                    else {
-                        afterTransferSocketManager.init();
-                        key.interestOps(afterTransferSocketManager.interestOps());
-                        key.attach(afterTransferSocketManager);
-
-                        key.selector().wakeup();
-                    }
-                    break;
-                }
-//                System.out.println("Read from file " + n);
-                buffer.flip();
-
-                wrote_n = channel.write(buffer);
-//                System.out.println("Wrote to socket " + wrote_n);
-                buffer.compact();
-            } while (wrote_n > 0);
+        while (true) {
+            if (trailer.hasRemaining()) {
+                channel.write(trailer);
+                if (trailer.hasRemaining())
+                    return;
+            }
 
-        } catch (IOException e) {
-            e.printStackTrace();
+            if (position >= size) {
+                endTransfer(key);
+                return;
+            }
+
+            long n = zeroCopy ? transferChunk(channel) : sendChunk(channel);
+            if (n <= 0)
+                return;
+
+            if (position == chunkEnd && !buffer.hasRemaining())
+                nextChunk();
+        }
+    }
+
+    /**
+     * Zero-copy path, the kernel moves the file's pages straight into the socket
+     */
+    private long transferChunk(SocketChannel channel) throws IOException {
+        long n = fileChannel.transferTo(position, chunkEnd - position, channel);
+        if (n > 0)
+            position += n;
+        return n;
+    }
+
+    /**
+     * Buffered path, position counts the bytes read from the file, the buffer holds the ones not yet written
+     */
+    private long sendChunk(SocketChannel channel) throws IOException {
+        if (!buffer.hasRemaining()) {
+            buffer.clear();
+            buffer.limit((int) Math.min(buffer.capacity(), chunkEnd - position));
+
+            int n = fileChannel.read(buffer, position);
+            if (n < 0)
+                throw new IOException("File " + filepath + " ended at " + position + ", expected " + size + " bytes");
+            position += n;
+            buffer.flip();
+        }
+
+        return channel.write(buffer);
+    }
+
+    /**
+     * Queues the checksum of the chunk just sent and moves on to the next one
+     */
+    private void nextChunk() throws IOException {
+        trailer.clear();
+        trailer.putInt(FileChunks.checksum(fileChannel, chunkStart, chunkEnd, buffer)).flip();
+        buffer.limit(0);
+
+        chunkStart = chunkEnd;
+        chunkEnd = FileChunks.chunkEnd(chunkStart, size);
+    }
+
+    private void endTransfer(SelectionKey key) throws IOException {
+        // End connection
+        fileChannel.close();
+
+        if (afterTransferSocketManager == null)
+            key.channel().close();
+        else {
+            ISocketManager.transitionTo(key, afterTransferSocketManager);
+            key.selector().wakeup();
         }
     }
 
@@ -1,43 +1,65 @@
 package main.g24.socket.managers;
 
 import main.g24.Peer;
+import main.g24.socket.BufferPool;
 import main.g24.socket.managers.dispatchers.DefaultSocketManagerDispatcher;
 import main.g24.socket.managers.dispatchers.ISocketManagerDispatcher;
 import main.g24.socket.messages.ISocketMessage;
-import main.g24.socket.messages.SocketMessageFactory;
+import main.g24.socket.messages.MessageCodec;
+import main.g24.socket.messages.MessageDecoder;
 
 import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.nio.channels.SelectionKey;
 import java.nio.channels.SocketChannel;
-import java.nio.charset.StandardCharsets;
 import java.util.function.Supplier;
 
-
-import static main.g24.Peer.BLOCK_SIZE;
-
 public class SocketManager implements ISocketManager {
 
-    public static final String MESSAGE_TERMINATOR = "\r\n\r\n";
-
-    private final ByteBuffer buffer = ByteBuffer.allocate(BLOCK_SIZE);
+    private ByteBuffer buffer;
+    private final MessageDecoder decoder = new MessageDecoder();
 
     private ISocketManagerDispatcher dispatcher = null;
     private final Supplier<ISocketManager> connect;
 
+    // keep reading requests after one that needs no further handling (pooled connections)
+    private final boolean keepAlive;
+    // told if the connection fails or ends before this manager handed it on, may be null
+    private final Runnable onLost;
+
     public SocketManager(Peer peer) {
         this.dispatcher = new DefaultSocketManagerDispatcher(peer);
         this.connect = null;
+        this.keepAlive = true;
+        this.onLost = null;
     }
 
     public SocketManager(ISocketManagerDispatcher dispatcher) {
+        this(dispatcher, null);
+    }
+
+    /**
+     * @param onLost called if the connection is refused, closed or broken before a message is dispatched
+     */
+    public SocketManager(ISocketManagerDispatcher dispatcher, Runnable onLost) {
         this.dispatcher = dispatcher;
         this.connect = null;
+        this.keepAlive = false;
+        this.onLost = onLost;
     }
 
     public SocketManager(Supplier<ISocketManager> connect) {
+        this(connect, null);
+    }
+
+    /**
+     * @param onLost called if the connection is refused, closed or broken before it's handed to the next manager
+     */
+    public SocketManager(Supplier<ISocketManager> connect, Runnable onLost) {
         this.dispatcher = null;
         this.connect = connect;
+        this.keepAlive = false;
+        this.onLost = onLost;
     }
 
     public void onSelect(SelectionKey key) {
@@ -59,18 +81,37 @@ public class SocketManager implements ISocketManager {
                     }
                 } catch (IOException e) {
                     e.printStackTrace();
-                    try {
-                        key.channel().close();
-                    } catch (IOException ioException) {
-                        ioException.printStackTrace();
-                    }
+                    lose(key);
                 }
             }
         }
     }
 
+    /**
+     * Closes a connection that failed or ended early and tells whoever was waiting on it
+     */
+    private void lose(SelectionKey key) {
+        try {
+            key.channel().close();
+        } catch (IOException ioException) {
+            ioException.printStackTrace();
+        }
+        if (onLost != null)
+            onLost.run();
+    }
+
+    @Override
+    public void init() throws IOException {
+        // still connecting, the next manager does the reading
+        if (this.connect == null)
+            buffer = BufferPool.get().lease(BufferPool.HEADER_SIZE);
+    }
+
     @Override
-    public void init() {}
+    public void release() {
+        BufferPool.get().release(buffer);
+        buffer = null;
+    }
 
     @Override
     public int interestOps() {
@@ -84,47 +125,88 @@ public class SocketManager implements ISocketManager {
             int n;
             // read from tcp channel
             while ((n = client.read(buffer)) > 0) {
-
-                String s = new String(buffer.array(), StandardCharsets.US_ASCII);
-
-                if (s.contains(MESSAGE_TERMINATOR)) {
-                    if (!parseRequest(key, s)) {
-                        // Unkown request, closing connection
-                        key.channel().close();
-                    }
+                if (!processBuffer(key))
                     return;
-                }
             }
 
             if (n < 0) {
-                key.channel().close();
+                lose(key);
             }
         } catch (IOException e) {
             e.printStackTrace();
+            lose(key);
         }
     }
 
-    private boolean parseRequest(SelectionKey key, String request) {
+    @Override
+    public void handover(SelectionKey key, ByteBuffer pending) throws IOException {
+        if (pending.remaining() > buffer.remaining()) {
+            int size = buffer.position() + pending.remaining();
+            if (size > MessageCodec.MAX_FRAME) {
+                System.err.println("[X] Pending bytes don't fit in " + MessageCodec.MAX_FRAME + " bytes, closing connection");
+                lose(key);
+                return;
+            }
+            buffer = BufferPool.get().resize(buffer, size);
+        }
 
-        String[] params = request.split(MESSAGE_TERMINATOR);
+        buffer.put(pending);
+        processBuffer(key);
+    }
 
-        try {
-            ISocketMessage message = SocketMessageFactory.from(params[0]);
-            if (message == null)
+    /**
+     * Handles every complete message in the buffer (in write mode)
+     * @return true if this manager should keep reading requests from the channel
+     */
+    private boolean processBuffer(SelectionKey key) throws IOException {
+        buffer.flip();
+
+        // a kept alive connection may carry several requests back to back
+        ISocketMessage message;
+        while ((message = decoder.next(buffer)) != null) {
+            if (!parseRequest(key, message))
                 return false;
+        }
 
-            System.out.println("[<] " + message);
+        buffer.compact();
 
-            ISocketManager iSocketManager = this.dispatcher.dispatch(message, key);
-            if (iSocketManager == null)
+        if (!buffer.hasRemaining()) {
+            // the pending frame is bigger than the buffer, move it to one it fits in
+            int size = MessageCodec.grownSize(buffer.duplicate().flip());
+            if (size < 0) {
+                System.err.println("[X] Header doesn't fit in " + MessageCodec.MAX_FRAME + " bytes, closing connection");
+                lose(key);
                 return false;
+            }
+            buffer = BufferPool.get().resize(buffer, size);
+        }
+        else if (buffer.position() == 0 && buffer.capacity() > BufferPool.HEADER_SIZE) {
+            // done with the large frame, don't hold on to its buffer
+            buffer = BufferPool.get().resize(buffer, BufferPool.HEADER_SIZE);
+        }
+        return true;
+    }
 
-            ISocketManager.transitionTo(key, iSocketManager);
+    /**
+     * Handles one request, moving on to the next manager or closing the connection
+     * @return true if this manager should keep reading requests from the channel
+     */
+    private boolean parseRequest(SelectionKey key, ISocketMessage message) throws IOException {
 
-            return true;
-        } catch (IOException e) {
-            e.printStackTrace();
+        if (!message.get_type().quiet())
+            System.out.println("[<] " + message);
+
+        ISocketManager iSocketManager = this.dispatcher.dispatch(message, key);
+        if (iSocketManager != null) {
+            // whatever came after the header (e.g. the start of a file) belongs to the next manager
+            ISocketManager.transitionTo(key, iSocketManager, buffer);
             return false;
         }
+
+        if (this.keepAlive)
+            return true;
+
+        key.channel().close();
+        return false;
     }
 }
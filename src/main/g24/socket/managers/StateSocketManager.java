@@ -1,33 +1,44 @@
 package main.g24.socket.managers;
 
-import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
-import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
 import java.nio.ByteBuffer;
+import java.nio.channels.CancelledKeyException;
 import java.nio.channels.SelectionKey;
 import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 import main.g24.Peer;
+import main.g24.socket.BufferPool;
 import main.g24.socket.messages.PeerInfo;
 
+/**
+ * Receives the state of a peer this one backs up, until the sender closes the connection.
+ * What arrives goes through a pipe to a decoder thread that reads the state as it comes in,
+ * so it's never all in memory, whatever its size. The pipe holds at most PIPE_CHUNKS reads,
+ * the channel isn't read while it's full and the decoder starts it again once it caught up
+ */
 public class StateSocketManager implements ISocketManager {
 
+    private static final int PIPE_CHUNKS = 4;
+
+    private static final ExecutorService decoders = Executors.newCachedThreadPool(task -> {
+        Thread thread = new Thread(task, "state-decoder");
+        thread.setDaemon(true);
+        return thread;
+    });
 
     private final Peer peer;
     private ByteBuffer buffer;
-    private final int interestOp;
-
+    private Pipe pipe;
 
-    public StateSocketManager(Peer peer, int interestOp) {
-        this.peer = peer;
-        this.interestOp = interestOp;
-    }
 
     public StateSocketManager(Peer peer) {
         this.peer = peer;
-        this.interestOp = SelectionKey.OP_READ;
     }
 
     @Override
@@ -35,94 +46,215 @@ public class StateSocketManager implements ISocketManager {
         if (key.isReadable()) {
             receiveState(key);
         }
-        else if (key.isWritable()) {
-            sendState(key);
-        }
     }
 
     @Override
-    public void init() {
-        if (this.interestOp == SelectionKey.OP_WRITE) {
-            ByteArrayOutputStream byteStream = new ByteArrayOutputStream();
-
-            PeerInfo info = PeerInfo.from(peer);
+    public void init() throws IOException {
+        buffer = BufferPool.get().lease(Peer.BLOCK_SIZE);
+        pipe = new Pipe();
 
-            ObjectOutputStream objStream;
-            try {
-                objStream = new ObjectOutputStream(byteStream);
-                objStream.writeObject(info);
-                objStream.flush();
+        Pipe pipe = this.pipe;
+        decoders.execute(() -> decode(pipe));
+    }
 
-            } catch (IOException e) {
-                e.printStackTrace();
-            }
+    @Override
+    public void release() {
+        BufferPool.get().release(buffer);
+        buffer = null;
+        // no-op if it all arrived
+        pipe.end(new IOException("Connection closed before the whole state arrived"));
+    }
 
-            byte[] obj = byteStream.toByteArray();
-            buffer = ByteBuffer.wrap(obj);
-        }
-        else {
-            buffer = ByteBuffer.allocate(Peer.BLOCK_SIZE);
-            buffer.clear();
-        }
+    @Override
+    public void handover(SelectionKey key, ByteBuffer pending) {
+        // start of the state, read along with the STATE header
+        byte[] chunk = new byte[pending.remaining()];
+        pending.get(chunk);
+        pipe.push(chunk);
     }
 
     @Override
     public int interestOps() {
-        return this.interestOp;
+        return SelectionKey.OP_READ;
     }
 
     private void receiveState(SelectionKey key) {
         SocketChannel client = (SocketChannel) key.channel();
 
-        int n;
         try {
-            // read from tcp channel
-            while ((n = client.read(buffer)) > 0) { }
+            while (true) {
+                if (pipe.isFull()) {
+                    // the decoder is behind, stopped before the pipe can ask for it to start again
+                    key.interestOps(0);
+                    if (!pipe.hasRoom(() -> resume(key)))
+                        return;
+                    key.interestOps(SelectionKey.OP_READ);
+                }
 
-            if (n < 0) {
-                buffer.flip();
+                int n = client.read(buffer);
+                if (buffer.position() > 0) {
+                    buffer.flip();
+                    byte[] chunk = new byte[buffer.remaining()];
+                    buffer.get(chunk);
+                    buffer.clear();
 
-                PeerInfo info = (PeerInfo) byteToObj(buffer.array());
-                peer.savePeerInfo(info);
-                client.close();
-            }
+                    // the decoder is done with the state, or gave up on it
+                    if (!pipe.push(chunk)) {
+                        client.close();
+                        return;
+                    }
+                }
 
+                if (n < 0) {
+                    pipe.end(null);
+                    client.close();
+                    return;
+                }
+                if (n == 0)
+                    return;
+            }
         } catch (IOException e) {
             e.printStackTrace();
-        } catch (ClassNotFoundException e) {
-            e.printStackTrace();
-            System.err.println("[X] Couldn't deserialize object.");
+            System.err.println("[X] Couldn't receive state.");
+            pipe.end(e);
+            try {
+                client.close();
+            } catch (IOException ioException) {
+                ioException.printStackTrace();
+            }
         }
     }
 
-    private void sendState(SelectionKey key) {
-        SocketChannel client = (SocketChannel) key.channel();
-
-        int n;
+    /**
+     * Starts reading the channel again, from the decoder thread
+     */
+    private static void resume(SelectionKey key) {
         try {
-            // read from tcp channel
-            while ((n = client.write(buffer)) > 0) {}
-
-            // wrote everything (close)
-            if (!buffer.hasRemaining()) {
-                client.close();
-            }
+            key.interestOps(SelectionKey.OP_READ);
+            key.selector().wakeup();
+        } catch (CancelledKeyException e) {
+            // closed meanwhile, nothing left to read
+        }
+    }
 
-            if (n < 0) {
-                System.err.println("[X] Socket closed before sending.");
-                client.close();
-            }
+    private void decode(Pipe pipe) {
+        try (pipe) {
+            peer.savePeerInfo(PeerInfo.read(pipe));
         } catch (IOException e) {
-            e.printStackTrace();
+            System.err.println("[X] Bad state received: " + e.getMessage());
         }
     }
 
-    public static Object byteToObj(byte[] bytes) throws IOException, ClassNotFoundException {
-        ByteArrayInputStream byteStream = new ByteArrayInputStream(bytes);
-        ObjectInputStream objStream = new ObjectInputStream(byteStream);
+    /**
+     * Chunks read by the selector thread, for the decoder thread to read as a stream
+     */
+    private static class Pipe extends InputStream {
 
-        return objStream.readObject();
-    }
+        private final Deque<byte[]> chunks = new ArrayDeque<>();
+        private byte[] current;
+        private int position;
+        // the state all arrived (failure null) or the connection broke
+        private boolean ended;
+        private IOException failure;
+        // the decoder is done, nothing more is taken
+        private boolean closed;
+        // run once there's room again
+        private Runnable onRoom;
 
+        synchronized boolean isFull() {
+            return !closed && chunks.size() >= PIPE_CHUNKS;
+        }
+
+        /**
+         * @param onRoom run once there's room again, if there isn't now
+         * @return whether another chunk can be pushed
+         */
+        synchronized boolean hasRoom(Runnable onRoom) {
+            if (closed || chunks.size() < PIPE_CHUNKS)
+                return true;
+            this.onRoom = onRoom;
+            return false;
+        }
 
+        /**
+         * @return false if the decoder is done and the chunk was dropped
+         */
+        synchronized boolean push(byte[] chunk) {
+            if (closed)
+                return false;
+            chunks.add(chunk);
+            notifyAll();
+            return true;
+        }
+
+        /**
+         * @param failure why the state is cut short, null if it all arrived
+         */
+        synchronized void end(IOException failure) {
+            if (ended)
+                return;
+            ended = true;
+            this.failure = failure;
+            notifyAll();
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] one = new byte[1];
+            return read(one, 0, 1) < 0 ? -1 : one[0] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0)
+                return 0;
+
+            Runnable wake = null;
+            int n;
+            synchronized (this) {
+                while (current == null || position == current.length) {
+                    current = chunks.poll();
+                    position = 0;
+                    if (current != null) {
+                        wake = onRoom;
+                        onRoom = null;
+                        continue;
+                    }
+                    if (ended) {
+                        if (failure != null)
+                            throw failure;
+                        return -1;
+                    }
+                    try {
+                        wait();
+                    } catch (InterruptedException e) {
+                        throw new InterruptedIOException("Interrupted while waiting for the state");
+                    }
+                }
+
+                n = Math.min(len, current.length - position);
+                System.arraycopy(current, position, b, off, n);
+                position += n;
+            }
+
+            if (wake != null)
+                wake.run();
+            return n;
+        }
+
+        @Override
+        public void close() {
+            Runnable wake;
+            synchronized (this) {
+                closed = true;
+                chunks.clear();
+                current = null;
+                wake = onRoom;
+                onRoom = null;
+            }
+            // the selector thread may be waiting for room, it finds the pipe closed instead
+            if (wake != null)
+                wake.run();
+        }
+    }
 }
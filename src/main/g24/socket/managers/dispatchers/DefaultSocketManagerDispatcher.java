@@ -2,7 +2,11 @@ package main.g24.socket.managers.dispatchers;
 
 import main.g24.FileDetails;
 import main.g24.Peer;
+import main.g24.ReplicationPlanner;
+import main.g24.chord.ChordId;
 import main.g24.chord.Node;
+import main.g24.socket.FileChunks;
+import main.g24.socket.managers.DurableAckSocket;
 import main.g24.socket.managers.ISocketManager;
 import main.g24.socket.managers.StateSocketManager;
 import main.g24.socket.managers.ReceiveFileSocket;
@@ -11,12 +15,13 @@ import main.g24.socket.managers.SocketManager;
 import main.g24.socket.messages.*;
 
 import java.io.IOException;
+import java.net.InetSocketAddress;
 import java.nio.channels.SelectionKey;
 import java.nio.channels.SocketChannel;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
-import java.util.Collection;
+import java.util.List;
 
 
 public class DefaultSocketManagerDispatcher implements ISocketManagerDispatcher {
@@ -33,88 +38,40 @@ public class DefaultSocketManagerDispatcher implements ISocketManagerDispatcher
             return switch (message.get_type()) {
                 case BACKUP -> {
                     BackupMessage fileMessage = (BackupMessage) message;
-                    boolean hadOld = peer.isResponsibleForFile(fileMessage.filehash);
-
-                    if (hadOld) {
-                        peer.deleteFileCopies(fileMessage.get_filehash());
+                    // an interrupted backup of this file left off where its .part does, read before anything is cleaned up
+                    long offset = FileChunks.clampOffset(
+                            FileChunks.resumeOffset(Paths.get(peer.getStoragePath(fileMessage.filehash))),
+                            fileMessage.file_size
+                    );
+
+                    if (peer.isResponsibleForFile(fileMessage.filehash)) {
+                        if (peer.storesFile(fileMessage.filehash)) {
+                            // a complete older backup, replaced by this one from the start
+                            peer.deleteFileCopies(fileMessage.get_filehash());
+                            offset = 0;
+                        } else {
+                            // only an unfinished transfer, not a copy, its chunks are kept
+                            peer.removeFileFromKey(fileMessage.filehash);
+                        }
                     }
 
                     if (peer.hasCapacity(fileMessage.get_size())) {
                         peer.addFileToKey(fileMessage.get_filehash(), fileMessage.get_size(), fileMessage.get_rep_degree(), this.peer.get_id());
-                        peer.addStoredFile(fileMessage.get_filehash(), fileMessage.get_size());
 
-                        yield new ReceiveFileSocket(peer, (ISocketFileMessage) message, () -> {
-                            AckMessage ack = new AckMessage(peer.get_id(), true);
-                            try {
-                                ack.send((SocketChannel) key.channel());
-                            } catch (IOException e) {
-                                e.printStackTrace();
-                            }
+                        new ResumeMessage(peer.get_id(), offset).send((SocketChannel) key.channel());
+
+                        yield new ReceiveFileSocket(peer, fileMessage, offset, () -> {
+                            // only stored once it's all here, as with PUTFILE, and only acknowledged once that's on disk
+                            DurableAckSocket ack = new DurableAckSocket(peer, peer.addStoredFile(fileMessage.filehash, fileMessage.file_size));
 
                             // Replication go bbbbrrrrr
-                            ReplicateMessage repl = ReplicateMessage.from(peer, fileMessage.filehash, fileMessage.file_size, fileMessage.rep_degree - 1);
-                            try {
-                                SocketChannel socket = SocketChannel.open();
-                                socket.configureBlocking(false);
-                                socket.connect(peer.get_successor().get_socket_address());
-
-                                ISocketManager repl_manager = new SocketManager(() -> {
-                                    try {
-                                        repl.send(socket);
-                                    } catch (IOException e) {
-                                        e.printStackTrace();
-                                    }
-                                    return null;
-                                });
-
-                                peer.getSelector().register(socket, repl_manager);
-                            } catch (IOException e) {
-                                e.printStackTrace();
-                            }
-                            return null;
+                            ReplicationPlanner.replicate(peer, fileMessage.filehash, fileMessage.file_size, fileMessage.rep_degree - 1, List.of());
+                            return ack;
                         });
                     }
 
                     System.err.println("BACKUP TO ANOTHER NODE DUE TO LACK OF STORAGE NOT YET IMPLEMENTED");
-                    yield null;
-                }
-
-                case REPLICATE -> {
-                    ReplicateMessage fileMessage = (ReplicateMessage) message;
-
-                    if (fileMessage.origin_id == peer.get_id())
-                        yield null;
-
-                    boolean decreased = peer.hasCapacity(fileMessage.file_size);
-                    if (decreased) {
-                        ReplicateDispatcher.initiateReplicate(peer, fileMessage.filehash);
-
-                        if (fileMessage.rep_degree - 1 <= 0)
-                            yield null;
-                    }
-
-                    // Redirect to successor
-                    SocketChannel channel = SocketChannel.open();
-                    channel.configureBlocking(false);
-                    channel.connect(peer.get_successor().get_socket_address());
-
-                    ReplicateMessage chainMessage = ReplicateMessage.from(peer, fileMessage, decreased);
-                    ISocketManager chainManager = new SocketManager(() -> {
-                        try {
-                            chainMessage.send(channel);
-                        } catch (IOException e) {
-                            e.printStackTrace();
-                        }
-                        return null;
-                    });
-                    peer.getSelector().register(channel, chainManager);
-
-                    yield null;
-                }
-
-                case REPLICATED -> {
-                    ReplicatedMessage replicated = (ReplicatedMessage) message;
-                    peer.addResponsible(replicated.filehash, replicated.sender_id);
+                    new AckMessage(peer.get_id(), false).send((SocketChannel) key.channel());
                     yield null;
                 }
 
@@ -147,16 +104,17 @@ public class DefaultSocketManagerDispatcher implements ISocketManagerDispatcher
                     GetFileMessage fileMessage = (GetFileMessage) message;
                     ISocketMessage reply;
                     ISocketManager futureManager = null;
-                    Collection<Integer> peers_storing;
+                    ChordId chosen_peer;
                     if (peer.storesFile(fileMessage.filehash)) {
                         Path path = Paths.get(peer.getStoragePath(fileMessage.filehash));
-                        reply = FileHereMessage.from(peer, peer.get_id(), fileMessage.filehash, Files.size(path));
-                        futureManager = new SendFileSocket(path);
-                    } else if ((peers_storing = peer.findWhoStores(fileMessage.filehash)) == null || peers_storing.isEmpty()) {
+                        long size = Files.size(path);
+                        long offset = FileChunks.clampOffset(fileMessage.offset, size);
+                        reply = FileHereMessage.from(peer, peer.get_id(), fileMessage.filehash, size, offset);
+                        futureManager = new SendFileSocket(path, offset, null);
+                    } else if ((chosen_peer = peer.findWhoStores(fileMessage.filehash)) == null) {
                         reply = new AckMessage(peer.get_id(), false);
                     } else {
-                        int chosen_peer = peers_storing.stream().findAny().get();
-                        reply = FileHereMessage.from(peer, chosen_peer, fileMessage.filehash, -1);
+                        reply = FileHereMessage.from(peer, chosen_peer, fileMessage.filehash, -1, 0);
                     }
                     reply.send((SocketChannel) key.channel());
                     yield futureManager;
@@ -164,32 +122,114 @@ public class DefaultSocketManagerDispatcher implements ISocketManagerDispatcher
 
                 case STATE -> new StateSocketManager(peer);
 
+                case STATEDELTA -> {
+                    boolean applied = peer.applyStateDelta((StateDeltaMessage) message);
+                    new AckMessage(peer.get_id(), applied).send((SocketChannel) key.channel());
+                    yield null;
+                }
+
+                case LOCATE -> {
+                    LocateMessage locate = (LocateMessage) message;
+                    FileDetails fd = peer.getFileDetails(locate.filehash);
+
+                    ISocketMessage reply = fd == null
+                            ? new AckMessage(peer.get_id(), false)
+                            : new HoldersMessage(peer.get_id(), locate.filehash, fd.getSize(), fd.getFileCopies());
+                    reply.send((SocketChannel) key.channel());
+                    yield null;
+                }
+
+                case GETRANGE -> {
+                    GetRangeMessage range = (GetRangeMessage) message;
+                    SocketChannel channel = (SocketChannel) key.channel();
+
+                    if (!peer.storesFile(range.filehash)) {
+                        new AckMessage(peer.get_id(), false).send(channel);
+                        yield null;
+                    }
+
+                    Path path = Paths.get(peer.getStoragePath(range.filehash));
+                    FileHereMessage.from(peer, peer.get_id(), range.filehash, Files.size(path), range.offset).send(channel);
+
+                    // the requester asks for its next range on this same connection
+                    yield new SendFileSocket(path, range.offset, range.length, new SocketManager(peer));
+                }
+
+                case PUTFILE -> {
+                    PutFileMessage put = (PutFileMessage) message;
+                    SocketChannel channel = (SocketChannel) key.channel();
+
+                    if (peer.storesFile(put.filehash) || !peer.hasCapacity(put.file_size)) {
+                        new AckMessage(peer.get_id(), false).send(channel);
+                        yield null;
+                    }
+
+                    // ready to receive, from wherever an interrupted push left off
+                    long offset = FileChunks.clampOffset(FileChunks.resumeOffset(Paths.get(peer.getStoragePath(put.filehash))), put.file_size);
+                    new ResumeMessage(peer.get_id(), offset).send(channel);
+
+                    yield new ReceiveFileSocket(peer, put, offset,
+                            () -> new DurableAckSocket(peer, peer.addStoredFile(put.filehash, put.file_size)));
+                }
+
                 case FILEEXISTS -> {
                     FileExistsMessage exists = (FileExistsMessage) message;
-                    AckMessage reply = new AckMessage(peer.get_id(), peer.isResponsible(exists.filehash));
+                    AckMessage reply = new AckMessage(peer.get_id(), peer.isResponsibleForFile(exists.filehash));
                     reply.send((SocketChannel) key.channel());
                     yield null;
                 }
 
                 case REPLLOST -> {
                     ReplicationLostMessage lost = (ReplicationLostMessage) message;
-                    FileDetails fd;
-                    if ((fd = peer.removeTrackedCopy(lost.filehash, lost.peer_lost)) != null && fd.lacksReplication()) {
-                        ReplicateMessage replMessage = ReplicateMessage.from(peer, lost.filehash, fd.getSize(), fd.missingReplications());
-
-                        SocketChannel socket = SocketChannel.open();
-                        socket.configureBlocking(false);
-                        socket.connect(peer.get_successor().get_socket_address());
-
-                        peer.getSelector().register(socket, new SocketManager(() -> {
-                            try {
-                                replMessage.send(socket);
-                            } catch (IOException e) {
-                                e.printStackTrace();
-                            }
-                            return null;
-                        }));
-                    }
+                    peer.replicationLost(lost.filehash, lost.peer_lost);
+                    yield null;
+                }
+
+                // ring maintenance, answered from the local tables only
+                // any node of the peer can take a lookup on, the one closest before the key does
+                case FIND_SUCCESSOR -> {
+                    FindSuccessorMessage find = (FindSuccessorMessage) message;
+                    peer.route(find.key).lookup_step(find.key).send((SocketChannel) key.channel());
+                    yield null;
+                }
+
+                case GET_PREDECESSOR -> {
+                    Node target = peer.vnode(((GetPredecessorMessage) message).target_id);
+                    NodeMessage reply = target == null
+                            ? NodeMessage.none(peer.get_id())
+                            : target.describe(NodeMessage.FOUND, target.get_predecessor());
+                    reply.send((SocketChannel) key.channel());
+                    yield null;
+                }
+
+                case GET_SUCCESSOR -> {
+                    Node target = peer.vnode(((GetSuccessorMessage) message).target_id);
+                    NodeMessage reply = target == null
+                            ? NodeMessage.none(peer.get_id())
+                            : target.describe(NodeMessage.FOUND, target.get_successor());
+                    reply.send((SocketChannel) key.channel());
+                    yield null;
+                }
+
+                case GET_SUCCESSORS -> {
+                    Node target = peer.vnode(((GetSuccessorsMessage) message).target_id);
+                    SuccessorsMessage reply = target == null
+                            ? new SuccessorsMessage(peer.get_id(), List.of())
+                            : target.describe_successors();
+                    reply.send((SocketChannel) key.channel());
+                    yield null;
+                }
+
+                case PING -> {
+                    peer.describe(NodeMessage.FOUND, peer).send((SocketChannel) key.channel());
+                    yield null;
+                }
+
+                case NOTIFY -> {
+                    NotifyMessage notify = (NotifyMessage) message;
+                    Node target = peer.vnode(notify.target_id);
+                    if (target != null)
+                        target.notify(target.node(notify.sender_id, new InetSocketAddress(notify.sender_ip, notify.sender_port)));
                     yield null;
                 }
 
@@ -1,9 +1,11 @@
 package main.g24.socket.managers.dispatchers;
 
+import main.g24.FileId;
 import main.g24.Peer;
+import main.g24.chord.ChordId;
 import main.g24.chord.INode;
-import main.g24.chord.Node;
 import main.g24.monitors.GeneralMonitor;
+import main.g24.socket.FileChunks;
 import main.g24.socket.managers.ISocketManager;
 import main.g24.socket.managers.ReceiveFileSocket;
 import main.g24.socket.managers.SocketManager;
@@ -17,14 +19,18 @@ import java.rmi.RemoteException;
 
 public class RestoreDispatcher implements ISocketManagerDispatcher {
 
+    // times a dropped transfer is resumed before the restore gives up
+    private static final int MAX_RESUMES = 3;
+
     private final Peer peer;
-    private final int key;
-    private int last_hop;
-    private final String fileHash;
+    private final ChordId key;
+    private ChordId last_hop;
+    private final FileId fileHash;
     private final Path path;
     private final GeneralMonitor monitor;
+    private int resumes;
 
-    public RestoreDispatcher(Peer peer, int key, int last_hop, String fileHash, Path path, GeneralMonitor monitor) {
+    public RestoreDispatcher(Peer peer, ChordId key, ChordId last_hop, FileId fileHash, Path path, GeneralMonitor monitor) {
         this.peer = peer;
         this.key = key;
         this.last_hop = last_hop;
@@ -38,17 +44,32 @@ public class RestoreDispatcher implements ISocketManagerDispatcher {
         return null;
     }
 
+    /**
+     * Asks the peer the file was coming from for the rest of it
+     */
+    private void onTransferLost() {
+        if (resumes++ >= MAX_RESUMES) {
+            if (monitor != null)
+                monitor.resolve("failure");
+            return;
+        }
+
+        System.out.println("[#] Resuming restore of [" + fileHash.toShortString() + "] from " + last_hop);
+        requestFile(last_hop);
+    }
+
     @Override
     public ISocketManager dispatch(ISocketMessage message, SelectionKey key) {
         return switch (message.get_type()) {
             case FILEHERE -> {
                 FileHereMessage here = (FileHereMessage) message;
-                if (here.file_at_id == last_hop) {
+                if (here.file_at_id.equals(last_hop)) {
                     // File will be transfered
-                    yield new ReceiveFileSocket(peer, here, path, this::onFileRetrieval);
+                    yield new ReceiveFileSocket(peer, here, path, here.offset, this::onFileRetrieval)
+                            .onTransferLost(this::onTransferLost);
                 } else {
                     // File elsewhere
-                    yield redirectGetFile(here);
+                    yield requestFile(here.file_at_id);
                 }
             }
 
@@ -66,13 +87,13 @@ public class RestoreDispatcher implements ISocketManagerDispatcher {
         };
     }
 
-    private ISocketManager redirectGetFile(FileHereMessage fileHere) {
+    private ISocketManager requestFile(ChordId file_at_id) {
         try {
-            GetFileMessage message = GetFileMessage.from(peer, fileHash);
+            GetFileMessage message = GetFileMessage.from(peer, fileHash, FileChunks.resumeOffset(path));
             if (message == null)
                 return null;
 
-            INode file_owner = peer.find_successor(fileHere.file_at_id);
+            INode file_owner = peer.find_successor(file_at_id);
             this.last_hop = file_owner.get_id();
 
             SocketChannel socket = SocketChannel.open();
@@ -99,13 +120,13 @@ public class RestoreDispatcher implements ISocketManagerDispatcher {
         return null;
     }
 
-    public static boolean initiateRestore(Peer peer, String fileHash, Path path, GeneralMonitor monitor) {
+    public static boolean initiateRestore(Peer peer, FileId fileHash, Path path, GeneralMonitor monitor) {
         try {
-            GetFileMessage message = GetFileMessage.from(peer, fileHash);
+            GetFileMessage message = GetFileMessage.from(peer, fileHash, FileChunks.resumeOffset(path));
             if (message == null)
                 return false;
 
-            int file_key = Node.chordID(fileHash);
+            ChordId file_key = fileHash.key();
             INode key_owner = peer.find_successor(file_key);
 
             SocketChannel socket = SocketChannel.open();
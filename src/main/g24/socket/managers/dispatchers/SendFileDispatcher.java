@@ -0,0 +1,43 @@
+package main.g24.socket.managers.dispatchers;
+
+import main.g24.socket.managers.ISocketManager;
+import main.g24.socket.managers.SendFileSocket;
+import main.g24.socket.messages.AckMessage;
+import main.g24.socket.messages.ISocketMessage;
+import main.g24.socket.messages.ResumeMessage;
+
+import java.nio.channels.SelectionKey;
+import java.nio.file.Path;
+import java.util.function.Supplier;
+
+/**
+ * Waits for the receiver to tell where the file should start (RESUME) and sends it from there on,
+ * a NACK means the receiver won't take it
+ */
+public class SendFileDispatcher implements ISocketManagerDispatcher {
+
+    private final Path path;
+    private final ISocketManager afterTransfer;
+    private final Supplier<ISocketManager> onRefused;
+
+    public SendFileDispatcher(Path path, ISocketManager afterTransfer, Supplier<ISocketManager> onRefused) {
+        this.path = path;
+        this.afterTransfer = afterTransfer;
+        this.onRefused = onRefused;
+    }
+
+    @Override
+    public ISocketManager dispatch(ISocketMessage message, SelectionKey key) {
+        return switch (message.get_type()) {
+            case RESUME -> {
+                ResumeMessage resume = (ResumeMessage) message;
+                yield new SendFileSocket(path, resume.offset, afterTransfer);
+            }
+            case ACK -> {
+                AckMessage ack = (AckMessage) message;
+                yield ack.get_status() ? null : onRefused.get();
+            }
+            default -> null;
+        };
+    }
+}
@@ -1,16 +1,21 @@
 package main.g24.socket.messages;
 
+import main.g24.chord.ChordId;
+
+import java.nio.ByteBuffer;
+
 public class AckMessage implements ISocketMessage {
     // <PROTOCOL> <SENDER_ID> <STATUS>
 
-    public final int sender_id, status;
+    public final ChordId sender_id;
+    public final int status;
 
-    public AckMessage(int sender_id, int status) {
+    public AckMessage(ChordId sender_id, int status) {
         this.sender_id = sender_id;
         this.status = status;
     }
 
-    public AckMessage(int sender_id, boolean status) {
+    public AckMessage(ChordId sender_id, boolean status) {
         this(sender_id, status ? 1 : 0);
     }
 
@@ -25,7 +30,7 @@ public class AckMessage implements ISocketMessage {
 
     @Override
     public String gen_header() {
-        return String.format("ACK %d %d", sender_id, status);
+        return String.format("ACK %s %d", sender_id, status);
     }
 
     @Override
@@ -38,8 +43,23 @@ public class AckMessage implements ISocketMessage {
             return null;
 
         return new AckMessage(
-                Integer.parseInt(args[1]), // sender id
+                ChordId.parse(args[1]), // sender id
                 Integer.parseInt(args[2]) // status
         );
     }
+
+    @Override
+    public int body_size() {
+        return ChordId.BYTES + 4;
+    }
+
+    @Override
+    public void encode_body(ByteBuffer out) {
+        sender_id.write(out);
+        out.putInt(status);
+    }
+
+    public static ISocketMessage from(ByteBuffer in) {
+        return new AckMessage(ChordId.read(in), in.getInt());
+    }
 }
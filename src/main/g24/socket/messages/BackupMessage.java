@@ -1,21 +1,25 @@
 package main.g24.socket.messages;
 
+import main.g24.FileId;
+import main.g24.chord.ChordId;
 import main.g24.chord.INode;
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.nio.channels.SocketChannel;
 import java.rmi.RemoteException;
 
 public class BackupMessage implements ISocketMessage, ISocketFileMessage {
     // <PROTOCOL> <SENDER_ID> <SENDER_IP> <SENDER_PORT> <FILEHASH> <REP_DEGREE> <FILE_SIZE>
 
-    public final int sender_id, sender_port;
+    public final ChordId sender_id;
+    public final int sender_port;
     public final String sender_ip;
-    public final String filehash;
+    public final FileId filehash;
     public final int rep_degree;
     public final long file_size;
 
-    public BackupMessage(int sender_id, String sender_ip, int sender_port, String filehash, int rep_degree, long file_size) {
+    public BackupMessage(ChordId sender_id, String sender_ip, int sender_port, FileId filehash, int rep_degree, long file_size) {
         this.sender_id = sender_id;
         this.sender_port = sender_port;
         this.sender_ip = sender_ip;
@@ -24,7 +28,7 @@ public class BackupMessage implements ISocketMessage, ISocketFileMessage {
         this.file_size = file_size;
     }
 
-    public static BackupMessage from(INode node, String filehash, int rep_degree, long file_size) {
+    public static BackupMessage from(INode node, FileId filehash, int rep_degree, long file_size) {
         try {
             return new BackupMessage(
                     node.get_id(),
@@ -47,12 +51,12 @@ public class BackupMessage implements ISocketMessage, ISocketFileMessage {
 
     @Override
     public String gen_header() {
-        return String.format("BACKUP %d %s %d %s %d %d", sender_id, sender_ip, sender_port, filehash, rep_degree, file_size);
+        return String.format("BACKUP %s %s %d %s %d %d", sender_id, sender_ip, sender_port, filehash, rep_degree, file_size);
     }
 
     @Override
     public String toString() {
-        return "BACKUP " + sender_id + " " + filehash.substring(0, 6) + " " + rep_degree + " " + file_size;
+        return "BACKUP " + sender_id + " " + filehash.toShortString() + " " + rep_degree + " " + file_size;
     }
 
     public static ISocketMessage from(String[] args) {
@@ -60,17 +64,17 @@ public class BackupMessage implements ISocketMessage, ISocketFileMessage {
             return null;
 
         return new BackupMessage(
-                Integer.parseInt(args[1]), // sender id
+                ChordId.parse(args[1]), // sender id
                 args[2], // sender ip
                 Integer.parseInt(args[3]), // sender port
-                args[4], // filehash
+                FileId.parse(args[4]), // filehash
                 Integer.parseInt(args[5]), // rep degree
                 Long.parseLong(args[6]) // file_size
         );
     }
 
     @Override
-    public String get_filehash() {
+    public FileId get_filehash() {
         return filehash;
     }
 
@@ -82,4 +86,29 @@ public class BackupMessage implements ISocketMessage, ISocketFileMessage {
     public int get_rep_degree() {
         return rep_degree;
     }
+
+    @Override
+    public int body_size() {
+        return ChordId.BYTES + MessageCodec.stringSize(sender_ip) + 4 + MessageCodec.HASH_SIZE + 4 + 8;
+    }
+
+    @Override
+    public void encode_body(ByteBuffer out) {
+        sender_id.write(out);
+        MessageCodec.putString(out, sender_ip);
+        out.putInt(sender_port);
+        MessageCodec.putHash(out, filehash);
+        out.putInt(rep_degree).putLong(file_size);
+    }
+
+    public static ISocketMessage from(ByteBuffer in) {
+        return new BackupMessage(
+                ChordId.read(in), // sender id
+                MessageCodec.getString(in), // sender ip
+                in.getInt(), // sender port
+                MessageCodec.getHash(in), // filehash
+                in.getInt(), // rep degree
+                in.getLong() // file_size
+        );
+    }
 }
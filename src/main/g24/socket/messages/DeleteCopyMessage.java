@@ -1,6 +1,9 @@
 package main.g24.socket.messages;
 
+import main.g24.FileId;
+import main.g24.chord.ChordId;
 import main.g24.chord.INode;
+import java.nio.ByteBuffer;
 import java.rmi.RemoteException;
 
 
@@ -8,11 +11,11 @@ public class DeleteCopyMessage extends DeleteMessage {
     // <PROTOCOL> <SENDER_ID> <SENDER_IP> <SENDER_PORT> <FILEHASH>
 
 
-    public DeleteCopyMessage(int sender_id, String sender_ip, int sender_port, String filehash) {
+    public DeleteCopyMessage(ChordId sender_id, String sender_ip, int sender_port, FileId filehash) {
         super(sender_id, sender_ip, sender_port, filehash);
     }
 
-    public static DeleteCopyMessage from(INode node, String filehash) {
+    public static DeleteCopyMessage from(INode node, FileId filehash) {
         try {
             return new DeleteCopyMessage(
                     node.get_id(),
@@ -33,12 +36,12 @@ public class DeleteCopyMessage extends DeleteMessage {
 
     @Override
     public String gen_header() {
-        return String.format("DELCOPY %d %s %d %s", sender_id, sender_ip, sender_port, filehash);
+        return String.format("DELCOPY %s %s %d %s", sender_id, sender_ip, sender_port, filehash);
     }
 
     @Override
     public String toString() {
-        return "DELCOPY " + sender_id + " " + filehash.substring(0, 6);
+        return "DELCOPY " + sender_id + " " + filehash.toShortString();
     }
 
     public static ISocketMessage from(String[] args) {
@@ -46,10 +49,19 @@ public class DeleteCopyMessage extends DeleteMessage {
             return null;
 
         return new DeleteCopyMessage(
-                Integer.parseInt(args[1]), // sender id
+                ChordId.parse(args[1]), // sender id
                 args[2], // sender ip
                 Integer.parseInt(args[3]), // sender port
-                args[4] // filehash
+                FileId.parse(args[4]) // filehash
+        );
+    }
+
+    public static ISocketMessage from(ByteBuffer in) {
+        return new DeleteCopyMessage(
+                ChordId.read(in), // sender id
+                MessageCodec.getString(in), // sender ip
+                in.getInt(), // sender port
+                MessageCodec.getHash(in) // filehash
         );
     }
 }
@@ -1,17 +1,20 @@
 package main.g24.socket.messages;
 
+import main.g24.FileId;
+import main.g24.chord.ChordId;
 import main.g24.chord.INode;
+import java.nio.ByteBuffer;
 import java.rmi.RemoteException;
 
 
 public class DeleteKeyMessage extends DeleteMessage {
     // <PROTOCOL> <SENDER_ID> <SENDER_IP> <SENDER_PORT> <FILEHASH>
 
-    public DeleteKeyMessage(int sender_id, String sender_ip, int sender_port, String filehash) {
+    public DeleteKeyMessage(ChordId sender_id, String sender_ip, int sender_port, FileId filehash) {
         super(sender_id, sender_ip, sender_port, filehash);
     }
 
-    public static DeleteKeyMessage from(INode node, String filehash) {
+    public static DeleteKeyMessage from(INode node, FileId filehash) {
         try {
             return new DeleteKeyMessage(
                     node.get_id(),
@@ -32,12 +35,12 @@ public class DeleteKeyMessage extends DeleteMessage {
 
     @Override
     public String gen_header() {
-        return String.format("DELKEY %d %s %d %s", sender_id, sender_ip, sender_port, filehash);
+        return String.format("DELKEY %s %s %d %s", sender_id, sender_ip, sender_port, filehash);
     }
 
     @Override
     public String toString() {
-        return "DELKEY " + sender_id + " " + filehash.substring(0, 6);
+        return "DELKEY " + sender_id + " " + filehash.toShortString();
     }
 
     public static ISocketMessage from(String[] args) {
@@ -45,10 +48,19 @@ public class DeleteKeyMessage extends DeleteMessage {
             return null;
 
         return new DeleteKeyMessage(
-                Integer.parseInt(args[1]), // sender id
+                ChordId.parse(args[1]), // sender id
                 args[2], // sender ip
                 Integer.parseInt(args[3]), // sender port
-                args[4] // filehash
+                FileId.parse(args[4]) // filehash
+        );
+    }
+
+    public static ISocketMessage from(ByteBuffer in) {
+        return new DeleteKeyMessage(
+                ChordId.read(in), // sender id
+                MessageCodec.getString(in), // sender ip
+                in.getInt(), // sender port
+                MessageCodec.getHash(in) // filehash
         );
     }
 }
@@ -1,13 +1,19 @@
 package main.g24.socket.messages;
 
+import main.g24.FileId;
+import main.g24.chord.ChordId;
+
+import java.nio.ByteBuffer;
+
 public abstract class DeleteMessage implements ISocketFileMessage {
     // <PROTOCOL> <SENDER_ID> <SENDER_IP> <SENDER_PORT> <FILEHASH>
 
-    public final int sender_id, sender_port;
+    public final ChordId sender_id;
+    public final int sender_port;
     public final String sender_ip;
-    public final String filehash;
+    public final FileId filehash;
 
-    public DeleteMessage(int sender_id, String sender_ip, int sender_port, String filehash) {
+    public DeleteMessage(ChordId sender_id, String sender_ip, int sender_port, FileId filehash) {
         this.sender_id = sender_id;
         this.sender_port = sender_port;
         this.sender_ip = sender_ip;
@@ -15,10 +21,23 @@ public abstract class DeleteMessage implements ISocketFileMessage {
     }
 
     @Override
-    public String get_filehash() {
+    public FileId get_filehash() {
         return filehash;
     }
 
     @Override
     public long get_size()  { return -1; }
+
+    @Override
+    public int body_size() {
+        return ChordId.BYTES + MessageCodec.stringSize(sender_ip) + 4 + MessageCodec.HASH_SIZE;
+    }
+
+    @Override
+    public void encode_body(ByteBuffer out) {
+        sender_id.write(out);
+        MessageCodec.putString(out, sender_ip);
+        out.putInt(sender_port);
+        MessageCodec.putHash(out, filehash);
+    }
 }
@@ -1,17 +1,20 @@
 package main.g24.socket.messages;
 
+import main.g24.FileId;
+import main.g24.chord.ChordId;
 import main.g24.chord.INode;
 
+import java.nio.ByteBuffer;
 import java.rmi.RemoteException;
 
 public class FileExistsMessage implements ISocketMessage, ISocketFileMessage {
 
     // <PROTOCOL> <SENDER_ID> <FILEHASH>
 
-    public final int sender_id;
-    public final String filehash;
+    public final ChordId sender_id;
+    public final FileId filehash;
 
-    public FileExistsMessage(int sender_id, String filehash) {
+    public FileExistsMessage(ChordId sender_id, FileId filehash) {
         this.sender_id = sender_id;
         this.filehash = filehash;
     }
@@ -23,12 +26,12 @@ public class FileExistsMessage implements ISocketMessage, ISocketFileMessage {
 
     @Override
     public String gen_header() {
-        return String.format("FILEEXISTS %d %s", sender_id, filehash);
+        return String.format("FILEEXISTS %s %s", sender_id, filehash);
     }
 
     @Override
     public String toString() {
-        return "FILEEXISTS " + sender_id + " " + filehash.substring(0, 6);
+        return "FILEEXISTS " + sender_id + " " + filehash.toShortString();
     }
 
     public static ISocketMessage from(String[] args) {
@@ -36,13 +39,13 @@ public class FileExistsMessage implements ISocketMessage, ISocketFileMessage {
             return null;
 
         return new FileExistsMessage(
-                Integer.parseInt(args[1]), // sender id
-                args[2] // filehash
+                ChordId.parse(args[1]), // sender id
+                FileId.parse(args[2]) // filehash
         );
     }
 
     @Override
-    public String get_filehash() {
+    public FileId get_filehash() {
         return filehash;
     }
 
@@ -50,4 +53,22 @@ public class FileExistsMessage implements ISocketMessage, ISocketFileMessage {
     public long get_size() {
         return -1;
     }
+
+    @Override
+    public int body_size() {
+        return ChordId.BYTES + MessageCodec.HASH_SIZE;
+    }
+
+    @Override
+    public void encode_body(ByteBuffer out) {
+        sender_id.write(out);
+        MessageCodec.putHash(out, filehash);
+    }
+
+    public static ISocketMessage from(ByteBuffer in) {
+        return new FileExistsMessage(
+                ChordId.read(in), // sender id
+                MessageCodec.getHash(in) // filehash
+        );
+    }
 }
@@ -1,31 +1,38 @@
 package main.g24.socket.messages;
 
+import main.g24.FileId;
+import main.g24.chord.ChordId;
 import main.g24.chord.INode;
 
+import java.nio.ByteBuffer;
 import java.rmi.RemoteException;
 
 public class FileHereMessage implements ISocketMessage, ISocketFileMessage {
 
-    // <PROTOCOL> <SENDER_ID> <ID> <FILEHASH> <SIZE>
+    // <PROTOCOL> <SENDER_ID> <ID> <FILEHASH> <SIZE> [<OFFSET>]
 
-    public final int sender_id, file_at_id;
-    public final String filehash;
+    public final ChordId sender_id, file_at_id;
+    public final FileId filehash;
     public final long size;
+    // agreed offset the file is sent from
+    public final long offset;
 
-    public FileHereMessage(int sender_id, int file_at_id, String filehash, long size) {
+    public FileHereMessage(ChordId sender_id, ChordId file_at_id, FileId filehash, long size, long offset) {
         this.sender_id = sender_id;
         this.file_at_id = file_at_id;
         this.filehash = filehash;
         this.size = size;
+        this.offset = offset;
     }
 
-    public static FileHereMessage from(INode node, int file_at_id, String filehash, long size) {
+    public static FileHereMessage from(INode node, ChordId file_at_id, FileId filehash, long size, long offset) {
         try {
             return new FileHereMessage(
                     node.get_id(),
                     file_at_id,
                     filehash,
-                    size
+                    size,
+                    offset
             );
         } catch (RemoteException e) {
             e.printStackTrace();
@@ -40,12 +47,12 @@ public class FileHereMessage implements ISocketMessage, ISocketFileMessage {
 
     @Override
     public String gen_header() {
-        return String.format("FILEHERE %d %d %s %d", sender_id, file_at_id, filehash, size);
+        return String.format("FILEHERE %s %s %s %d %d", sender_id, file_at_id, filehash, size, offset);
     }
 
     @Override
     public String toString() {
-        return "FILEHERE " + sender_id + " " + filehash.substring(0, 6);
+        return "FILEHERE " + sender_id + " " + filehash.toShortString() + (offset > 0 ? " @" + offset : "");
     }
 
     public static ISocketMessage from(String[] args) {
@@ -53,19 +60,42 @@ public class FileHereMessage implements ISocketMessage, ISocketFileMessage {
             return null;
 
         return new FileHereMessage(
-                Integer.parseInt(args[1]), // sender id
-                Integer.parseInt(args[2]), // peer with file
-                args[3], // filehash
-                Long.parseLong(args[4]) // size
+                ChordId.parse(args[1]), // sender id
+                ChordId.parse(args[2]), // peer with file
+                FileId.parse(args[3]), // filehash
+                Long.parseLong(args[4]), // size
+                args.length > 5 ? Long.parseLong(args[5]) : 0 // offset
         );
     }
 
     @Override
-    public String get_filehash() {
+    public FileId get_filehash() {
         return filehash;
     }
 
     @Override
     public long get_size() { return size; }
 
+    @Override
+    public int body_size() {
+        return ChordId.BYTES + ChordId.BYTES + MessageCodec.HASH_SIZE + 8 + 8;
+    }
+
+    @Override
+    public void encode_body(ByteBuffer out) {
+        sender_id.write(out);
+        file_at_id.write(out);
+        MessageCodec.putHash(out, filehash);
+        out.putLong(size).putLong(offset);
+    }
+
+    public static ISocketMessage from(ByteBuffer in) {
+        return new FileHereMessage(
+                ChordId.read(in), // sender id
+                ChordId.read(in), // peer with file
+                MessageCodec.getHash(in), // filehash
+                in.getLong(), // size
+                in.hasRemaining() ? in.getLong() : 0 // offset
+        );
+    }
 }
@@ -0,0 +1,57 @@
+package main.g24.socket.messages;
+
+import main.g24.chord.ChordId;
+
+import java.nio.ByteBuffer;
+
+public class FindSuccessorMessage implements ISocketMessage {
+
+    // <PROTOCOL> <SENDER_ID> <KEY>
+
+    public final ChordId sender_id, key;
+
+    public FindSuccessorMessage(ChordId sender_id, ChordId key) {
+        this.sender_id = sender_id;
+        this.key = key;
+    }
+
+    @Override
+    public Type get_type() {
+        return Type.FIND_SUCCESSOR;
+    }
+
+    @Override
+    public String gen_header() {
+        return String.format("FIND_SUCCESSOR %s %s", sender_id, key);
+    }
+
+    @Override
+    public String toString() {
+        return "FIND_SUCCESSOR " + sender_id + " " + key;
+    }
+
+    public static ISocketMessage from(String[] args) {
+        if (args.length < 3)
+            return null;
+
+        return new FindSuccessorMessage(
+                ChordId.parse(args[1]), // sender id
+                ChordId.parse(args[2]) // key
+        );
+    }
+
+    @Override
+    public int body_size() {
+        return ChordId.BYTES + ChordId.BYTES;
+    }
+
+    @Override
+    public void encode_body(ByteBuffer out) {
+        sender_id.write(out);
+        key.write(out);
+    }
+
+    public static ISocketMessage from(ByteBuffer in) {
+        return new FindSuccessorMessage(ChordId.read(in), ChordId.read(in));
+    }
+}
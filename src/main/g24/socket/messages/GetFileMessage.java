@@ -1,31 +1,39 @@
 package main.g24.socket.messages;
 
+import main.g24.FileId;
+import main.g24.chord.ChordId;
 import main.g24.chord.INode;
 
+import java.nio.ByteBuffer;
 import java.rmi.RemoteException;
 
 public class GetFileMessage implements ISocketMessage, ISocketFileMessage {
 
-    // <PROTOCOL> <SENDER_ID> <SENDER_IP> <SENDER_PORT> <FILEHASH>
+    // <PROTOCOL> <SENDER_ID> <SENDER_IP> <SENDER_PORT> <FILEHASH> [<OFFSET>]
 
-    public final int sender_id, sender_port;
+    public final ChordId sender_id;
+    public final int sender_port;
     public final String sender_ip;
-    public final String filehash;
+    public final FileId filehash;
+    // bytes the sender already has, the file is sent from there on
+    public final long offset;
 
-    public GetFileMessage(int sender_id, String sender_ip, int sender_port, String filehash) {
+    public GetFileMessage(ChordId sender_id, String sender_ip, int sender_port, FileId filehash, long offset) {
         this.sender_id = sender_id;
         this.sender_port = sender_port;
         this.sender_ip = sender_ip;
         this.filehash = filehash;
+        this.offset = offset;
     }
 
-    public static GetFileMessage from(INode node, String filehash) {
+    public static GetFileMessage from(INode node, FileId filehash, long offset) {
         try {
             return new GetFileMessage(
                     node.get_id(),
                     node.get_address().getHostName(),
                     node.get_port(),
-                    filehash
+                    filehash,
+                    offset
             );
         } catch (RemoteException e) {
             e.printStackTrace();
@@ -40,32 +48,56 @@ public class GetFileMessage implements ISocketMessage, ISocketFileMessage {
 
     @Override
     public String gen_header() {
-        return String.format("GETFILE %d %s %d %s", sender_id, sender_ip, sender_port, filehash);
+        return String.format("GETFILE %s %s %d %s %d", sender_id, sender_ip, sender_port, filehash, offset);
     }
 
     @Override
     public String toString() {
-        return "GETFILE " + sender_id + " " + filehash.substring(0, 6);
+        return "GETFILE " + sender_id + " " + filehash.toShortString() + (offset > 0 ? " @" + offset : "");
     }
 
     public static ISocketMessage from(String[] args) {
-        if (args.length < 4)
+        if (args.length < 5)
             return null;
 
         return new GetFileMessage(
-                Integer.parseInt(args[1]), // sender id
+                ChordId.parse(args[1]), // sender id
                 args[2], // sender ip
                 Integer.parseInt(args[3]), // sender port
-                args[4] // filehash
+                FileId.parse(args[4]), // filehash
+                args.length > 5 ? Long.parseLong(args[5]) : 0 // offset
         );
     }
 
     @Override
-    public String get_filehash() {
+    public FileId get_filehash() {
         return filehash;
     }
 
     @Override
     public long get_size() { return -1; }
 
+    @Override
+    public int body_size() {
+        return ChordId.BYTES + MessageCodec.stringSize(sender_ip) + 4 + MessageCodec.HASH_SIZE + 8;
+    }
+
+    @Override
+    public void encode_body(ByteBuffer out) {
+        sender_id.write(out);
+        MessageCodec.putString(out, sender_ip);
+        out.putInt(sender_port);
+        MessageCodec.putHash(out, filehash);
+        out.putLong(offset);
+    }
+
+    public static ISocketMessage from(ByteBuffer in) {
+        return new GetFileMessage(
+                ChordId.read(in), // sender id
+                MessageCodec.getString(in), // sender ip
+                in.getInt(), // sender port
+                MessageCodec.getHash(in), // filehash
+                in.hasRemaining() ? in.getLong() : 0 // offset
+        );
+    }
 }
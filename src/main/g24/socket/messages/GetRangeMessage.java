@@ -0,0 +1,80 @@
+package main.g24.socket.messages;
+
+import main.g24.FileId;
+import main.g24.chord.ChordId;
+
+import java.nio.ByteBuffer;
+
+public class GetRangeMessage implements ISocketMessage, ISocketFileMessage {
+
+    // <PROTOCOL> <SENDER_ID> <FILEHASH> <OFFSET> <LENGTH>
+
+    public final ChordId sender_id;
+    public final FileId filehash;
+    public final long offset, length;
+
+    public GetRangeMessage(ChordId sender_id, FileId filehash, long offset, long length) {
+        this.sender_id = sender_id;
+        this.filehash = filehash;
+        this.offset = offset;
+        this.length = length;
+    }
+
+    @Override
+    public Type get_type() {
+        return Type.GETRANGE;
+    }
+
+    @Override
+    public String gen_header() {
+        return String.format("GETRANGE %s %s %d %d", sender_id, filehash, offset, length);
+    }
+
+    @Override
+    public String toString() {
+        return "GETRANGE " + sender_id + " " + filehash.toShortString() + " " + offset + "+" + length;
+    }
+
+    public static ISocketMessage from(String[] args) {
+        if (args.length < 5)
+            return null;
+
+        return new GetRangeMessage(
+                ChordId.parse(args[1]), // sender id
+                FileId.parse(args[2]), // filehash
+                Long.parseLong(args[3]), // offset
+                Long.parseLong(args[4]) // length
+        );
+    }
+
+    @Override
+    public FileId get_filehash() {
+        return filehash;
+    }
+
+    @Override
+    public long get_size() {
+        return length;
+    }
+
+    @Override
+    public int body_size() {
+        return ChordId.BYTES + MessageCodec.HASH_SIZE + 8 + 8;
+    }
+
+    @Override
+    public void encode_body(ByteBuffer out) {
+        sender_id.write(out);
+        MessageCodec.putHash(out, filehash);
+        out.putLong(offset).putLong(length);
+    }
+
+    public static ISocketMessage from(ByteBuffer in) {
+        return new GetRangeMessage(
+                ChordId.read(in), // sender id
+                MessageCodec.getHash(in), // filehash
+                in.getLong(), // offset
+                in.getLong() // length
+        );
+    }
+}
@@ -0,0 +1,59 @@
+package main.g24.socket.messages;
+
+import main.g24.chord.ChordId;
+
+import java.nio.ByteBuffer;
+
+public class GetSuccessorsMessage implements ISocketMessage {
+
+    // <PROTOCOL> <SENDER_ID> <TARGET_ID>
+
+    public final ChordId sender_id;
+    // node asked, out of the ones the peer hosts
+    public final ChordId target_id;
+
+    public GetSuccessorsMessage(ChordId sender_id, ChordId target_id) {
+        this.sender_id = sender_id;
+        this.target_id = target_id;
+    }
+
+    @Override
+    public Type get_type() {
+        return Type.GET_SUCCESSORS;
+    }
+
+    @Override
+    public String gen_header() {
+        return String.format("GET_SUCCESSORS %s %s", sender_id, target_id);
+    }
+
+    @Override
+    public String toString() {
+        return "GET_SUCCESSORS " + sender_id + " to " + target_id;
+    }
+
+    public static ISocketMessage from(String[] args) {
+        if (args.length < 3)
+            return null;
+
+        return new GetSuccessorsMessage(
+                ChordId.parse(args[1]), // sender id
+                ChordId.parse(args[2]) // target id
+        );
+    }
+
+    @Override
+    public int body_size() {
+        return 2 * ChordId.BYTES;
+    }
+
+    @Override
+    public void encode_body(ByteBuffer out) {
+        sender_id.write(out);
+        target_id.write(out);
+    }
+
+    public static ISocketMessage from(ByteBuffer in) {
+        return new GetSuccessorsMessage(ChordId.read(in), ChordId.read(in));
+    }
+}
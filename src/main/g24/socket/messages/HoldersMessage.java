@@ -0,0 +1,97 @@
+package main.g24.socket.messages;
+
+import main.g24.FileId;
+import main.g24.chord.ChordId;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+public class HoldersMessage implements ISocketMessage, ISocketFileMessage {
+
+    // <PROTOCOL> <SENDER_ID> <FILEHASH> <SIZE> <HOLDER_ID>...
+
+    public final ChordId sender_id;
+    public final FileId filehash;
+    public final long size;
+    public final List<ChordId> holders;
+
+    public HoldersMessage(ChordId sender_id, FileId filehash, long size, Collection<ChordId> holders) {
+        this.sender_id = sender_id;
+        this.filehash = filehash;
+        this.size = size;
+        this.holders = new ArrayList<>(holders);
+    }
+
+    @Override
+    public Type get_type() {
+        return Type.HOLDERS;
+    }
+
+    @Override
+    public String gen_header() {
+        StringBuilder header = new StringBuilder(String.format("HOLDERS %s %s %d", sender_id, filehash, size));
+        for (ChordId holder : holders)
+            header.append(' ').append(holder);
+        return header.toString();
+    }
+
+    @Override
+    public String toString() {
+        return "HOLDERS " + sender_id + " " + filehash.toShortString() + " " + holders;
+    }
+
+    public static ISocketMessage from(String[] args) {
+        if (args.length < 4)
+            return null;
+
+        List<ChordId> holders = new ArrayList<>();
+        for (int i = 4; i < args.length; i++)
+            holders.add(ChordId.parse(args[i]));
+
+        return new HoldersMessage(
+                ChordId.parse(args[1]), // sender id
+                FileId.parse(args[2]), // filehash
+                Long.parseLong(args[3]), // size
+                holders
+        );
+    }
+
+    @Override
+    public FileId get_filehash() {
+        return filehash;
+    }
+
+    @Override
+    public long get_size() {
+        return size;
+    }
+
+    @Override
+    public int body_size() {
+        return ChordId.BYTES + MessageCodec.HASH_SIZE + 8 + 4 + ChordId.BYTES * holders.size();
+    }
+
+    @Override
+    public void encode_body(ByteBuffer out) {
+        sender_id.write(out);
+        MessageCodec.putHash(out, filehash);
+        out.putLong(size).putInt(holders.size());
+        for (ChordId holder : holders)
+            holder.write(out);
+    }
+
+    public static ISocketMessage from(ByteBuffer in) {
+        ChordId sender_id = ChordId.read(in);
+        FileId filehash = MessageCodec.getHash(in);
+        long size = in.getLong();
+
+        int count = in.getInt();
+        List<ChordId> holders = new ArrayList<>(count);
+        for (int i = 0; i < count; i++)
+            holders.add(ChordId.read(in));
+
+        return new HoldersMessage(sender_id, filehash, size, holders);
+    }
+}
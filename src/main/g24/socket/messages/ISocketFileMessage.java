@@ -1,6 +1,8 @@
 package main.g24.socket.messages;
 
+import main.g24.FileId;
+
 public interface ISocketFileMessage extends ISocketMessage {
-    String get_filehash();
+    FileId get_filehash();
     long get_size();
 }
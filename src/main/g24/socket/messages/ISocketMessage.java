@@ -3,18 +3,38 @@ package main.g24.socket.messages;
 import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.nio.channels.SocketChannel;
-import java.nio.charset.StandardCharsets;
 
 public interface ISocketMessage {
+    String MESSAGE_TERMINATOR = "\r\n\r\n";
+
     String toString();
     Type get_type();
 
     String gen_header();
 
+    /**
+     * @return size in bytes of the binary body
+     */
+    int body_size();
+
+    /**
+     * Writes the binary body, exactly body_size() bytes
+     * @param out buffer to write to
+     */
+    void encode_body(ByteBuffer out);
+
+    /**
+     * @return the message as it goes on the wire
+     */
+    default ByteBuffer encode() {
+        return MessageCodec.encode(this);
+    }
+
     default void send(SocketChannel socketChannel) throws IOException {
-        System.out.println("   [>] " + this);
+        if (!get_type().quiet())
+            System.out.println("   [>] " + this);
 
-        ByteBuffer buffer = ByteBuffer.wrap((this.gen_header() + "\r\n\r\n").getBytes(StandardCharsets.UTF_8));
+        ByteBuffer buffer = this.encode();
         socketChannel.write(buffer);
     }
 }
@@ -0,0 +1,72 @@
+package main.g24.socket.messages;
+
+import main.g24.FileId;
+import main.g24.chord.ChordId;
+
+import java.nio.ByteBuffer;
+
+public class LocateMessage implements ISocketMessage, ISocketFileMessage {
+
+    // <PROTOCOL> <SENDER_ID> <FILEHASH>
+
+    public final ChordId sender_id;
+    public final FileId filehash;
+
+    public LocateMessage(ChordId sender_id, FileId filehash) {
+        this.sender_id = sender_id;
+        this.filehash = filehash;
+    }
+
+    @Override
+    public Type get_type() {
+        return Type.LOCATE;
+    }
+
+    @Override
+    public String gen_header() {
+        return String.format("LOCATE %s %s", sender_id, filehash);
+    }
+
+    @Override
+    public String toString() {
+        return "LOCATE " + sender_id + " " + filehash.toShortString();
+    }
+
+    public static ISocketMessage from(String[] args) {
+        if (args.length < 3)
+            return null;
+
+        return new LocateMessage(
+                ChordId.parse(args[1]), // sender id
+                FileId.parse(args[2]) // filehash
+        );
+    }
+
+    @Override
+    public FileId get_filehash() {
+        return filehash;
+    }
+
+    @Override
+    public long get_size() {
+        return -1;
+    }
+
+    @Override
+    public int body_size() {
+        return ChordId.BYTES + MessageCodec.HASH_SIZE;
+    }
+
+    @Override
+    public void encode_body(ByteBuffer out) {
+        sender_id.write(out);
+        MessageCodec.putHash(out, filehash);
+    }
+
+    public static ISocketMessage from(ByteBuffer in) {
+        return new LocateMessage(
+                ChordId.read(in), // sender id
+                MessageCodec.getHash(in) // filehash
+        );
+    }
+}
@@ -0,0 +1,221 @@
+package main.g24.socket.messages;
+
+import main.g24.FileId;
+import main.g24.Peer;
+import main.g24.SdisUtils;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Wire format of the socket messages.
+ *
+ * Binary frame: <VERSION:1> <TYPE:1> <BODY_LENGTH:4> <BODY>
+ * ints and longs are fixed width (big endian), file hashes go as their 32 raw bytes,
+ * node ids as their ChordId.BYTES raw bytes and strings as <LENGTH:2> <ASCII>.
+ *
+ * The text protocol (<HEADER>\r\n\r\n) is still understood and can be chosen for sending
+ * with -Dg24.protocol=text. Both are told apart by the first byte of the frame,
+ * text headers always start with an uppercase letter.
+ */
+public abstract class MessageCodec {
+
+    // 2: node ids take ChordId.BYTES instead of an int
+    public static final byte VERSION = 2;
+    public static final int FRAME_HEADER = 6, HASH_SIZE = FileId.BYTES;
+    // largest frame a peer takes in, the largest pooled buffer
+    public static final int MAX_FRAME = Peer.BLOCK_SIZE;
+
+    public static final boolean BINARY = !"text".equalsIgnoreCase(System.getProperty("g24.protocol"));
+
+    public static final int TERMINATOR_SIZE = ISocketMessage.MESSAGE_TERMINATOR.length();
+    private static final byte[] TERMINATOR = ISocketMessage.MESSAGE_TERMINATOR.getBytes(StandardCharsets.US_ASCII);
+    private static final Type[] TYPES = Type.values();
+
+    /**
+     * @param message message to encode
+     * @return buffer ready to be written, in the protocol chosen for this peer
+     */
+    public static ByteBuffer encode(ISocketMessage message) {
+        if (!BINARY)
+            return ByteBuffer.wrap((message.gen_header() + ISocketMessage.MESSAGE_TERMINATOR).getBytes(StandardCharsets.US_ASCII));
+
+        int body = message.body_size();
+        ByteBuffer buffer = ByteBuffer.allocate(FRAME_HEADER + body);
+        buffer.put(VERSION)
+                .put((byte) message.get_type().ordinal())
+                .putInt(body);
+        message.encode_body(buffer);
+        return buffer.flip();
+    }
+
+    /**
+     * @param message message to encode
+     * @return bytes encode(message) takes
+     */
+    public static int frameSize(ISocketMessage message) {
+        if (!BINARY)
+            return message.gen_header().length() + TERMINATOR_SIZE;
+        return FRAME_HEADER + message.body_size();
+    }
+
+    /**
+     * Decodes the next message of a buffer in read mode.
+     * On success the buffer's position is moved past the message, otherwise it is left untouched
+     * @param buffer received bytes
+     * @return decoded message or null if it hasn't fully arrived yet
+     * @throws IOException if the frame is malformed
+     */
+    public static ISocketMessage decode(ByteBuffer buffer) throws IOException {
+        return decode(buffer, buffer.position());
+    }
+
+    /**
+     * Same as decode(buffer), but a text header's terminator is only looked for from scanFrom on
+     * @param buffer received bytes
+     * @param scanFrom absolute index of the first byte that may start the terminator
+     */
+    public static ISocketMessage decode(ByteBuffer buffer, int scanFrom) throws IOException {
+        if (!buffer.hasRemaining())
+            return null;
+
+        byte first = buffer.get(buffer.position());
+        if (first == VERSION)
+            return decodeBinary(buffer);
+        if (first >= 'A' && first <= 'Z')
+            return decodeText(buffer, Math.max(buffer.position(), scanFrom));
+
+        throw new IOException("Unknown protocol version " + first);
+    }
+
+    /**
+     * Size of a buffer the pending frame may fit in, once it filled the one it's being read into.
+     * Binary frames tell how long they are, text headers get twice the room until their terminator shows up
+     * @param pending received bytes of the frame, in read mode, the whole buffer's capacity
+     * @return the size, -1 if the frame is larger than MAX_FRAME
+     */
+    public static int grownSize(ByteBuffer pending) {
+        int size;
+        if (isText(pending))
+            size = pending.capacity() < MAX_FRAME ? Math.min(2 * pending.capacity(), MAX_FRAME) : -1;
+        else
+            size = FRAME_HEADER + pending.getInt(pending.position() + 2);
+
+        return size < 0 || size > MAX_FRAME ? -1 : size;
+    }
+
+    public static boolean isText(ByteBuffer buffer) {
+        return buffer.hasRemaining() && buffer.get(buffer.position()) != VERSION;
+    }
+
+    private static ISocketMessage decodeBinary(ByteBuffer buffer) throws IOException {
+        int start = buffer.position();
+        if (buffer.remaining() < FRAME_HEADER)
+            return null;
+
+        int typeIdx = buffer.get(start + 1);
+        int length = buffer.getInt(start + 2);
+        if (typeIdx < 0 || typeIdx >= TYPES.length || length < 0)
+            throw new IOException("Malformed frame header");
+
+        if (buffer.remaining() < FRAME_HEADER + length)
+            return null;
+
+        // decode the body from a view limited to it, so a bad body can't read into the next frame
+        ByteBuffer body = buffer.duplicate();
+        body.position(start + FRAME_HEADER).limit(start + FRAME_HEADER + length);
+
+        ISocketMessage message;
+        try {
+            message = SocketMessageFactory.from(TYPES[typeIdx], body);
+        } catch (RuntimeException e) {
+            throw new IOException("Malformed " + TYPES[typeIdx] + " body", e);
+        }
+        if (message == null)
+            throw new IOException("Unsupported message " + TYPES[typeIdx]);
+
+        buffer.position(start + FRAME_HEADER + length);
+        return message;
+    }
+
+    private static ISocketMessage decodeText(ByteBuffer buffer, int scanFrom) throws IOException {
+        int start = buffer.position();
+        int end = indexOfTerminator(buffer, scanFrom);
+        if (end < 0)
+            return null;
+
+        byte[] header = new byte[end - start];
+        buffer.get(header);
+        buffer.position(end + TERMINATOR.length);
+
+        ISocketMessage message;
+        try {
+            message = SocketMessageFactory.from(new String(header, StandardCharsets.US_ASCII));
+        } catch (RuntimeException e) {
+            throw new IOException("Malformed text header", e);
+        }
+        if (message == null)
+            throw new IOException("Unkown request");
+        return message;
+    }
+
+    /**
+     * @return absolute index of the first terminator at or after from, -1 if there is none
+     */
+    public static int indexOfTerminator(ByteBuffer buffer, int from) {
+        int last = buffer.limit() - TERMINATOR.length;
+        for (int i = from; i <= last; i++) {
+            if (buffer.get(i) == TERMINATOR[0] && buffer.get(i + 1) == TERMINATOR[1]
+                    && buffer.get(i + 2) == TERMINATOR[2] && buffer.get(i + 3) == TERMINATOR[3])
+                return i;
+        }
+        return -1;
+    }
+
+    // ---------------------------------
+    //          FIELD HELPERS
+    // ---------------------------------
+
+    public static int stringSize(String s) {
+        return 2 + s.length();
+    }
+
+    public static void putString(ByteBuffer buffer, String s) {
+        buffer.putShort((short) s.length());
+        for (int i = 0; i < s.length(); i++)
+            buffer.put((byte) s.charAt(i));
+    }
+
+    public static String getString(ByteBuffer buffer) {
+        int length = buffer.getShort() & 0xffff;
+        byte[] bytes = new byte[length];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.US_ASCII);
+    }
+
+    public static void putHash(ByteBuffer buffer, FileId hash) {
+        hash.write(buffer);
+    }
+
+    public static FileId getHash(ByteBuffer buffer) {
+        return FileId.read(buffer);
+    }
+
+    /**
+     * @return bytes in hex, for the text protocol
+     */
+    public static String toHex(byte[] bytes) {
+        char[] hex = new char[2 * bytes.length];
+        for (int i = 0; i < bytes.length; i++)
+            SdisUtils.putHex(hex, 2 * i, bytes[i], 2);
+        return new String(hex);
+    }
+
+    public static byte[] fromHex(String hex) {
+        byte[] bytes = new byte[hex.length() / 2];
+        for (int i = 0; i < bytes.length; i++)
+            bytes[i] = (byte) ((Character.digit(hex.charAt(2 * i), 16) << 4) | Character.digit(hex.charAt(2 * i + 1), 16));
+        return bytes;
+    }
+}
@@ -0,0 +1,41 @@
+package main.g24.socket.messages;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Streaming decoder for one connection.
+ * Remembers how much of a partial text header was already searched for its terminator,
+ * so every readiness event only scans the bytes that just arrived.
+ * Binary frames need no scanning, their header tells how long they are.
+ */
+public class MessageDecoder {
+
+    // bytes after the start of the pending frame known not to begin a terminator
+    private int scanned = 0;
+
+    /**
+     * Decodes the next message of a buffer in read mode.
+     * On success the buffer's position is moved past the message, otherwise it is left untouched
+     * and the scanned bytes are remembered for the next call, which must see the same pending
+     * frame at the buffer's position (compacting in between is fine)
+     * @param buffer received bytes
+     * @return decoded message or null if it hasn't fully arrived yet
+     * @throws IOException if the frame is malformed
+     */
+    public ISocketMessage next(ByteBuffer buffer) throws IOException {
+        ISocketMessage message = MessageCodec.decode(buffer, buffer.position() + scanned);
+
+        if (message != null)
+            scanned = 0;
+        else if (MessageCodec.isText(buffer))
+            // the terminator may straddle what arrived so far and what comes next
+            scanned = Math.max(0, buffer.remaining() - MessageCodec.TERMINATOR_SIZE + 1);
+
+        return message;
+    }
+
+    public void reset() {
+        scanned = 0;
+    }
+}
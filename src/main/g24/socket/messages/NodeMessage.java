@@ -0,0 +1,104 @@
+package main.g24.socket.messages;
+
+import main.g24.chord.ChordId;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Reply to the chord requests, names a node (or none)
+ */
+public class NodeMessage implements ISocketMessage {
+
+    // <PROTOCOL> <SENDER_ID> <STATUS> [<NODE_ID> <NODE_IP> <NODE_PORT>]
+
+    // no such node (e.g. no predecessor), the node asked for, a node closer to the key to ask next
+    public static final int NONE = 0, FOUND = 1, NEXT = 2;
+
+    public final ChordId sender_id;
+    public final int status;
+    public final ChordId node_id;
+    public final int node_port;
+    public final String node_ip;
+
+    public NodeMessage(ChordId sender_id, int status, ChordId node_id, String node_ip, int node_port) {
+        this.sender_id = sender_id;
+        this.status = status;
+        this.node_id = node_id;
+        this.node_ip = node_ip;
+        this.node_port = node_port;
+    }
+
+    public static NodeMessage none(ChordId sender_id) {
+        return new NodeMessage(sender_id, NONE, null, "", -1);
+    }
+
+    @Override
+    public Type get_type() {
+        return Type.NODE;
+    }
+
+    @Override
+    public String gen_header() {
+        if (status == NONE)
+            return String.format("NODE %s %d", sender_id, status);
+        return String.format("NODE %s %d %s %s %d", sender_id, status, node_id, node_ip, node_port);
+    }
+
+    @Override
+    public String toString() {
+        return "NODE " + sender_id + " " + (status == NONE ? "NONE" : (status == FOUND ? "FOUND " : "NEXT ") + node_id);
+    }
+
+    public static ISocketMessage from(String[] args) {
+        if (args.length < 3)
+            return null;
+
+        ChordId sender_id = ChordId.parse(args[1]);
+        int status = Integer.parseInt(args[2]);
+        if (status == NONE)
+            return none(sender_id);
+
+        if (args.length < 6)
+            return null;
+
+        return new NodeMessage(
+                sender_id,
+                status,
+                ChordId.parse(args[3]), // node id
+                args[4], // node ip
+                Integer.parseInt(args[5]) // node port
+        );
+    }
+
+    @Override
+    public int body_size() {
+        return ChordId.BYTES + 1 + (status == NONE ? 0 : ChordId.BYTES + MessageCodec.stringSize(node_ip) + 4);
+    }
+
+    @Override
+    public void encode_body(ByteBuffer out) {
+        sender_id.write(out);
+        out.put((byte) status);
+        if (status == NONE)
+            return;
+
+        node_id.write(out);
+        MessageCodec.putString(out, node_ip);
+        out.putInt(node_port);
+    }
+
+    public static ISocketMessage from(ByteBuffer in) {
+        ChordId sender_id = ChordId.read(in);
+        int status = in.get();
+        if (status == NONE)
+            return none(sender_id);
+
+        return new NodeMessage(
+                sender_id,
+                status,
+                ChordId.read(in), // node id
+                MessageCodec.getString(in), // node ip
+                in.getInt() // node port
+        );
+    }
+}
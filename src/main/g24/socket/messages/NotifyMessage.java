@@ -0,0 +1,72 @@
+package main.g24.socket.messages;
+
+import main.g24.chord.ChordId;
+
+import java.nio.ByteBuffer;
+
+public class NotifyMessage implements ISocketMessage {
+
+    // <PROTOCOL> <SENDER_ID> <SENDER_IP> <SENDER_PORT> <TARGET_ID>
+
+    public final ChordId sender_id;
+    public final int sender_port;
+    public final String sender_ip;
+    // node notified, out of the ones the peer hosts
+    public final ChordId target_id;
+
+    public NotifyMessage(ChordId sender_id, String sender_ip, int sender_port, ChordId target_id) {
+        this.sender_id = sender_id;
+        this.sender_ip = sender_ip;
+        this.sender_port = sender_port;
+        this.target_id = target_id;
+    }
+
+    @Override
+    public Type get_type() {
+        return Type.NOTIFY;
+    }
+
+    @Override
+    public String gen_header() {
+        return String.format("NOTIFY %s %s %d %s", sender_id, sender_ip, sender_port, target_id);
+    }
+
+    @Override
+    public String toString() {
+        return "NOTIFY " + sender_id + " to " + target_id;
+    }
+
+    public static ISocketMessage from(String[] args) {
+        if (args.length < 5)
+            return null;
+
+        return new NotifyMessage(
+                ChordId.parse(args[1]), // sender id
+                args[2], // sender ip
+                Integer.parseInt(args[3]), // sender port
+                ChordId.parse(args[4]) // target id
+        );
+    }
+
+    @Override
+    public int body_size() {
+        return 2 * ChordId.BYTES + MessageCodec.stringSize(sender_ip) + 4;
+    }
+
+    @Override
+    public void encode_body(ByteBuffer out) {
+        sender_id.write(out);
+        MessageCodec.putString(out, sender_ip);
+        out.putInt(sender_port);
+        target_id.write(out);
+    }
+
+    public static ISocketMessage from(ByteBuffer in) {
+        return new NotifyMessage(
+                ChordId.read(in), // sender id
+                MessageCodec.getString(in), // sender ip
+                in.getInt(), // sender port
+                ChordId.read(in) // target id
+        );
+    }
+}
@@ -1,26 +1,199 @@
 package main.g24.socket.messages;
 
-import java.io.Serializable;
-import java.util.Map;
-import java.util.Set;
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 
-import main.g24.FileDetails;
+import main.g24.FileId;
 import main.g24.Peer;
+import main.g24.chord.ChordId;
+import main.g24.metadata.FileIndex;
 
-public class PeerInfo implements Serializable {
+/**
+ * State of a peer, as backed up by the peers that may take over its keys.
+ *
+ * Goes on the wire (after a STATE header) as:
+ * <VERSION:1> <ID> <EPOCH:8> <SEQ:var> <N:var> <VNODE_ID>...
+ * (<1> <STORED_HASH:32>)... <0>
+ * (<1> <HASH:32> <SIZE:var> <REP_DEGREE+1:var> <N:var> (<HOLDER:var> [<HOLDER_ID>])...)... <0>
+ * Ids are ChordId.BYTES bytes. Copy holders are numbered in the order they first appear, a holder's id only
+ * follows its number the first time. Written and read in one pass, so neither end needs the whole state at once.
+ * var is an unsigned varint, 7 bits a byte, lowest first
+ */
+public class PeerInfo {
 
-    public int id;
-    public Set<String> storedFiles;
-    public Map<Integer, Map<String, FileDetails>> fileKeys;
+    private static final byte VERSION = 2;
+    private static final int END = 0, MORE = 1;
+
+    public ChordId id;
+    // ids of every node of the peer, its own first
+    public List<ChordId> vnodes;
+    public Set<FileId> storedFiles;
+    // the files it's the key owner of, the live index of the peer when sending
+    public FileIndex fileKeys;
+    // run of the peer and number of the last of its changes in here, the ones after it come as deltas
+    public long epoch, seq;
 
 
     public static PeerInfo from(Peer peer) {
         PeerInfo info = new PeerInfo();
         info.id = peer.get_id();
+        // before the state itself, a change made meanwhile is at worst applied twice
+        info.epoch = peer.getStateEpoch();
+        info.seq = peer.getStateSeq();
+        info.vnodes = peer.getVirtualNodeIds();
         info.storedFiles = peer.getStoredFiles();
-        info.fileKeys = peer.getFileKeys();
+        info.fileKeys = peer.getFileIndex();
+
+
+        return info;
+    }
+
+    /**
+     * Writes the state as it goes on the wire, the files may keep changing meanwhile
+     */
+    public void write(OutputStream stream) throws IOException {
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(stream, 1 << 16));
+        out.writeByte(VERSION);
+        writeId(out, id);
+        out.writeLong(epoch);
+        writeVar(out, seq);
+
+        writeVar(out, vnodes.size());
+        for (ChordId vnode : vnodes)
+            writeId(out, vnode);
+
+        for (FileId hash : storedFiles) {
+            out.writeByte(MORE);
+            hash.write(out);
+        }
+        out.writeByte(END);
+
+        Map<ChordId, Integer> holders = new HashMap<>();
+        try {
+            fileKeys.forEach(fd -> {
+                try {
+                    out.writeByte(MORE);
+                    fd.getHash().write(out);
+                    writeVar(out, fd.getSize());
+                    writeVar(out, fd.getDesiredReplication() + 1);
+
+                    List<ChordId> copies = fd.getFileCopies();
+                    writeVar(out, copies.size());
+                    for (ChordId copy : copies) {
+                        Integer holder = holders.get(copy);
+                        if (holder != null) {
+                            writeVar(out, holder);
+                        } else {
+                            writeVar(out, holders.size());
+                            writeId(out, copy);
+                            holders.put(copy, holders.size());
+                        }
+                    }
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+        out.writeByte(END);
+        out.flush();
+    }
+
+    /**
+     * @return state written by write, read as it arrives
+     * @throws IOException if the stream ends early or isn't a state
+     */
+    public static PeerInfo read(InputStream stream) throws IOException {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(stream, 1 << 16));
+        if (in.readByte() != VERSION)
+            throw new IOException("Unknown state version");
+
+        PeerInfo info = new PeerInfo();
+        info.id = readId(in);
+        info.epoch = in.readLong();
+        info.seq = readVar(in);
 
+        // the counts aren't trusted to size anything, the collections grow as the items actually arrive
+        int n = readCount(in);
+        info.vnodes = new ArrayList<>();
+        for (int i = 0; i < n; i++)
+            info.vnodes.add(readId(in));
 
+        info.storedFiles = ConcurrentHashMap.newKeySet();
+        while (readMore(in))
+            info.storedFiles.add(FileId.read(in));
+
+        info.fileKeys = new FileIndex();
+        List<ChordId> holders = new ArrayList<>();
+        List<ChordId> copies = new ArrayList<>();
+        while (readMore(in)) {
+            FileId hash = FileId.read(in);
+            long size = readVar(in);
+            int repDegree = (int) readVar(in) - 1;
+
+            copies.clear();
+            int count = readCount(in);
+            for (int k = 0; k < count; k++) {
+                int holder = readCount(in);
+                if (holder == holders.size())
+                    holders.add(readId(in));
+                else if (holder > holders.size())
+                    throw new IOException("Copy holder " + holder + " of " + holders.size());
+                copies.add(holders.get(holder));
+            }
+            info.fileKeys.put(hash, size, repDegree, copies);
+        }
         return info;
     }
+
+    private static boolean readMore(DataInputStream in) throws IOException {
+        int marker = in.readUnsignedByte();
+        if (marker != MORE && marker != END)
+            throw new IOException("Bad list marker " + marker);
+        return marker == MORE;
+    }
+
+    private static void writeVar(DataOutputStream out, long value) throws IOException {
+        while ((value & ~0x7fL) != 0) {
+            out.writeByte((int) (value & 0x7f) | 0x80);
+            value >>>= 7;
+        }
+        out.writeByte((int) value);
+    }
+
+    private static long readVar(DataInputStream in) throws IOException {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            int b = in.readUnsignedByte();
+            value |= (long) (b & 0x7f) << shift;
+            if ((b & 0x80) == 0)
+                return value;
+        }
+        throw new IOException("Varint too long");
+    }
+
+    /**
+     * @return a count, which has to fit in an int
+     */
+    private static int readCount(DataInputStream in) throws IOException {
+        long count = readVar(in);
+        if (count > Integer.MAX_VALUE)
+            throw new IOException("Count out of range " + count);
+        return (int) count;
+    }
+
+    private static void writeId(DataOutputStream out, ChordId id) throws IOException {
+        byte[] bytes = new byte[ChordId.BYTES];
+        id.write(ByteBuffer.wrap(bytes));
+        out.write(bytes);
+    }
+
+    private static ChordId readId(DataInputStream in) throws IOException {
+        byte[] bytes = new byte[ChordId.BYTES];
+        in.readFully(bytes);
+        return ChordId.fromBytes(bytes, 0);
+    }
 }
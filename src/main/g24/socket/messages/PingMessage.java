@@ -0,0 +1,54 @@
+package main.g24.socket.messages;
+
+import main.g24.chord.ChordId;
+
+import java.nio.ByteBuffer;
+
+public class PingMessage implements ISocketMessage {
+
+    // <PROTOCOL> <SENDER_ID>
+
+    public final ChordId sender_id;
+
+    public PingMessage(ChordId sender_id) {
+        this.sender_id = sender_id;
+    }
+
+    @Override
+    public Type get_type() {
+        return Type.PING;
+    }
+
+    @Override
+    public String gen_header() {
+        return String.format("PING %s", sender_id);
+    }
+
+    @Override
+    public String toString() {
+        return "PING " + sender_id;
+    }
+
+    public static ISocketMessage from(String[] args) {
+        if (args.length < 2)
+            return null;
+
+        return new PingMessage(
+                ChordId.parse(args[1]) // sender id
+        );
+    }
+
+    @Override
+    public int body_size() {
+        return ChordId.BYTES;
+    }
+
+    @Override
+    public void encode_body(ByteBuffer out) {
+        sender_id.write(out);
+    }
+
+    public static ISocketMessage from(ByteBuffer in) {
+        return new PingMessage(ChordId.read(in));
+    }
+}
@@ -0,0 +1,77 @@
+package main.g24.socket.messages;
+
+import main.g24.FileId;
+import main.g24.chord.ChordId;
+
+import java.nio.ByteBuffer;
+
+public class PutFileMessage implements ISocketFileMessage {
+
+    // <PROTOCOL> <SENDER_ID> <FILEHASH> <FILE_SIZE>
+
+    public final ChordId sender_id;
+    public final FileId filehash;
+    public final long file_size;
+
+    public PutFileMessage(ChordId sender_id, FileId filehash, long file_size) {
+        this.sender_id = sender_id;
+        this.filehash = filehash;
+        this.file_size = file_size;
+    }
+
+    @Override
+    public Type get_type() {
+        return Type.PUTFILE;
+    }
+
+    @Override
+    public String gen_header() {
+        return String.format("PUTFILE %s %s %d", sender_id, filehash, file_size);
+    }
+
+    @Override
+    public String toString() {
+        return "PUTFILE " + sender_id + " " + filehash.toShortString() + " " + file_size;
+    }
+
+    public static ISocketMessage from(String[] args) {
+        if (args.length < 4)
+            return null;
+
+        return new PutFileMessage(
+                ChordId.parse(args[1]), // sender id
+                FileId.parse(args[2]), // filehash
+                Long.parseLong(args[3]) // file_size
+        );
+    }
+
+    @Override
+    public int body_size() {
+        return ChordId.BYTES + MessageCodec.HASH_SIZE + 8;
+    }
+
+    @Override
+    public void encode_body(ByteBuffer out) {
+        sender_id.write(out);
+        MessageCodec.putHash(out, filehash);
+        out.putLong(file_size);
+    }
+
+    public static ISocketMessage from(ByteBuffer in) {
+        return new PutFileMessage(
+                ChordId.read(in), // sender id
+                MessageCodec.getHash(in), // filehash
+                in.getLong() // file_size
+        );
+    }
+
+    @Override
+    public FileId get_filehash() {
+        return filehash;
+    }
+
+    @Override
+    public long get_size() {
+        return file_size;
+    }
+}
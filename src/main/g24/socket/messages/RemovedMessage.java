@@ -1,23 +1,27 @@
 package main.g24.socket.messages;
 
+import main.g24.FileId;
+import main.g24.chord.ChordId;
 import main.g24.chord.INode;
+import java.nio.ByteBuffer;
 import java.rmi.RemoteException;
 
 public class RemovedMessage implements ISocketFileMessage{
 
     // <PROTOCOL> <SENDER_ID> <SENDER_IP> <SENDER_PORT> <FILEHASH>
 
-    public final int sender_id, sender_port;
+    public final ChordId sender_id;
+    public final int sender_port;
     public final String sender_ip;
-    public final String filehash;
+    public final FileId filehash;
 
-    public RemovedMessage(int sender_id, String sender_ip, int sender_port, String filehash) {
+    public RemovedMessage(ChordId sender_id, String sender_ip, int sender_port, FileId filehash) {
         this.sender_id = sender_id;
         this.sender_port = sender_port;
         this.sender_ip = sender_ip;
         this.filehash = filehash;
     }
-    public static RemovedMessage from(INode node, String filehash) {
+    public static RemovedMessage from(INode node, FileId filehash) {
         try {
             return new RemovedMessage(
                     node.get_id(),
@@ -38,12 +42,12 @@ public class RemovedMessage implements ISocketFileMessage{
 
     @Override
     public String gen_header() {
-        return String.format("REMOVED %d %s %d %s", sender_id, sender_ip, sender_port, filehash);
+        return String.format("REMOVED %s %s %d %s", sender_id, sender_ip, sender_port, filehash);
     }
 
     @Override
     public String toString() {
-        return "REMOVED " + sender_id + " " + filehash.substring(0, 6);
+        return "REMOVED " + sender_id + " " + filehash.toShortString();
     }
 
     public static ISocketMessage from(String[] args) {
@@ -51,15 +55,15 @@ public class RemovedMessage implements ISocketFileMessage{
             return null;
 
         return new RemovedMessage(
-                Integer.parseInt(args[1]), // sender id
+                ChordId.parse(args[1]), // sender id
                 args[2], // sender ip
                 Integer.parseInt(args[3]), // sender port
-                args[4] // filehash
+                FileId.parse(args[4]) // filehash
         );
     }
 
     @Override
-    public String get_filehash() {
+    public FileId get_filehash() {
         return filehash;
     }
 
@@ -67,4 +71,26 @@ public class RemovedMessage implements ISocketFileMessage{
     public long get_size() {
         return -1;
     }
+
+    @Override
+    public int body_size() {
+        return ChordId.BYTES + MessageCodec.stringSize(sender_ip) + 4 + MessageCodec.HASH_SIZE;
+    }
+
+    @Override
+    public void encode_body(ByteBuffer out) {
+        sender_id.write(out);
+        MessageCodec.putString(out, sender_ip);
+        out.putInt(sender_port);
+        MessageCodec.putHash(out, filehash);
+    }
+
+    public static ISocketMessage from(ByteBuffer in) {
+        return new RemovedMessage(
+                ChordId.read(in), // sender id
+                MessageCodec.getString(in), // sender ip
+                in.getInt(), // sender port
+                MessageCodec.getHash(in) // filehash
+        );
+    }
 }
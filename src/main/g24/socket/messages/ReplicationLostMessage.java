@@ -1,12 +1,17 @@
 package main.g24.socket.messages;
 
+import main.g24.FileId;
+import main.g24.chord.ChordId;
+
+import java.nio.ByteBuffer;
+
 public class ReplicationLostMessage implements ISocketMessage {
     // <PROTOCOL> <SENDER_ID> <ID_LOST> <FILEHASH>
 
-    public final int sender_id, peer_lost;
-    public final String filehash;
+    public final ChordId sender_id, peer_lost;
+    public final FileId filehash;
 
-    public ReplicationLostMessage(int sender_id, int peer_lost, String filehash) {
+    public ReplicationLostMessage(ChordId sender_id, ChordId peer_lost, FileId filehash) {
         this.sender_id = sender_id;
         this.peer_lost = peer_lost;
         this.filehash = filehash;
@@ -19,12 +24,12 @@ public class ReplicationLostMessage implements ISocketMessage {
 
     @Override
     public String gen_header() {
-        return String.format("REPLLOST %d %d %s", sender_id, peer_lost, filehash);
+        return String.format("REPLLOST %s %s %s", sender_id, peer_lost, filehash);
     }
 
     @Override
     public String toString() {
-        return "REPLLOST " + sender_id + " " + peer_lost + " " + filehash.substring(0, 6);
+        return "REPLLOST " + sender_id + " " + peer_lost + " " + filehash.toShortString();
     }
 
     public static ISocketMessage from(String[] args) {
@@ -32,9 +37,29 @@ public class ReplicationLostMessage implements ISocketMessage {
             return null;
 
         return new ReplicationLostMessage(
-                Integer.parseInt(args[1]), // sender id
-                Integer.parseInt(args[2]), // peer that lost
-                args[3] // filehash
+                ChordId.parse(args[1]), // sender id
+                ChordId.parse(args[2]), // peer that lost
+                FileId.parse(args[3]) // filehash
+        );
+    }
+
+    @Override
+    public int body_size() {
+        return ChordId.BYTES + ChordId.BYTES + MessageCodec.HASH_SIZE;
+    }
+
+    @Override
+    public void encode_body(ByteBuffer out) {
+        sender_id.write(out);
+        peer_lost.write(out);
+        MessageCodec.putHash(out, filehash);
+    }
+
+    public static ISocketMessage from(ByteBuffer in) {
+        return new ReplicationLostMessage(
+                ChordId.read(in), // sender id
+                ChordId.read(in), // peer that lost
+                MessageCodec.getHash(in) // filehash
         );
     }
 }
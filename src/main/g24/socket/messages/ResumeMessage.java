@@ -0,0 +1,57 @@
+package main.g24.socket.messages;
+
+import main.g24.chord.ChordId;
+
+import java.nio.ByteBuffer;
+
+public class ResumeMessage implements ISocketMessage {
+    // <PROTOCOL> <SENDER_ID> <OFFSET>
+
+    public final ChordId sender_id;
+    public final long offset;
+
+    public ResumeMessage(ChordId sender_id, long offset) {
+        this.sender_id = sender_id;
+        this.offset = offset;
+    }
+
+    @Override
+    public Type get_type() {
+        return Type.RESUME;
+    }
+
+    @Override
+    public String gen_header() {
+        return String.format("RESUME %s %d", sender_id, offset);
+    }
+
+    @Override
+    public String toString() {
+        return "RESUME " + sender_id + " " + offset;
+    }
+
+    public static ISocketMessage from(String[] args) {
+        if (args.length < 3)
+            return null;
+
+        return new ResumeMessage(
+                ChordId.parse(args[1]), // sender id
+                Long.parseLong(args[2]) // offset
+        );
+    }
+
+    @Override
+    public int body_size() {
+        return ChordId.BYTES + 8;
+    }
+
+    @Override
+    public void encode_body(ByteBuffer out) {
+        sender_id.write(out);
+        out.putLong(offset);
+    }
+
+    public static ISocketMessage from(ByteBuffer in) {
+        return new ResumeMessage(ChordId.read(in), in.getLong());
+    }
+}
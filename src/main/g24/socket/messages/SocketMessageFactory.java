@@ -1,5 +1,7 @@
 package main.g24.socket.messages;
 
+import java.nio.ByteBuffer;
+
 public abstract class SocketMessageFactory {
 
     public static ISocketMessage from(String message) {
@@ -11,8 +13,6 @@ public abstract class SocketMessageFactory {
        return switch (Type.valueOf(args[0])) {
            case ACK -> AckMessage.from(args);
            case BACKUP -> BackupMessage.from(args);
-           case REPLICATE -> ReplicateMessage.from(args);
-           case REPLICATED -> ReplicatedMessage.from(args);
            case DELKEY -> DeleteKeyMessage.from(args);
            case DELCOPY -> DeleteCopyMessage.from(args);
            case REMOVED -> RemovedMessage.from(args);
@@ -21,7 +21,51 @@ public abstract class SocketMessageFactory {
            case STATE -> StateMessage.from(args);
            case FILEEXISTS -> FileExistsMessage.from(args);
            case REPLLOST -> ReplicationLostMessage.from(args);
+           case PUTFILE -> PutFileMessage.from(args);
+           case RESUME -> ResumeMessage.from(args);
+           case LOCATE -> LocateMessage.from(args);
+           case HOLDERS -> HoldersMessage.from(args);
+           case GETRANGE -> GetRangeMessage.from(args);
+           case FIND_SUCCESSOR -> FindSuccessorMessage.from(args);
+           case GET_PREDECESSOR -> GetPredecessorMessage.from(args);
+           case GET_SUCCESSOR -> GetSuccessorMessage.from(args);
+           case NOTIFY -> NotifyMessage.from(args);
+           case PING -> PingMessage.from(args);
+           case NODE -> NodeMessage.from(args);
+           case GET_SUCCESSORS -> GetSuccessorsMessage.from(args);
+           case SUCCESSORS -> SuccessorsMessage.from(args);
+           case STATEDELTA -> StateDeltaMessage.from(args);
            default -> null;
        };
     }
+
+    public static ISocketMessage from(Type type, ByteBuffer body) {
+        return switch (type) {
+            case ACK -> AckMessage.from(body);
+            case BACKUP -> BackupMessage.from(body);
+            case DELKEY -> DeleteKeyMessage.from(body);
+            case DELCOPY -> DeleteCopyMessage.from(body);
+            case REMOVED -> RemovedMessage.from(body);
+            case GETFILE -> GetFileMessage.from(body);
+            case FILEHERE -> FileHereMessage.from(body);
+            case STATE -> StateMessage.from(body);
+            case FILEEXISTS -> FileExistsMessage.from(body);
+            case REPLLOST -> ReplicationLostMessage.from(body);
+            case PUTFILE -> PutFileMessage.from(body);
+            case RESUME -> ResumeMessage.from(body);
+            case LOCATE -> LocateMessage.from(body);
+            case HOLDERS -> HoldersMessage.from(body);
+            case GETRANGE -> GetRangeMessage.from(body);
+            case FIND_SUCCESSOR -> FindSuccessorMessage.from(body);
+            case GET_PREDECESSOR -> GetPredecessorMessage.from(body);
+            case GET_SUCCESSOR -> GetSuccessorMessage.from(body);
+            case NOTIFY -> NotifyMessage.from(body);
+            case PING -> PingMessage.from(body);
+            case NODE -> NodeMessage.from(body);
+            case GET_SUCCESSORS -> GetSuccessorsMessage.from(body);
+            case SUCCESSORS -> SuccessorsMessage.from(body);
+            case STATEDELTA -> StateDeltaMessage.from(body);
+            default -> null;
+        };
+    }
 }
@@ -0,0 +1,102 @@
+package main.g24.socket.messages;
+
+import main.g24.chord.ChordId;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+public class StateDeltaMessage implements ISocketMessage {
+    // <PROTOCOL> <SENDER_ID> <EPOCH> <FROM_SEQ> <RECORD>...
+
+    // binary body without the records, each record takes its length on top of its bytes
+    public static final int FIXED_SIZE = ChordId.BYTES + 8 + 8 + 4, RECORD_OVERHEAD = 2, MAX_RECORD = 0xffff;
+
+    public final ChordId sender_id;
+    // tells the runs of the sender apart, the numbering starts over on every one
+    public final long epoch;
+    // number of the first change, the others follow in order
+    public final long from_seq;
+    // encoded MetadataRecords
+    public final List<byte[]> records;
+
+    public StateDeltaMessage(ChordId sender_id, long epoch, long from_seq, List<byte[]> records) {
+        this.sender_id = sender_id;
+        this.epoch = epoch;
+        this.from_seq = from_seq;
+        this.records = records;
+    }
+
+    /**
+     * @return number of the last change
+     */
+    public long to_seq() {
+        return from_seq + records.size() - 1;
+    }
+
+    @Override
+    public Type get_type() {
+        return Type.STATEDELTA;
+    }
+
+    @Override
+    public String gen_header() {
+        StringBuilder header = new StringBuilder(String.format("STATEDELTA %s %d %d", sender_id, epoch, from_seq));
+        for (byte[] record : records)
+            header.append(' ').append(MessageCodec.toHex(record));
+        return header.toString();
+    }
+
+    @Override
+    public String toString() {
+        return "STATEDELTA " + sender_id + " " + from_seq + ".." + to_seq();
+    }
+
+    public static ISocketMessage from(String[] args) {
+        if (args.length < 4)
+            return null;
+
+        List<byte[]> records = new ArrayList<>();
+        for (int i = 4; i < args.length; i++)
+            records.add(MessageCodec.fromHex(args[i]));
+
+        return new StateDeltaMessage(
+                ChordId.parse(args[1]), // sender id
+                Long.parseLong(args[2]), // epoch
+                Long.parseLong(args[3]), // first change
+                records
+        );
+    }
+
+    @Override
+    public int body_size() {
+        int size = FIXED_SIZE;
+        for (byte[] record : records)
+            size += RECORD_OVERHEAD + record.length;
+        return size;
+    }
+
+    @Override
+    public void encode_body(ByteBuffer out) {
+        sender_id.write(out);
+        out.putLong(epoch).putLong(from_seq).putInt(records.size());
+        for (byte[] record : records)
+            out.putShort((short) record.length).put(record);
+    }
+
+    public static ISocketMessage from(ByteBuffer in) {
+        ChordId sender_id = ChordId.read(in);
+        long epoch = in.getLong();
+        long from_seq = in.getLong();
+
+        int count = in.getInt();
+        List<byte[]> records = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            byte[] record = new byte[in.getShort() & 0xffff];
+            in.get(record);
+            records.add(record);
+        }
+
+        return new StateDeltaMessage(sender_id, epoch, from_seq, records);
+    }
+}
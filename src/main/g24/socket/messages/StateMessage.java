@@ -1,5 +1,8 @@
 package main.g24.socket.messages;
 
+import main.g24.chord.ChordId;
+
+import java.nio.ByteBuffer;
 import java.rmi.RemoteException;
 
 import main.g24.chord.INode;
@@ -7,10 +10,11 @@ import main.g24.chord.INode;
 public class StateMessage implements ISocketMessage {
    // <PROTOCOL> <SENDER_ID> <SENDER_IP> <SENDER_PORT>
 
-   public final int sender_id, sender_port;
+   public final ChordId sender_id;
+   public final int sender_port;
    public final String sender_ip;
 
-   public StateMessage(int sender_id, String sender_ip, int sender_port) {
+   public StateMessage(ChordId sender_id, String sender_ip, int sender_port) {
        this.sender_id = sender_id;
        this.sender_port = sender_port;
        this.sender_ip = sender_ip;
@@ -36,7 +40,7 @@ public class StateMessage implements ISocketMessage {
 
    @Override
    public String gen_header() {
-       return String.format("STATE %d %s %d", sender_id, sender_ip, sender_port);
+       return String.format("STATE %s %s %d", sender_id, sender_ip, sender_port);
    }
 
    @Override
@@ -49,9 +53,29 @@ public class StateMessage implements ISocketMessage {
            return null;
 
        return new StateMessage(
-               Integer.parseInt(args[1]), // sender id
+               ChordId.parse(args[1]), // sender id
                args[2], // sender ip
                Integer.parseInt(args[3]) // sender port
        );
    }
+
+   @Override
+   public int body_size() {
+       return ChordId.BYTES + MessageCodec.stringSize(sender_ip) + 4;
+   }
+
+   @Override
+   public void encode_body(ByteBuffer out) {
+       sender_id.write(out);
+       MessageCodec.putString(out, sender_ip);
+       out.putInt(sender_port);
+   }
+
+   public static ISocketMessage from(ByteBuffer in) {
+       return new StateMessage(
+               ChordId.read(in), // sender id
+               MessageCodec.getString(in), // sender ip
+               in.getInt() // sender port
+       );
+   }
 }
@@ -0,0 +1,104 @@
+package main.g24.socket.messages;
+
+import main.g24.chord.ChordId;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Reply to GET_SUCCESSORS, the sender's successor list in ring order
+ */
+public class SuccessorsMessage implements ISocketMessage {
+
+    // <PROTOCOL> <SENDER_ID> [<NODE_ID> <NODE_IP> <NODE_PORT>]...
+
+    public static class Entry {
+        public final ChordId id;
+        public final int port;
+        public final String ip;
+
+        public Entry(ChordId id, String ip, int port) {
+            this.id = id;
+            this.ip = ip;
+            this.port = port;
+        }
+    }
+
+    public final ChordId sender_id;
+    public final List<Entry> successors;
+
+    public SuccessorsMessage(ChordId sender_id, List<Entry> successors) {
+        this.sender_id = sender_id;
+        this.successors = successors;
+    }
+
+    @Override
+    public Type get_type() {
+        return Type.SUCCESSORS;
+    }
+
+    @Override
+    public String gen_header() {
+        StringBuilder header = new StringBuilder(String.format("SUCCESSORS %s", sender_id));
+        for (Entry successor : successors)
+            header.append(' ').append(successor.id).append(' ').append(successor.ip).append(' ').append(successor.port);
+        return header.toString();
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder string = new StringBuilder("SUCCESSORS " + sender_id);
+        for (Entry successor : successors)
+            string.append(' ').append(successor.id);
+        return string.toString();
+    }
+
+    public static ISocketMessage from(String[] args) {
+        if (args.length < 2 || (args.length - 2) % 3 != 0)
+            return null;
+
+        List<Entry> successors = new ArrayList<>();
+        for (int i = 2; i < args.length; i += 3)
+            successors.add(new Entry(
+                    ChordId.parse(args[i]), // node id
+                    args[i + 1], // node ip
+                    Integer.parseInt(args[i + 2]) // node port
+            ));
+
+        return new SuccessorsMessage(
+                ChordId.parse(args[1]), // sender id
+                successors
+        );
+    }
+
+    @Override
+    public int body_size() {
+        int size = ChordId.BYTES + 4;
+        for (Entry successor : successors)
+            size += ChordId.BYTES + MessageCodec.stringSize(successor.ip) + 4;
+        return size;
+    }
+
+    @Override
+    public void encode_body(ByteBuffer out) {
+        sender_id.write(out);
+        out.putInt(successors.size());
+        for (Entry successor : successors) {
+            successor.id.write(out);
+            MessageCodec.putString(out, successor.ip);
+            out.putInt(successor.port);
+        }
+    }
+
+    public static ISocketMessage from(ByteBuffer in) {
+        ChordId sender_id = ChordId.read(in);
+
+        int count = in.getInt();
+        List<Entry> successors = new ArrayList<>(count);
+        for (int i = 0; i < count; i++)
+            successors.add(new Entry(ChordId.read(in), MessageCodec.getString(in), in.getInt()));
+
+        return new SuccessorsMessage(sender_id, successors);
+    }
+}
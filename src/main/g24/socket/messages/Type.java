@@ -1,16 +1,43 @@
 package main.g24.socket.messages;
 
+import java.util.EnumSet;
+import java.util.Set;
+
+// the ordinal is the type byte of binary frames, only ever append new types
 public enum Type {
     BACKUP,        // <PROTOCOL> <SENDER_ID> <SENDER_IP> <SENDER_PORT> <FILEHASH> <REP_DEGREE> <FILE_SIZE>
     DELKEY,        // <PROTOCOL> <SENDER_ID> <SENDER_IP> <SENDER_PORT> <FILEHASH>
     DELCOPY,       // <PROTOCOL> <SENDER_ID> <SENDER_IP> <SENDER_PORT> <FILEHASH>
-    GETFILE,       // <PROTOCOL> <SENDER_ID> <SENDER_IP> <SENDER_PORT> <FILEHASH>
-    FILEHERE,      // <PROTOCOL> <SENDER_ID> <ID> <FILEHASH> <SIZE>
+    GETFILE,       // <PROTOCOL> <SENDER_ID> <SENDER_IP> <SENDER_PORT> <FILEHASH> [<OFFSET>]
+    FILEHERE,      // <PROTOCOL> <SENDER_ID> <ID> <FILEHASH> <SIZE> [<OFFSET>]
     FILEEXISTS,    // <PROTOCOL> <SENDER_ID> <FILEHASH>
-    REPLICATE,     // <PROTOCOL> <SENDER_ID> <SENDER_IP> <SENDER_PORT> <FILEHASH> <FILE_SIZE> <REP_DEGREE>
-    REPLICATED,    // <PROTOCOL> <SENDER_ID> <FILEHASH>
+    REPLICATE,     // no longer sent, replicas are pushed by the key owner (PUTFILE)
+    REPLICATED,    // no longer sent
     REPLLOST,      // <PROTOCOL> <SENDER_ID> <LOST_PEER> <FILEHASH>
     ACK,           // <PROTOCOL> <SENDER_ID> <STATUS>
     REMOVED,       // <PROTOCOL> <SENDER_ID> <SENDER_IP> <SENDER_PORT> <FILEHASH>
     STATE,         // <PROTOCOL> <SENDER_ID> <SENDER_IP> <SENDER_PORT>
+    PUTFILE,       // <PROTOCOL> <SENDER_ID> <FILEHASH> <FILE_SIZE>
+    RESUME,        // <PROTOCOL> <SENDER_ID> <OFFSET>
+    LOCATE,        // <PROTOCOL> <SENDER_ID> <FILEHASH>
+    HOLDERS,       // <PROTOCOL> <SENDER_ID> <FILEHASH> <SIZE> <HOLDER_ID>...
+    GETRANGE,      // <PROTOCOL> <SENDER_ID> <FILEHASH> <OFFSET> <LENGTH>
+    FIND_SUCCESSOR,  // <PROTOCOL> <SENDER_ID> <KEY>
+    GET_PREDECESSOR, // <PROTOCOL> <SENDER_ID>
+    GET_SUCCESSOR,   // <PROTOCOL> <SENDER_ID>
+    NOTIFY,          // <PROTOCOL> <SENDER_ID> <SENDER_IP> <SENDER_PORT>
+    PING,            // <PROTOCOL> <SENDER_ID>
+    NODE,            // <PROTOCOL> <SENDER_ID> <STATUS> [<NODE_ID> <NODE_IP> <NODE_PORT>]
+    GET_SUCCESSORS,  // <PROTOCOL> <SENDER_ID>
+    SUCCESSORS,      // <PROTOCOL> <SENDER_ID> [<NODE_ID> <NODE_IP> <NODE_PORT>]...
+    STATEDELTA,      // <PROTOCOL> <SENDER_ID> <EPOCH> <FROM_SEQ> <RECORD>...
+    ;
+
+    // ring maintenance runs every second, its messages aren't logged
+    private static final Set<Type> QUIET = EnumSet.of(FIND_SUCCESSOR, GET_PREDECESSOR, GET_SUCCESSOR, NOTIFY, PING, NODE,
+            GET_SUCCESSORS, SUCCESSORS);
+
+    public boolean quiet() {
+        return QUIET.contains(this);
+    }
 }